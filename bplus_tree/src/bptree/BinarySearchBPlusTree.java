@@ -0,0 +1,81 @@
+package bptree;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A {@code BinarySearchBPlusTree} is a {@code BPlusTree} that finds the child of a {@code NonLeafNode} to descend to by
+ * a binary search over the keys of the {@code NonLeafNode} rather than a linear scan, so a descent costs O(log degree)
+ * comparisons per level. It also supports point lookups, which use a binary search in the leaf as well. Insertions and
+ * deletions descend with {@link #find(Comparable, BPlusTree.NodePointerPair, Map)} and thus benefit from the binary
+ * search.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <P>
+ *            the type of pointers
+ */
+public class BinarySearchBPlusTree<K extends Comparable<K>, P> extends BPlusTree<K, P> {
+
+	/**
+	 * Constructs a {@code BinarySearchBPlusTree}.
+	 *
+	 * @param degree
+	 *            the maximum number of pointers that each node can have
+	 * @param sm
+	 *            the {@code StorageManager} used for storing the nodes
+	 * @param fileName
+	 *            the name of the file for storing the nodes
+	 */
+	public BinarySearchBPlusTree(int degree, StorageManager<P, Object> sm, String fileName) {
+		super(degree, sm, fileName);
+	}
+
+	/**
+	 * Returns the pointer associated with the specified key.
+	 *
+	 * @param key
+	 *            a key
+	 * @return the pointer associated with the key ({@code null} if the key is not in this
+	 *         {@code BinarySearchBPlusTree})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public P get(K key) throws IOException {
+		NodePointerPair root = root();
+		if (root == null)
+			return null;
+		Node<K, P> node = root.node();
+		while (node instanceof NonLeafNode)
+			node = child((NonLeafNode<K, P>) node, Cursor.count(node, key, true));
+		int i = Cursor.count(node, key, false);
+		return i < node.keyCount() && key.compareTo(node.key(i)) == 0 ? node.pointer(i) : null;
+	}
+
+	/**
+	 * Finds the {@code LeafNode} that is a descendant of the specified {@code NodePointerPair} and may contain the
+	 * specified key, using a binary search at each {@code NonLeafNode}.
+	 *
+	 * @param key
+	 *            the search key
+	 * @param pair
+	 *            a {@code NodePointerPair}
+	 * @param parentMap
+	 *            a {@code Map} to record the parent of each {@code NodePointerPair} visited
+	 * @return the {@code NodePointerPair} for the {@code LeafNode} that may contain the key
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	protected NodePointerPair find(K key, NodePointerPair pair, Map<NodePointerPair, NodePointerPair> parentMap)
+			throws IOException {
+		while (pair.node() instanceof NonLeafNode) {
+			Node<K, P> node = pair.node();
+			NodePointerPair child = nodePointerPair(node.pointer(Cursor.count(node, key, true)));
+			parentMap.put(child, pair);
+			pair = child;
+		}
+		return pair;
+	}
+
+}
@@ -0,0 +1,466 @@
+package bptree;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@code BufferPool} sits between a {@code BPlusTree} and another {@code StorageManager} and keeps a bounded number
+ * of decoded objects (nodes) in memory, indexed by file ID and pointer. An object stored by {@link #put(int, Integer,
+ * Object)} is only marked dirty and is written back when it is evicted or when the {@code BufferPool} is flushed, so
+ * repeated updates of the same node cost one write. When the {@code BufferPool} is full, an unpinned object is evicted
+ * according to the {@link EvictionPolicy}. Objects returned by {@link #get(int, Integer)} are shared with the
+ * {@code BufferPool}, so a caller that modifies one must store it again with {@link #put(int, Integer, Object)} (as
+ * {@code BPlusTree} does). The methods of a {@code BufferPool} are synchronized, since even a lookup updates the
+ * {@code EvictionPolicy} state.
+ */
+public class BufferPool implements StorageManager<Integer, Object>, Flushable {
+
+	/**
+	 * An {@code EvictionPolicy} determines which object is evicted when the {@code BufferPool} is full.
+	 */
+	public enum EvictionPolicy {
+
+		/**
+		 * Evicts the least recently used object.
+		 */
+		LRU,
+
+		/**
+		 * Evicts the first object found by a clock hand sweeping over the frames that has not been used since the hand
+		 * last passed it (an approximation of LRU that does not reorder anything on hits).
+		 */
+		CLOCK
+
+	}
+
+	/**
+	 * A {@code Frame} holds an object of the {@code BufferPool}.
+	 */
+	static class Frame {
+
+		/**
+		 * The ID of the file containing the object.
+		 */
+		int fileID;
+
+		/**
+		 * The pointer to the object.
+		 */
+		int pointer;
+
+		/**
+		 * The object.
+		 */
+		Object object;
+
+		/**
+		 * A flag indicating whether the object has been modified since it was read or written back.
+		 */
+		boolean dirty;
+
+		/**
+		 * The number of times the object has been pinned and not unpinned yet.
+		 */
+		int pinCount;
+
+		/**
+		 * A flag indicating whether the object has been used since the clock hand last passed it.
+		 */
+		boolean referenced;
+
+		/**
+		 * The slot of this {@code Frame} on the clock (only for {@link EvictionPolicy#CLOCK}).
+		 */
+		int slot;
+
+		/**
+		 * Constructs a {@code Frame}.
+		 *
+		 * @param fileID
+		 *            the ID of the file containing the object
+		 * @param pointer
+		 *            the pointer to the object
+		 * @param object
+		 *            the object
+		 * @param dirty
+		 *            a flag indicating whether the object has not been written to the underlying
+		 *            {@code StorageManager}
+		 */
+		Frame(int fileID, int pointer, Object object, boolean dirty) {
+			this.fileID = fileID;
+			this.pointer = pointer;
+			this.object = object;
+			this.dirty = dirty;
+		}
+
+	}
+
+	/**
+	 * The underlying {@code StorageManager}.
+	 */
+	StorageManager<Integer, Object> storageManager;
+
+	/**
+	 * The maximum number of objects in this {@code BufferPool}.
+	 */
+	int capacity;
+
+	/**
+	 * The {@code EvictionPolicy} of this {@code BufferPool}.
+	 */
+	EvictionPolicy policy;
+
+	/**
+	 * A map that associates keys (combining file IDs and pointers) with {@code Frame}s, ordered from the least recently
+	 * used to the most recently used {@code Frame} for {@link EvictionPolicy#LRU}.
+	 */
+	Map<Long, Frame> frames;
+
+	/**
+	 * The {@code Frame}s on the clock ({@code null} for free slots; only for {@link EvictionPolicy#CLOCK}).
+	 */
+	Frame[] clock;
+
+	/**
+	 * The position of the clock hand.
+	 */
+	int hand = 0;
+
+	/**
+	 * The number of requests served from this {@code BufferPool}.
+	 */
+	long hits = 0;
+
+	/**
+	 * The number of requests that had to read the underlying {@code StorageManager}.
+	 */
+	long misses = 0;
+
+	/**
+	 * The number of dirty objects written back to the underlying {@code StorageManager}.
+	 */
+	long writeBacks = 0;
+
+	/**
+	 * Constructs a {@code BufferPool}.
+	 *
+	 * @param storageManager
+	 *            the underlying {@code StorageManager}
+	 * @param capacity
+	 *            the maximum number of objects in the {@code BufferPool}
+	 * @param policy
+	 *            the {@code EvictionPolicy} of the {@code BufferPool}
+	 */
+	public BufferPool(StorageManager<Integer, Object> storageManager, int capacity, EvictionPolicy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity: " + capacity);
+		this.storageManager = storageManager;
+		this.capacity = capacity;
+		this.policy = policy;
+		if (policy == EvictionPolicy.LRU)
+			frames = new LinkedHashMap<Long, Frame>(16, 0.75f, true);
+		else {
+			frames = new HashMap<Long, Frame>();
+			clock = new Frame[capacity];
+		}
+	}
+
+	@Override
+	public int fileID(String fileName) {
+		return storageManager.fileID(fileName);
+	}
+
+	@Override
+	public Integer first() {
+		return storageManager.first();
+	}
+
+	/**
+	 * Returns the object stored at the specified pointer, reading it from the underlying {@code StorageManager} unless
+	 * it is in this {@code BufferPool}.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the object stored at the pointer ({@code null} if none)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public synchronized Object get(int fileID, Integer pointer) throws IOException {
+		Frame frame = frame(fileID, pointer);
+		if (frame != null)
+			return frame.object;
+		Object o = storageManager.get(fileID, pointer);
+		if (o != null)
+			admit(new Frame(fileID, pointer, o, false));
+		return o;
+	}
+
+	/**
+	 * Stores the specified object at the specified pointer in this {@code BufferPool}; it is written to the underlying
+	 * {@code StorageManager} when it is evicted or when this {@code BufferPool} is flushed.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @param o
+	 *            an object
+	 * @return the object previously stored at the pointer if it was in this {@code BufferPool} ({@code null}
+	 *         otherwise; the underlying {@code StorageManager} is not read to find it)
+	 * @throws IOException
+	 *             if an I/O error occurs while writing back an evicted object
+	 */
+	@Override
+	public synchronized Object put(int fileID, Integer pointer, Object o) throws IOException {
+		Frame frame = frame(fileID, pointer);
+		if (frame == null) {
+			admit(new Frame(fileID, pointer, o, true));
+			return null;
+		}
+		Object previous = frame.object;
+		frame.object = o;
+		frame.dirty = true;
+		return previous;
+	}
+
+	/**
+	 * Stores the specified object through the underlying {@code StorageManager} (which decides its pointer) and keeps
+	 * it in this {@code BufferPool}.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param o
+	 *            an object
+	 * @return the pointer to the object
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public synchronized Integer add(int fileID, Object o) throws IOException {
+		Integer pointer = storageManager.add(fileID, o);
+		admit(new Frame(fileID, pointer, o, false));
+		return pointer;
+	}
+
+	/**
+	 * Removes the object stored at the specified pointer from this {@code BufferPool} and the underlying
+	 * {@code StorageManager}.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the removed object if it was cached or returned by the underlying {@code StorageManager} ({@code null}
+	 *         otherwise)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public synchronized Object remove(int fileID, Integer pointer) throws IOException {
+		Frame frame = frames.remove(key(fileID, pointer));
+		if (frame != null && clock != null)
+			clock[frame.slot] = null;
+		Object o = storageManager.remove(fileID, pointer);
+		return frame != null ? frame.object : o;
+	}
+
+	/**
+	 * Pins the object stored at the specified pointer so that it is not evicted until it is unpinned as many times as
+	 * it has been pinned.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the object stored at the pointer ({@code null} if none, in which case nothing is pinned)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public synchronized Object pin(int fileID, Integer pointer) throws IOException {
+		Object o = get(fileID, pointer);
+		if (o != null)
+			frames.get(key(fileID, pointer)).pinCount++;
+		return o;
+	}
+
+	/**
+	 * Unpins the object stored at the specified pointer.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @throws IllegalStateException
+	 *             if the object is not pinned
+	 */
+	public synchronized void unpin(int fileID, Integer pointer) {
+		Frame frame = frames.get(key(fileID, pointer));
+		if (frame == null || frame.pinCount == 0)
+			throw new IllegalStateException("not pinned: " + pointer);
+		frame.pinCount--;
+	}
+
+	/**
+	 * Writes all the dirty objects back to the underlying {@code StorageManager} (in the order of file IDs and
+	 * pointers) and then flushes the underlying {@code StorageManager} if it is {@code Flushable}.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		ArrayList<Frame> dirty = new ArrayList<Frame>();
+		for (Frame frame : frames.values())
+			if (frame.dirty)
+				dirty.add(frame);
+		Collections.sort(dirty, Comparator.<Frame> comparingInt(f -> f.fileID).thenComparingInt(f -> f.pointer));
+		for (Frame frame : dirty)
+			writeBack(frame);
+		if (storageManager instanceof Flushable)
+			((Flushable) storageManager).flush();
+	}
+
+	/**
+	 * Returns the number of requests served from this {@code BufferPool}.
+	 *
+	 * @return the number of requests served from this {@code BufferPool}
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests that had to read the underlying {@code StorageManager}.
+	 *
+	 * @return the number of requests that had to read the underlying {@code StorageManager}
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of dirty objects written back to the underlying {@code StorageManager}.
+	 *
+	 * @return the number of dirty objects written back to the underlying {@code StorageManager}
+	 */
+	public synchronized long writeBacks() {
+		return writeBacks;
+	}
+
+	/**
+	 * Returns the {@code Frame} for the specified pointer and records the access.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the {@code Frame} for the pointer ({@code null} if the object is not in this {@code BufferPool})
+	 */
+	Frame frame(int fileID, int pointer) {
+		Frame frame = frames.get(key(fileID, pointer)); // also moves the frame to the end for LRU
+		if (frame == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		frame.referenced = true;
+		return frame;
+	}
+
+	/**
+	 * Adds the specified {@code Frame} to this {@code BufferPool}, evicting another {@code Frame} if this
+	 * {@code BufferPool} is full.
+	 *
+	 * @param frame
+	 *            a {@code Frame}
+	 * @throws IOException
+	 *             if an I/O error occurs while writing back the evicted object
+	 * @throws IllegalStateException
+	 *             if all the objects in this {@code BufferPool} are pinned
+	 */
+	void admit(Frame frame) throws IOException {
+		if (frames.size() >= capacity)
+			evict();
+		frames.put(key(frame.fileID, frame.pointer), frame);
+		if (clock != null) {
+			while (clock[hand] != null)
+				hand = (hand + 1) % capacity;
+			frame.slot = hand;
+			clock[hand] = frame;
+		}
+	}
+
+	/**
+	 * Evicts an unpinned {@code Frame} chosen by the {@link EvictionPolicy}, writing its object back if it is dirty.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalStateException
+	 *             if all the objects in this {@code BufferPool} are pinned
+	 */
+	void evict() throws IOException {
+		Frame victim = null;
+		if (clock == null) {
+			for (Iterator<Frame> i = frames.values().iterator(); i.hasNext() && victim == null;) {
+				Frame frame = i.next();
+				if (frame.pinCount == 0)
+					victim = frame;
+			}
+		} else
+			for (int sweeps = 0; victim == null && sweeps < 2 * capacity + 1; sweeps++, hand = (hand + 1) % capacity) {
+				Frame frame = clock[hand];
+				if (frame == null || frame.pinCount > 0)
+					continue;
+				if (frame.referenced)
+					frame.referenced = false;
+				else
+					victim = frame;
+			}
+		if (victim == null)
+			throw new IllegalStateException("all " + capacity + " objects are pinned");
+		writeBack(victim);
+		frames.remove(key(victim.fileID, victim.pointer));
+		if (clock != null)
+			clock[victim.slot] = null;
+	}
+
+	/**
+	 * Writes the object of the specified {@code Frame} back to the underlying {@code StorageManager} if it is dirty.
+	 *
+	 * @param frame
+	 *            a {@code Frame}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeBack(Frame frame) throws IOException {
+		if (frame.dirty) {
+			storageManager.put(frame.fileID, frame.pointer, frame.object);
+			frame.dirty = false;
+			writeBacks++;
+		}
+	}
+
+	/**
+	 * Returns the key for the specified pointer.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the key for the pointer
+	 */
+	static long key(int fileID, int pointer) {
+		return (long) fileID << 32 | pointer & 0xFFFFFFFFL;
+	}
+
+}
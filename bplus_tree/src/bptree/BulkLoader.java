@@ -0,0 +1,253 @@
+package bptree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+import bptree.BPlusTree.InvalidInsertionException;
+
+/**
+ * A {@code BulkLoader} builds a {@code BPlusTree} bottom-up from entries sorted in ascending order of keys, without
+ * descending from the root for each key. Leaves are filled to a fill factor and the {@code NonLeafNode}s of each level
+ * are built from the smallest keys of the nodes below as soon as those nodes are written. The last two nodes of a
+ * level share their entries (or are merged) so that no node other than the root is less than half full. Only the last
+ * two nodes of each level are kept in memory. Each node is encoded and written once: a {@code NonLeafNode} by
+ * {@link StorageManager#add(int, Object)}, and a leaf followed by another leaf by
+ * {@link StorageManager#put(int, Object, Object)} at a pointer reserved beforehand by adding {@code null} (which stores
+ * no node), so that the pointer to its successor is known when it is written. Unsorted entries can be sorted first by
+ * an {@code ExternalSorter}.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <P>
+ *            the type of pointers
+ */
+public class BulkLoader<K extends Comparable<K>, P> {
+
+	/**
+	 * A {@code Level} builds the nodes at one level of a {@code BPlusTree}.
+	 */
+	class Level {
+
+		/**
+		 * A flag indicating whether this {@code Level} builds leaves.
+		 */
+		boolean leaf;
+
+		/**
+		 * The maximum number of entries in a node (keys for leaves and children for {@code NonLeafNode}s).
+		 */
+		int capacity;
+
+		/**
+		 * The minimum number of entries in a node other than the root.
+		 */
+		int minimum;
+
+		/**
+		 * The number of entries put in a node before starting the next one.
+		 */
+		int target;
+
+		/**
+		 * The entries of the node before the current one, if not written yet (smallest keys and pointers).
+		 */
+		ArrayList<Object> previous = new ArrayList<Object>();
+
+		/**
+		 * The entries of the current node.
+		 */
+		ArrayList<Object> current = new ArrayList<Object>();
+
+		/**
+		 * The {@code Level} above this {@code Level} ({@code null} if not needed yet).
+		 */
+		Level parent;
+
+		/**
+		 * The pointer reserved for the next leaf ({@code null} if none; only for leaves).
+		 */
+		P nextLeafPointer;
+
+		/**
+		 * Constructs a {@code Level}.
+		 *
+		 * @param leaf
+		 *            a flag indicating whether the {@code Level} builds leaves
+		 */
+		Level(boolean leaf) {
+			this.leaf = leaf;
+			capacity = leaf ? degree - 1 : degree;
+			minimum = leaf ? degree / 2 : (degree + 1) / 2;
+			target = Math.max(minimum, Math.min(capacity, (int) Math.round(fillFactor * capacity)));
+		}
+
+		/**
+		 * Adds an entry to this {@code Level}.
+		 *
+		 * @param key
+		 *            a key (the smallest key in the subtree for {@code NonLeafNode}s)
+		 * @param pointer
+		 *            a pointer
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		void add(K key, P pointer) throws IOException {
+			if (current.size() == 2 * target) {
+				if (!previous.isEmpty())
+					write(previous, false, false);
+				ArrayList<Object> l = previous;
+				previous = current;
+				current = l;
+				current.clear();
+			}
+			current.add(key);
+			current.add(pointer);
+		}
+
+		/**
+		 * Writes the remaining nodes of this {@code Level} and of the {@code Level}s above it.
+		 *
+		 * @return the pointer to the root node
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		P finish() throws IOException {
+			if (!previous.isEmpty() && current.size() < 2 * minimum) {
+				if (previous.size() + current.size() <= 2 * capacity) {
+					previous.addAll(current);
+					current.clear();
+				} else {
+					int move = (previous.size() + current.size()) / 4 * 2 - current.size();
+					current.addAll(0, previous.subList(previous.size() - move, previous.size()));
+					previous.subList(previous.size() - move, previous.size()).clear();
+				}
+			}
+			if (parent == null && (previous.isEmpty() || current.isEmpty()))
+				return write(previous.isEmpty() ? current : previous, true, true);
+			if (!previous.isEmpty())
+				write(previous, false, current.isEmpty());
+			if (!current.isEmpty())
+				write(current, false, true);
+			return parent.finish();
+		}
+
+		/**
+		 * Writes a node containing the specified entries and, unless it is the root, adds an entry for it to the
+		 * {@code Level} above.
+		 *
+		 * @param entries
+		 *            the entries of a node
+		 * @param root
+		 *            a flag indicating whether the node is the root
+		 * @param last
+		 *            a flag indicating whether the node is the last node of this {@code Level}
+		 * @return the pointer to the node
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		@SuppressWarnings("unchecked")
+		P write(ArrayList<Object> entries, boolean root, boolean last) throws IOException {
+			int n = entries.size() / 2;
+			P pointer;
+			if (leaf) {
+				LeafNode<K, P> node = new LeafNode<K, P>(degree);
+				for (int i = 0; i < n; i++) {
+					node.keys[i] = (K) entries.get(2 * i);
+					node.pointers[i] = (P) entries.get(2 * i + 1);
+				}
+				node.keyCount = n;
+				pointer = nextLeafPointer;
+				if (pointer == null && !last) // reserve pointers in the order of the leaves
+					pointer = tree.sm.add(tree.fileID, null);
+				nextLeafPointer = last ? null : tree.sm.add(tree.fileID, null);
+				if (!last)
+					node.setSuccessor(nextLeafPointer);
+				if (pointer == null)
+					pointer = tree.sm.add(tree.fileID, node);
+				else
+					tree.sm.put(tree.fileID, pointer, node);
+			} else {
+				NonLeafNode<K, P> node = new NonLeafNode<K, P>(degree);
+				node.pointers[0] = (P) entries.get(1);
+				for (int i = 1; i < n; i++) {
+					node.keys[i - 1] = (K) entries.get(2 * i);
+					node.pointers[i] = (P) entries.get(2 * i + 1);
+				}
+				node.keyCount = n - 1;
+				pointer = tree.sm.add(tree.fileID, node);
+			}
+			if (!root) {
+				if (parent == null)
+					parent = new Level(false);
+				parent.add((K) entries.get(0), pointer);
+			}
+			entries.clear();
+			return pointer;
+		}
+
+	}
+
+	/**
+	 * The {@code BPlusTree} to build.
+	 */
+	BPlusTree<K, P> tree;
+
+	/**
+	 * The degree of the {@code BPlusTree}.
+	 */
+	int degree;
+
+	/**
+	 * The fraction of each node to fill.
+	 */
+	double fillFactor;
+
+	/**
+	 * Constructs a {@code BulkLoader}.
+	 *
+	 * @param tree
+	 *            an empty {@code BPlusTree}
+	 * @param fillFactor
+	 *            the fraction of each node to fill (at least half of each node other than the root is filled)
+	 */
+	public BulkLoader(BPlusTree<K, P> tree, double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException("fill factor: " + fillFactor);
+		this.tree = tree;
+		this.degree = tree.degree();
+		this.fillFactor = fillFactor;
+	}
+
+	/**
+	 * Loads the specified entries into the {@code BPlusTree}.
+	 *
+	 * @param entries
+	 *            entries sorted in ascending order of keys
+	 * @throws InvalidInsertionException
+	 *             if the keys are not in strictly ascending order (nothing is saved as the root in that case)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalStateException
+	 *             if the {@code BPlusTree} is not empty
+	 */
+	public void load(Iterator<? extends Map.Entry<K, P>> entries) throws InvalidInsertionException, IOException {
+		if (tree.root() != null)
+			throw new IllegalStateException("tree not empty");
+		if (!entries.hasNext())
+			return;
+		Level leaves = new Level(true);
+		K previous = null;
+		while (entries.hasNext()) {
+			Map.Entry<K, P> e = entries.next();
+			if (previous != null && e.getKey().compareTo(previous) <= 0)
+				throw new InvalidInsertionException("key " + e.getKey() + " after " + previous);
+			leaves.add(e.getKey(), e.getValue());
+			previous = e.getKey();
+		}
+		P root = leaves.finish();
+		tree.sm.put(tree.fileID, tree.sm.first(), root);
+	}
+
+}
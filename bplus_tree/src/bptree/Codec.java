@@ -0,0 +1,88 @@
+package bptree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@code Codec} converts the objects kept by a {@code StorageManager} (nodes and the root pointer) to and from
+ * bytes.
+ */
+public interface Codec {
+
+	/**
+	 * Writes the specified object at the current position of the specified {@code ByteBuffer}.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @param o
+	 *            an object (not {@code null})
+	 * @throws IOException
+	 *             if the object cannot be written (e.g., it does not fit in the remaining space of the
+	 *             {@code ByteBuffer})
+	 */
+	void write(ByteBuffer buffer, Object o) throws IOException;
+
+	/**
+	 * Reads an object from the current position of the specified {@code ByteBuffer}.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @return the object read
+	 * @throws IOException
+	 *             if the object cannot be read
+	 */
+	Object read(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * The {@code Codec} that uses Java serialization (as the in-memory {@code StorageManager} of
+	 * {@code util.BPlusTreeVisualizer} does).
+	 */
+	Codec SERIALIZATION = new Codec() {
+
+		@Override
+		public void write(ByteBuffer buffer, Object o) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeObject(o);
+			}
+			try {
+				buffer.put(bytes.toByteArray());
+			} catch (BufferOverflowException e) {
+				throw new IOException("object too large (" + bytes.size() + " bytes): " + o);
+			}
+		}
+
+		@Override
+		public Object read(ByteBuffer buffer) throws IOException {
+			InputStream in = new InputStream() {
+
+				@Override
+				public int read() {
+					return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (!buffer.hasRemaining())
+						return -1;
+					len = Math.min(len, buffer.remaining());
+					buffer.get(b, off, len);
+					return len;
+				}
+
+			};
+			try (ObjectInputStream oin = new ObjectInputStream(in)) {
+				return oin.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+
+	};
+
+}
@@ -0,0 +1,136 @@
+package bptree;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import bptree.BPlusTree.InvalidDeletionException;
+import bptree.BPlusTree.InvalidInsertionException;
+
+/**
+ * A {@code ConcurrentBPlusTree} makes a {@code BPlusTree} safe for use by multiple threads with coarse-grained locking:
+ * a single {@code ReentrantReadWriteLock} guards the whole tree. Lookups and scans run concurrently with each other
+ * under its read lock, and insertions and deletions run one at a time under its write lock (a waiting insertion or
+ * deletion keeps new lookups and scans from starting, so a stream of readers does not starve writers). Nodes are not
+ * latched individually (latch crabbing would need changes inside {@code BPlusTree.insert} and
+ * {@code BPlusTree.delete}), so writers do not run concurrently with each other or with readers. The
+ * {@code StorageManager} of the {@code BPlusTree} must allow concurrent calls of
+ * {@link StorageManager#get(int, Object)} (as {@code PageFileStorageManager} and {@code BufferPool} do).
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <P>
+ *            the type of pointers
+ */
+public class ConcurrentBPlusTree<K extends Comparable<K>, P> {
+
+	/**
+	 * The underlying {@code BPlusTree}.
+	 */
+	BPlusTree<K, P> tree;
+
+	/**
+	 * The {@code ReentrantReadWriteLock} for the {@code BPlusTree}.
+	 */
+	ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Constructs a {@code ConcurrentBPlusTree}.
+	 *
+	 * @param tree
+	 *            a {@code BPlusTree} that is not accessed other than through the {@code ConcurrentBPlusTree}
+	 */
+	public ConcurrentBPlusTree(BPlusTree<K, P> tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Inserts the specified key and pointer.
+	 *
+	 * @param key
+	 *            a key
+	 * @param pointer
+	 *            a pointer
+	 * @throws InvalidInsertionException
+	 *             if the key is already in the {@code BPlusTree}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void insert(K key, P pointer) throws InvalidInsertionException, IOException {
+		lock.writeLock().lock();
+		try {
+			tree.insert(key, pointer);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Deletes the specified key and the pointer associated with it.
+	 *
+	 * @param key
+	 *            a key
+	 * @throws InvalidDeletionException
+	 *             if the key is not in the {@code BPlusTree}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void delete(K key) throws InvalidDeletionException, IOException {
+		lock.writeLock().lock();
+		try {
+			tree.delete(key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the pointer associated with the specified key.
+	 *
+	 * @param key
+	 *            a key
+	 * @return the pointer associated with the key ({@code null} if the key is not in the {@code BPlusTree})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public P get(K key) throws IOException {
+		lock.readLock().lock();
+		try {
+			Cursor<K, P> cursor = new Cursor<K, P>(tree, key, true, key, true);
+			return cursor.hasNext() ? cursor.next().getValue() : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Performs the specified action for each entry whose key is within the specified range, while no insertions or
+	 * deletions take place.
+	 *
+	 * @param from
+	 *            the lower bound of the range ({@code null} if none)
+	 * @param fromInclusive
+	 *            a flag indicating whether the lower bound is included in the range
+	 * @param to
+	 *            the upper bound of the range ({@code null} if none)
+	 * @param toInclusive
+	 *            a flag indicating whether the upper bound is included in the range
+	 * @param reverse
+	 *            a flag indicating whether entries are visited in descending order of keys
+	 * @param action
+	 *            the action for each entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void scan(K from, boolean fromInclusive, K to, boolean toInclusive, boolean reverse,
+			Consumer<? super Map.Entry<K, P>> action) throws IOException {
+		lock.readLock().lock();
+		try {
+			new Cursor<K, P>(tree, from, fromInclusive, to, toInclusive, reverse, 1).forEachRemaining(action);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
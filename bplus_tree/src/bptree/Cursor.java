@@ -0,0 +1,357 @@
+package bptree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@code Cursor} iterates lazily over the entries of a {@code BPlusTree} whose keys are within a range, in ascending
+ * or descending order of keys. A {@code Cursor} descends from the root once. Then it follows the successors of
+ * {@code LeafNode}s in a forward scan, or goes back up the path it descended in a reverse scan (leaves have no links to
+ * their predecessors). Leaves are read in batches of a given number of leaves (the prefetch), so reading a leaf is not
+ * interleaved with consuming the entries of the previous one. The {@code BPlusTree} must not be modified while a
+ * {@code Cursor} is in use. An {@code IOException} from the {@code StorageManager} is rethrown as an
+ * {@code UncheckedIOException}.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <P>
+ *            the type of pointers
+ */
+public class Cursor<K extends Comparable<K>, P> implements Iterator<Map.Entry<K, P>> {
+
+	/**
+	 * The {@code BPlusTree} of this {@code Cursor}.
+	 */
+	BPlusTree<K, P> tree;
+
+	/**
+	 * The lower bound of the range ({@code null} if none).
+	 */
+	K from;
+
+	/**
+	 * A flag indicating whether the lower bound is included in the range.
+	 */
+	boolean fromInclusive;
+
+	/**
+	 * The upper bound of the range ({@code null} if none).
+	 */
+	K to;
+
+	/**
+	 * A flag indicating whether the upper bound is included in the range.
+	 */
+	boolean toInclusive;
+
+	/**
+	 * A flag indicating whether entries are returned in descending order of keys.
+	 */
+	boolean reverse;
+
+	/**
+	 * The number of leaves read at a time.
+	 */
+	int prefetch;
+
+	/**
+	 * The leaves read but not visited yet.
+	 */
+	ArrayDeque<LeafNode<K, P>> leaves = new ArrayDeque<LeafNode<K, P>>();
+
+	/**
+	 * The last leaf read.
+	 */
+	LeafNode<K, P> frontier;
+
+	/**
+	 * The ancestors of the last leaf read, from the root (only for reverse scans).
+	 */
+	ArrayList<NonLeafNode<K, P>> ancestors = new ArrayList<NonLeafNode<K, P>>();
+
+	/**
+	 * The indices of the children on the path to the last leaf read (only for reverse scans).
+	 */
+	int[] childIndices = new int[8];
+
+	/**
+	 * A flag indicating whether no more leaves need to be read.
+	 */
+	boolean exhausted = false;
+
+	/**
+	 * The current leaf ({@code null} if the scan is over).
+	 */
+	LeafNode<K, P> leaf;
+
+	/**
+	 * The index of the next key in the current leaf.
+	 */
+	int index;
+
+	/**
+	 * The next entry ({@code null} if the scan is over).
+	 */
+	Map.Entry<K, P> next;
+
+	/**
+	 * Constructs a {@code Cursor} for a forward scan that reads one leaf at a time.
+	 *
+	 * @param tree
+	 *            a {@code BPlusTree}
+	 * @param from
+	 *            the lower bound of the range ({@code null} if none)
+	 * @param fromInclusive
+	 *            a flag indicating whether the lower bound is included in the range
+	 * @param to
+	 *            the upper bound of the range ({@code null} if none)
+	 * @param toInclusive
+	 *            a flag indicating whether the upper bound is included in the range
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public Cursor(BPlusTree<K, P> tree, K from, boolean fromInclusive, K to, boolean toInclusive) throws IOException {
+		this(tree, from, fromInclusive, to, toInclusive, false, 1);
+	}
+
+	/**
+	 * Constructs a {@code Cursor}.
+	 *
+	 * @param tree
+	 *            a {@code BPlusTree}
+	 * @param from
+	 *            the lower bound of the range ({@code null} if none)
+	 * @param fromInclusive
+	 *            a flag indicating whether the lower bound is included in the range
+	 * @param to
+	 *            the upper bound of the range ({@code null} if none)
+	 * @param toInclusive
+	 *            a flag indicating whether the upper bound is included in the range
+	 * @param reverse
+	 *            a flag indicating whether entries are returned in descending order of keys
+	 * @param prefetch
+	 *            the number of leaves read at a time
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public Cursor(BPlusTree<K, P> tree, K from, boolean fromInclusive, K to, boolean toInclusive, boolean reverse,
+			int prefetch) throws IOException {
+		if (prefetch < 1)
+			throw new IllegalArgumentException("prefetch: " + prefetch);
+		this.tree = tree;
+		this.from = from;
+		this.fromInclusive = fromInclusive;
+		this.to = to;
+		this.toInclusive = toInclusive;
+		this.reverse = reverse;
+		this.prefetch = prefetch;
+		BPlusTree<K, P>.NodePointerPair root = tree.root();
+		if (root == null)
+			return;
+		leaf = descend(root.node(), reverse ? to : from);
+		if (reverse)
+			index = to == null ? leaf.keyCount() - 1 : count(leaf, to, toInclusive) - 1;
+		else
+			index = from == null ? 0 : count(leaf, from, !fromInclusive);
+		if (prefetch > 1)
+			read(prefetch - 1);
+		next = advance();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public Map.Entry<K, P> next() {
+		if (next == null)
+			throw new NoSuchElementException();
+		Map.Entry<K, P> entry = next;
+		try {
+			next = advance();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns a sequential {@code Stream} of the remaining entries of this {@code Cursor}.
+	 *
+	 * @return a sequential {@code Stream} of the remaining entries of this {@code Cursor}
+	 */
+	public Stream<Map.Entry<K, P>> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Returns the next entry in the range.
+	 *
+	 * @return the next entry in the range ({@code null} if none)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Map.Entry<K, P> advance() throws IOException {
+		while (leaf != null) {
+			if (index >= 0 && index < leaf.keyCount()) {
+				K key = leaf.key(index);
+				if (reverse ? from != null && (fromInclusive ? key.compareTo(from) < 0 : key.compareTo(from) <= 0)
+						: to != null && (toInclusive ? key.compareTo(to) > 0 : key.compareTo(to) >= 0))
+					break;
+				Map.Entry<K, P> entry = new AbstractMap.SimpleImmutableEntry<K, P>(key, leaf.pointer(index));
+				index += reverse ? -1 : 1;
+				return entry;
+			}
+			if (leaves.isEmpty())
+				read(prefetch);
+			leaf = leaves.poll();
+			if (leaf != null)
+				index = reverse ? leaf.keyCount() - 1 : 0;
+		}
+		leaf = null;
+		leaves.clear();
+		return null;
+	}
+
+	/**
+	 * Reads at most the specified number of leaves following the last leaf read in the scan order.
+	 *
+	 * @param n
+	 *            the maximum number of leaves to read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@SuppressWarnings("unchecked")
+	void read(int n) throws IOException {
+		for (int i = 0; i < n && !exhausted; i++) {
+			LeafNode<K, P> l;
+			if (reverse)
+				l = predecessor();
+			else {
+				P successor = frontier.successor();
+				l = successor == null ? null : (LeafNode<K, P>) tree.sm.get(tree.fileID, successor);
+			}
+			if (l == null)
+				exhausted = true;
+			else {
+				leaves.add(l);
+				visit(l);
+			}
+		}
+	}
+
+	/**
+	 * Finds the leaf that may contain the specified key, recording the path to it for reverse scans.
+	 *
+	 * @param node
+	 *            the root node
+	 * @param key
+	 *            a key ({@code null} for the first leaf in the scan order)
+	 * @return the leaf that may contain the key
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	LeafNode<K, P> descend(Node<K, P> node, K key) throws IOException {
+		while (node instanceof NonLeafNode) {
+			NonLeafNode<K, P> parent = (NonLeafNode<K, P>) node;
+			int i = key != null ? count(parent, key, true) : reverse ? parent.keyCount() : 0;
+			if (reverse)
+				push(parent, i);
+			node = tree.child(parent, i);
+		}
+		LeafNode<K, P> l = (LeafNode<K, P>) node;
+		visit(l);
+		return l;
+	}
+
+	/**
+	 * Reads the leaf preceding the last leaf read by going back up the recorded path.
+	 *
+	 * @return the leaf preceding the last leaf read ({@code null} if none)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	LeafNode<K, P> predecessor() throws IOException {
+		int top = ancestors.size() - 1;
+		while (top >= 0 && childIndices[top] == 0)
+			ancestors.remove(top--);
+		if (top < 0)
+			return null;
+		NonLeafNode<K, P> parent = ancestors.get(top);
+		Node<K, P> node = tree.child(parent, --childIndices[top]);
+		while (node instanceof NonLeafNode) {
+			parent = (NonLeafNode<K, P>) node;
+			push(parent, parent.keyCount());
+			node = tree.child(parent, parent.keyCount());
+		}
+		return (LeafNode<K, P>) node;
+	}
+
+	/**
+	 * Records the specified leaf as the last leaf read and determines whether leaves after it need to be read.
+	 *
+	 * @param l
+	 *            a leaf
+	 */
+	void visit(LeafNode<K, P> l) {
+		frontier = l;
+		if (l.keyCount() > 0)
+			if (reverse ? from != null && l.key(0).compareTo(from) <= 0
+					: to != null && l.key(l.keyCount() - 1).compareTo(to) >= 0)
+				exhausted = true;
+	}
+
+	/**
+	 * Records a step on the path to the last leaf read.
+	 *
+	 * @param parent
+	 *            a {@code NonLeafNode}
+	 * @param i
+	 *            the index of the child followed
+	 */
+	void push(NonLeafNode<K, P> parent, int i) {
+		if (ancestors.size() == childIndices.length)
+			childIndices = Arrays.copyOf(childIndices, childIndices.length * 2);
+		childIndices[ancestors.size()] = i;
+		ancestors.add(parent);
+	}
+
+	/**
+	 * Returns the number of keys in the specified node that are smaller than (or equal to) the specified key. For a
+	 * {@code NonLeafNode}, this is the index of the child that may contain the key when equal keys are counted.
+	 *
+	 * @param node
+	 *            a node
+	 * @param key
+	 *            a key
+	 * @param inclusive
+	 *            a flag indicating whether keys equal to the key are counted
+	 * @return the number of keys in the node that are smaller than (or equal to) the key
+	 */
+	static <K extends Comparable<K>, P> int count(Node<K, P> node, K key, boolean inclusive) {
+		int low = 0, high = node.keyCount();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int c = key.compareTo(node.key(middle));
+			if (c > 0 || c == 0 && inclusive)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+}
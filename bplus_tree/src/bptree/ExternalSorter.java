@@ -0,0 +1,440 @@
+package bptree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * An {@code ExternalSorter} sorts entries by key using a bounded amount of memory (e.g., before they are given to a
+ * {@code BulkLoader}). Entries are read in runs of at most a given number of entries; each run is sorted in memory and
+ * written to a temporary file with the {@code Serializer}s of keys and pointers. At most a given number of runs (the
+ * fan-in) are merged at a time: while there are more runs, groups of runs are merged into longer runs, and the last
+ * runs are merged while the sorted entries are iterated over. Entries with equal keys are all kept. An
+ * {@code IOException} while iterating is rethrown as an {@code UncheckedIOException}.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <P>
+ *            the type of pointers
+ */
+public class ExternalSorter<K extends Comparable<K>, P> {
+
+	/**
+	 * The size of the buffer for each run file.
+	 */
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The default maximum number of runs merged at a time.
+	 */
+	public static final int DEFAULT_FAN_IN = 64;
+
+	/**
+	 * A {@code Run} reads the entries of a run file in order.
+	 */
+	class Run {
+
+		/**
+		 * The run file.
+		 */
+		File file;
+
+		/**
+		 * The {@code FileChannel} for the run file.
+		 */
+		FileChannel channel;
+
+		/**
+		 * The buffer for reading the run file.
+		 */
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		/**
+		 * The next entry of this {@code Run} ({@code null} if none).
+		 */
+		Map.Entry<K, P> head;
+
+		/**
+		 * Constructs a {@code Run}.
+		 *
+		 * @param file
+		 *            a run file
+		 * @throws IOException
+		 *             if an I/O error occurs (the run file is closed in that case)
+		 */
+		Run(File file) throws IOException {
+			this.file = file;
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+			buffer.flip();
+			try {
+				advance();
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Reads the next entry of this {@code Run}.
+		 *
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		void advance() throws IOException {
+			if (!fill(4)) {
+				head = null;
+				channel.close();
+				return;
+			}
+			int length = buffer.getInt();
+			if (!fill(length))
+				throw new IOException("truncated run: " + file);
+			int end = buffer.position() + length;
+			K key = keySerializer.read(buffer);
+			head = new AbstractMap.SimpleImmutableEntry<K, P>(key, pointerSerializer.read(buffer));
+			buffer.position(end);
+		}
+
+		/**
+		 * Makes sure that the specified number of bytes can be read from the buffer.
+		 *
+		 * @param n
+		 *            a number of bytes
+		 * @return {@code true} if the bytes can be read; {@code false} if the end of the run file is reached first
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		boolean fill(int n) throws IOException {
+			if (buffer.remaining() >= n)
+				return true;
+			if (n > buffer.capacity())
+				buffer = ByteBuffer.allocate(n).put(buffer);
+			else
+				buffer.compact();
+			while (buffer.position() < n)
+				if (channel.read(buffer) < 0)
+					break;
+			buffer.flip();
+			return buffer.remaining() >= n;
+		}
+
+		/**
+		 * Closes (and thereby deletes) the run file.
+		 *
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		void close() throws IOException {
+			head = null;
+			channel.close();
+		}
+
+	}
+
+	/**
+	 * A {@code Merge} iterates over the entries of runs in ascending order of keys. Closing it closes the runs that
+	 * have not been read to the end.
+	 */
+	class Merge implements Iterator<Map.Entry<K, P>>, Closeable {
+
+		/**
+		 * The {@code Run}s that have entries left, ordered by their next entries.
+		 */
+		PriorityQueue<Run> runs;
+
+		/**
+		 * Constructs a {@code Merge}.
+		 *
+		 * @param files
+		 *            run files
+		 * @throws IOException
+		 *             if an I/O error occurs (the run files opened so far are closed in that case)
+		 */
+		Merge(List<File> files) throws IOException {
+			runs = new PriorityQueue<Run>(files.size(), Comparator.comparing((Run r) -> r.head.getKey()));
+			try {
+				for (File file : files) {
+					Run run = new Run(file);
+					if (run.head != null)
+						runs.add(run);
+				}
+			} catch (IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !runs.isEmpty();
+		}
+
+		@Override
+		public Map.Entry<K, P> next() {
+			Run run = runs.poll();
+			if (run == null)
+				throw new NoSuchElementException();
+			Map.Entry<K, P> e = run.head;
+			try {
+				run.advance();
+			} catch (IOException | RuntimeException x) {
+				try {
+					run.close();
+				} catch (IOException y) {
+					x.addSuppressed(y);
+				}
+				if (x instanceof IOException)
+					throw new UncheckedIOException((IOException) x);
+				throw (RuntimeException) x;
+			}
+			if (run.head != null)
+				runs.add(run);
+			return e;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException failure = null;
+			for (Run run; (run = runs.poll()) != null;)
+				try {
+					run.close();
+				} catch (IOException e) {
+					if (failure == null)
+						failure = e;
+					else
+						failure.addSuppressed(e);
+				}
+			if (failure != null)
+				throw failure;
+		}
+
+	}
+
+	/**
+	 * The {@code Serializer} for keys.
+	 */
+	Serializer<K> keySerializer;
+
+	/**
+	 * The {@code Serializer} for pointers.
+	 */
+	Serializer<P> pointerSerializer;
+
+	/**
+	 * The maximum number of entries sorted in memory.
+	 */
+	int runSize;
+
+	/**
+	 * The maximum number of runs merged at a time.
+	 */
+	int fanIn;
+
+	/**
+	 * The directory for run files.
+	 */
+	File directory;
+
+	/**
+	 * Constructs an {@code ExternalSorter} that merges at most {@link #DEFAULT_FAN_IN} runs at a time.
+	 *
+	 * @param keySerializer
+	 *            the {@code Serializer} for keys
+	 * @param pointerSerializer
+	 *            the {@code Serializer} for pointers
+	 * @param runSize
+	 *            the maximum number of entries sorted in memory
+	 * @param directory
+	 *            the directory for run files ({@code null} for the default temporary-file directory)
+	 */
+	public ExternalSorter(Serializer<K> keySerializer, Serializer<P> pointerSerializer, int runSize, File directory) {
+		this(keySerializer, pointerSerializer, runSize, DEFAULT_FAN_IN, directory);
+	}
+
+	/**
+	 * Constructs an {@code ExternalSorter}.
+	 *
+	 * @param keySerializer
+	 *            the {@code Serializer} for keys
+	 * @param pointerSerializer
+	 *            the {@code Serializer} for pointers
+	 * @param runSize
+	 *            the maximum number of entries sorted in memory
+	 * @param fanIn
+	 *            the maximum number of runs merged at a time (and thus of run files open at a time)
+	 * @param directory
+	 *            the directory for run files ({@code null} for the default temporary-file directory)
+	 */
+	public ExternalSorter(Serializer<K> keySerializer, Serializer<P> pointerSerializer, int runSize, int fanIn,
+			File directory) {
+		if (runSize < 1)
+			throw new IllegalArgumentException("run size: " + runSize);
+		if (fanIn < 2)
+			throw new IllegalArgumentException("fan-in: " + fanIn);
+		this.keySerializer = keySerializer;
+		this.pointerSerializer = pointerSerializer;
+		this.runSize = runSize;
+		this.fanIn = fanIn;
+		this.directory = directory;
+	}
+
+	/**
+	 * Sorts the specified entries by key.
+	 *
+	 * @param entries
+	 *            entries
+	 * @return an {@code Iterator} over the entries in ascending order of keys (which is {@code Closeable} if the
+	 *         entries did not fit in one run, so that its remaining run files can be deleted if it is not read to the
+	 *         end)
+	 * @throws IOException
+	 *             if an I/O error occurs while writing or merging the runs
+	 */
+	public Iterator<Map.Entry<K, P>> sort(Iterator<? extends Map.Entry<K, P>> entries) throws IOException {
+		ArrayList<Map.Entry<K, P>> run = new ArrayList<Map.Entry<K, P>>();
+		ArrayList<File> files = new ArrayList<File>();
+		try {
+			while (entries.hasNext()) {
+				run.add(entries.next());
+				if (run.size() == runSize && entries.hasNext()) {
+					Collections.sort(run, Map.Entry.comparingByKey());
+					files.add(write(run.iterator()));
+					run.clear();
+				}
+			}
+			Collections.sort(run, Map.Entry.comparingByKey());
+			if (files.isEmpty())
+				return run.iterator();
+			files.add(write(run.iterator()));
+			return merge(files);
+		} catch (IOException | RuntimeException e) {
+			for (File file : files)
+				file.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the specified sorted entries to a new run file.
+	 *
+	 * @param run
+	 *            entries in ascending order of keys
+	 * @return the run file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	File write(Iterator<Map.Entry<K, P>> run) throws IOException {
+		File file = File.createTempFile("run", ".tmp", directory);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (run.hasNext()) {
+				Map.Entry<K, P> e = run.next();
+				while (true) {
+					int start = buffer.position();
+					try {
+						buffer.putInt(0);
+						keySerializer.write(buffer, e.getKey());
+						pointerSerializer.write(buffer, e.getValue());
+						buffer.putInt(start, buffer.position() - start - 4);
+						break;
+					} catch (BufferOverflowException x) {
+						buffer.position(start);
+						if (start == 0)
+							buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+						else
+							drain(channel, buffer);
+					}
+				}
+			}
+			drain(channel, buffer);
+		} catch (IOException | RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+		return file;
+	}
+
+	/**
+	 * Writes the content of the specified buffer to the specified {@code FileChannel} and clears the buffer.
+	 *
+	 * @param channel
+	 *            a {@code FileChannel}
+	 * @param buffer
+	 *            a buffer
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Merges the specified run files, first merging groups of at most {@link #fanIn} runs into longer runs until no
+	 * more than {@link #fanIn} runs remain. The run files are deleted if an error occurs.
+	 *
+	 * @param files
+	 *            run files
+	 * @return a {@code Merge} over the entries of the run files in ascending order of keys
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Merge merge(ArrayList<File> files) throws IOException {
+		ArrayList<File> merged = new ArrayList<File>();
+		try {
+			while (files.size() > fanIn) {
+				for (int i = 0; i < files.size(); i += fanIn) {
+					List<File> group = files.subList(i, Math.min(i + fanIn, files.size()));
+					if (group.size() == 1)
+						merged.add(group.get(0));
+					else
+						try (Merge merge = new Merge(group)) {
+							merged.add(write(merge));
+						}
+				}
+				ArrayList<File> l = files;
+				files = merged;
+				merged = l;
+				merged.clear();
+			}
+			return new Merge(files);
+		} catch (UncheckedIOException e) {
+			delete(files, merged);
+			throw e.getCause();
+		} catch (IOException | RuntimeException e) {
+			delete(files, merged);
+			throw e;
+		}
+	}
+
+	/**
+	 * Deletes the run files in the specified lists (those already deleted are skipped).
+	 *
+	 * @param files
+	 *            run files
+	 * @param merged
+	 *            run files
+	 */
+	static void delete(List<File> files, List<File> merged) {
+		for (File file : files)
+			file.delete();
+		for (File file : merged)
+			file.delete();
+	}
+
+}
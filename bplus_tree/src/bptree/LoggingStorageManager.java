@@ -0,0 +1,762 @@
+package bptree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+/**
+ * A {@code LoggingStorageManager} makes the operations of a {@code BPlusTree} on another {@code StorageManager} atomic
+ * and durable by means of write-ahead logging. The objects stored or removed during an operation (e.g., the nodes
+ * written by a split in {@code insertInParent} and the new root written by {@code saveAsRoot}) are kept in memory until
+ * {@link #commit()} appends a redo record with the after-image of each of them, followed by a commit record, to the
+ * log. They reach the underlying {@code StorageManager} only after the log records are on disk, so redo records
+ * suffice and no undo is ever needed; {@link #rollback()} simply discards the changes of an operation that failed.
+ * <p>
+ * Each thread has its own current operation: a thread sees its own uncommitted changes and the committed changes of
+ * all threads, and {@link #commit()} and {@link #rollback()} affect only the operation of the calling thread. Objects
+ * are not locked, so operations of different threads must not modify the same objects at the same time; threads
+ * sharing a {@code BPlusTree} must run each operation through its commit (or rollback) under a lock that excludes the
+ * other operations on the tree.
+ * <p>
+ * {@link #force(long)} uses group commit: the first thread that needs its commit record on disk writes and forces
+ * everything appended so far, while the threads that commit in the meantime wait and are then covered by the next
+ * force, so a single {@link FileChannel#force(boolean)} serves a whole batch of operations. A {@code BPlusTree} used by
+ * one thread can also commit after each operation and force only once in a while.
+ * <p>
+ * When constructed, a {@code LoggingStorageManager} replays the committed operations in the log on the underlying
+ * {@code StorageManager} and discards any incomplete operation. A checkpoint flushes the underlying
+ * {@code StorageManager} and truncates the log; if the underlying {@code StorageManager} is not {@code Flushable}
+ * (e.g., it is kept in memory), the log is never truncated so that it can rebuild everything. Log sequence numbers
+ * keep growing across checkpoints and restarts: the log file starts with the log sequence number of its first log
+ * record, so a log sequence number from before a checkpoint is simply already durable.
+ * <p>
+ * {@link #add(int, Object)} reserves a pointer by adding {@code null} to the underlying {@code StorageManager} (which
+ * decides the pointer); the object itself reaches the underlying {@code StorageManager} only when the operation has
+ * committed, like any other change. {@link #rollback()} removes the reserved pointers, and a crash before the commit
+ * leaves them without an object (a {@code PageFileStorageManager} frees such pages when it opens a file that was not
+ * closed cleanly).
+ */
+public class LoggingStorageManager implements StorageManager<Integer, Object>, Flushable, Closeable {
+
+	/**
+	 * The type of the records describing objects stored.
+	 */
+	static final byte PUT = 1;
+
+	/**
+	 * The type of the records describing objects removed.
+	 */
+	static final byte REMOVE = 2;
+
+	/**
+	 * The type of commit records.
+	 */
+	static final byte COMMIT = 3;
+
+	/**
+	 * The size of the header (the length and checksum of the payload) of each log record.
+	 */
+	static final int HEADER_SIZE = 8;
+
+	/**
+	 * The size of the header (the log sequence number of the first log record) of the log file.
+	 */
+	static final int LOG_HEADER_SIZE = 8;
+
+	/**
+	 * The maximum size of the payload of a log record.
+	 */
+	static final int MAX_RECORD_SIZE = 1 << 24;
+
+	/**
+	 * The value in the maps of changes for removed objects.
+	 */
+	static final Object REMOVED = new Object();
+
+	/**
+	 * An {@code Operation} holds the uncommitted changes of a thread.
+	 */
+	static class Operation {
+
+		/**
+		 * The objects stored (or {@link #REMOVED}), by key (file ID and pointer).
+		 */
+		LinkedHashMap<Long, Object> changes = new LinkedHashMap<Long, Object>();
+
+		/**
+		 * The keys of the pointers reserved by {@link LoggingStorageManager#add(int, Object)}.
+		 */
+		HashSet<Long> added = new HashSet<Long>();
+
+	}
+
+	/**
+	 * A {@code Change} is an object stored or removed by a committed operation.
+	 */
+	static class Change {
+
+		/**
+		 * The ID of the file.
+		 */
+		int fileID;
+
+		/**
+		 * The pointer.
+		 */
+		int pointer;
+
+		/**
+		 * The encoded object ({@code null} if the object is removed).
+		 */
+		byte[] bytes;
+
+		/**
+		 * The log sequence number right after the commit record of the operation.
+		 */
+		long lsn;
+
+		/**
+		 * Constructs a {@code Change}.
+		 *
+		 * @param fileID
+		 *            the ID of the file
+		 * @param pointer
+		 *            the pointer
+		 * @param bytes
+		 *            the encoded object ({@code null} if the object is removed)
+		 * @param lsn
+		 *            the log sequence number right after the commit record of the operation
+		 */
+		Change(int fileID, int pointer, byte[] bytes, long lsn) {
+			this.fileID = fileID;
+			this.pointer = pointer;
+			this.bytes = bytes;
+			this.lsn = lsn;
+		}
+
+	}
+
+	/**
+	 * The underlying {@code StorageManager}.
+	 */
+	StorageManager<Integer, Object> storageManager;
+
+	/**
+	 * The {@code Codec} for the after-images of objects.
+	 */
+	Codec codec;
+
+	/**
+	 * The {@code FileChannel} for the log file.
+	 */
+	FileChannel channel;
+
+	/**
+	 * A map that associates the IDs of files with their names.
+	 */
+	HashMap<Integer, String> fileID2name = new HashMap<Integer, String>();
+
+	/**
+	 * The current {@code Operation} of each thread that has uncommitted changes.
+	 */
+	HashMap<Thread, Operation> operations = new HashMap<Thread, Operation>();
+
+	/**
+	 * The latest committed {@code Change} for each key, until it is applied to the underlying {@code StorageManager}.
+	 */
+	HashMap<Long, Change> committed = new HashMap<Long, Change>();
+
+	/**
+	 * The committed {@code Change}s not yet applied to the underlying {@code StorageManager}, in the order of commits.
+	 */
+	ArrayDeque<Change> unapplied = new ArrayDeque<Change>();
+
+	/**
+	 * The buffer for encoding objects.
+	 */
+	ByteBuffer encoder = ByteBuffer.allocate(64 * 1024);
+
+	/**
+	 * The log records that have been appended but not yet written to the log file.
+	 */
+	ArrayList<byte[]> buffer = new ArrayList<byte[]>();
+
+	/**
+	 * The log sequence number of the first log record in the log file (the log record with log sequence number
+	 * {@code lsn} is at offset {@code LOG_HEADER_SIZE + lsn - baseLSN}).
+	 */
+	long baseLSN;
+
+	/**
+	 * The log sequence number at which the next log record will be placed.
+	 */
+	long endLSN;
+
+	/**
+	 * The log sequence number up to which all log records are on disk.
+	 */
+	long durableLSN;
+
+	/**
+	 * A flag indicating whether a thread is currently writing and forcing log records.
+	 */
+	boolean flushing = false;
+
+	/**
+	 * The {@code IOException} that occurred while writing the log ({@code null} if none).
+	 */
+	IOException failure;
+
+	/**
+	 * The number of times the log has been forced to disk.
+	 */
+	long forces = 0;
+
+	/**
+	 * Constructs a {@code LoggingStorageManager} and replays the committed operations in the specified log file (if it
+	 * exists) on the specified {@code StorageManager}.
+	 *
+	 * @param storageManager
+	 *            the underlying {@code StorageManager}
+	 * @param logFile
+	 *            the log file
+	 * @param codec
+	 *            the {@code Codec} for the after-images of objects
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@SuppressWarnings("resource")
+	public LoggingStorageManager(StorageManager<Integer, Object> storageManager, File logFile, Codec codec)
+			throws IOException {
+		this.storageManager = storageManager;
+		this.codec = codec;
+		channel = new RandomAccessFile(logFile, "rw").getChannel();
+		recover();
+		checkpoint();
+	}
+
+	@Override
+	public synchronized int fileID(String fileName) {
+		int fileID = storageManager.fileID(fileName);
+		fileID2name.put(fileID, fileName);
+		return fileID;
+	}
+
+	@Override
+	public Integer first() {
+		return storageManager.first();
+	}
+
+	/**
+	 * Returns the object stored at the specified pointer, including the changes not yet applied to the underlying
+	 * {@code StorageManager}.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the object stored at the pointer ({@code null} if none)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public synchronized Object get(int fileID, Integer pointer) throws IOException {
+		long key = BufferPool.key(fileID, pointer);
+		Operation operation = operations.get(Thread.currentThread());
+		Object o = operation == null ? null : operation.changes.get(key);
+		if (o != null)
+			return o == REMOVED ? null : o;
+		Change change = committed.get(key);
+		if (change != null) // a copy so that the logged after-image stays intact
+			return change.bytes == null ? null : codec.read(ByteBuffer.wrap(change.bytes));
+		return storageManager.get(fileID, pointer);
+	}
+
+	/**
+	 * Stores the specified object at the specified pointer as part of the current operation of the calling thread.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @param o
+	 *            an object
+	 * @return the object previously stored at the pointer by the current operation ({@code null} otherwise; neither the
+	 *         log nor the underlying {@code StorageManager} is read to find it)
+	 */
+	@Override
+	public synchronized Object put(int fileID, Integer pointer, Object o) {
+		Object previous = operation().changes.put(BufferPool.key(fileID, pointer), o);
+		return previous == REMOVED ? null : previous;
+	}
+
+	/**
+	 * Stores the specified object as part of the current operation of the calling thread at a pointer reserved by
+	 * adding {@code null} to the underlying {@code StorageManager} (which decides the pointer).
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param o
+	 *            an object
+	 * @return the pointer to the object
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public synchronized Integer add(int fileID, Object o) throws IOException {
+		Operation operation = operation();
+		Integer pointer = storageManager.add(fileID, null);
+		long key = BufferPool.key(fileID, pointer);
+		operation.changes.put(key, o);
+		operation.added.add(key);
+		return pointer;
+	}
+
+	/**
+	 * Removes the object stored at the specified pointer as part of the current operation of the calling thread.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the object stored at the pointer by the current operation ({@code null} otherwise; neither the log nor
+	 *         the underlying {@code StorageManager} is read to find it)
+	 */
+	@Override
+	public synchronized Object remove(int fileID, Integer pointer) {
+		Object previous = operation().changes.put(BufferPool.key(fileID, pointer), REMOVED);
+		return previous == REMOVED ? null : previous;
+	}
+
+	/**
+	 * Appends the changes of the current operation of the calling thread and a commit record to the log. The operation
+	 * is durable once {@link #force(long)} returns for the returned log sequence number.
+	 *
+	 * @return the log sequence number right after the commit record
+	 * @throws IOException
+	 *             if an object cannot be encoded or writing the log has failed
+	 */
+	public synchronized long commit() throws IOException {
+		if (failure != null)
+			throw failure;
+		Operation operation = operations.get(Thread.currentThread());
+		if (operation == null)
+			return endLSN;
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+		ArrayList<Change> changes = new ArrayList<Change>();
+		long lsn = endLSN;
+		for (Map.Entry<Long, Object> e : operation.changes.entrySet()) {
+			int fileID = (int) (e.getKey() >> 32), pointer = (int) (long) e.getKey();
+			byte[] bytes = e.getValue() == REMOVED ? null : encode(e.getValue());
+			byte[] record = record(bytes == null ? REMOVE : PUT, fileID2name.get(fileID), pointer, bytes);
+			records.add(record);
+			lsn += record.length;
+			changes.add(new Change(fileID, pointer, bytes, 0));
+		}
+		byte[] record = record(COMMIT, null, 0, null);
+		records.add(record);
+		lsn += record.length;
+		for (Change change : changes) {
+			change.lsn = lsn;
+			committed.put(BufferPool.key(change.fileID, change.pointer), change);
+			unapplied.add(change);
+		}
+		buffer.addAll(records);
+		endLSN = lsn;
+		operations.remove(Thread.currentThread());
+		return lsn;
+	}
+
+	/**
+	 * Discards the changes of the current operation of the calling thread (e.g., after it failed), removing the
+	 * pointers it reserved from the underlying {@code StorageManager}.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public synchronized void rollback() throws IOException {
+		Operation operation = operations.remove(Thread.currentThread());
+		if (operation != null)
+			rollback(operation);
+	}
+
+	/**
+	 * Waits until all the log records before the specified log sequence number are on disk and the changes they
+	 * describe have been applied to the underlying {@code StorageManager}. If no other thread is writing the log, the
+	 * calling thread writes and forces all the log records appended so far (group commit).
+	 *
+	 * @param lsn
+	 *            a log sequence number returned by {@link #commit()}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void force(long lsn) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				ArrayList<byte[]> records;
+				long target;
+				synchronized (this) {
+					while (flushing && durableLSN < lsn)
+						try {
+							awaitFlush(lsn);
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					if (durableLSN >= lsn)
+						return;
+					if (failure != null)
+						throw failure;
+					flushing = true;
+					records = buffer;
+					buffer = new ArrayList<byte[]>();
+					target = endLSN;
+				}
+				try {
+					writeAndForce(records);
+				} catch (IOException e) {
+					synchronized (this) {
+						failure = e;
+						flushing = false;
+						notifyAll();
+					}
+					throw e;
+				}
+				synchronized (this) {
+					durableLSN = target;
+					try {
+						apply();
+					} finally {
+						flushing = false;
+						notifyAll();
+					}
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Forces the log, applies all the committed changes to the underlying {@code StorageManager} and flushes it if it
+	 * is {@code Flushable}.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public void flush() throws IOException {
+		long lsn;
+		synchronized (this) {
+			lsn = endLSN;
+		}
+		force(lsn);
+		synchronized (this) {
+			if (storageManager instanceof Flushable)
+				((Flushable) storageManager).flush();
+		}
+	}
+
+	/**
+	 * Takes a checkpoint: flushes this {@code LoggingStorageManager} and then truncates the log if the underlying
+	 * {@code StorageManager} is {@code Flushable} and no operation has committed in the meantime.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void checkpoint() throws IOException {
+		flush();
+		synchronized (this) {
+			if (storageManager instanceof Flushable && !flushing && endLSN == durableLSN && unapplied.isEmpty()) {
+				((Flushable) storageManager).flush(); // the changes applied since flush() was called
+				writeLogHeader(endLSN);
+				channel.truncate(LOG_HEADER_SIZE);
+				channel.position(LOG_HEADER_SIZE);
+				baseLSN = endLSN;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of times the log has been forced to disk.
+	 *
+	 * @return the number of times the log has been forced to disk
+	 */
+	public synchronized long forces() {
+		return forces;
+	}
+
+	/**
+	 * Discards the uncommitted changes of all threads, takes a checkpoint and closes the log file (but not the
+	 * underlying {@code StorageManager}).
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			for (Operation operation : operations.values())
+				rollback(operation);
+			operations.clear();
+		}
+		checkpoint();
+		channel.close();
+	}
+
+	/**
+	 * Returns the current {@code Operation} of the calling thread, beginning one if needed.
+	 *
+	 * @return the current {@code Operation} of the calling thread
+	 */
+	Operation operation() {
+		Operation operation = operations.get(Thread.currentThread());
+		if (operation == null)
+			operations.put(Thread.currentThread(), operation = new Operation());
+		return operation;
+	}
+
+	/**
+	 * Removes the pointers reserved by the specified {@code Operation} from the underlying {@code StorageManager}.
+	 *
+	 * @param operation
+	 *            an {@code Operation} that is discarded
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void rollback(Operation operation) throws IOException {
+		for (long key : operation.added)
+			storageManager.remove((int) (key >> 32), (int) key);
+	}
+
+	/**
+	 * Applies the committed changes whose log records are on disk to the underlying {@code StorageManager}.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void apply() throws IOException {
+		while (!unapplied.isEmpty() && unapplied.peek().lsn <= durableLSN) {
+			Change change = unapplied.poll();
+			apply(change);
+			committed.remove(BufferPool.key(change.fileID, change.pointer), change);
+		}
+	}
+
+	/**
+	 * Applies the specified {@code Change} to the underlying {@code StorageManager}.
+	 *
+	 * @param change
+	 *            a {@code Change}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void apply(Change change) throws IOException {
+		if (change.bytes == null)
+			storageManager.remove(change.fileID, change.pointer);
+		else
+			storageManager.put(change.fileID, change.pointer, codec.read(ByteBuffer.wrap(change.bytes)));
+	}
+
+	/**
+	 * Waits, while holding the monitor of this {@code LoggingStorageManager}, until the thread writing the log has
+	 * finished or the log records before the specified log sequence number are on disk. The wait is a managed block so
+	 * that a {@code ForkJoinPool} running the operations can activate spare threads meanwhile.
+	 *
+	 * @param lsn
+	 *            a log sequence number
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 */
+	void awaitFlush(long lsn) throws InterruptedException {
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (!isReleasable())
+					LoggingStorageManager.this.wait();
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return !flushing || durableLSN >= lsn;
+			}
+
+		});
+	}
+
+	/**
+	 * Writes the specified log records at the end of the log file with a single gathering write and forces them to
+	 * disk.
+	 *
+	 * @param records
+	 *            log records
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeAndForce(ArrayList<byte[]> records) throws IOException {
+		ByteBuffer[] buffers = new ByteBuffer[records.size()];
+		long remaining = 0;
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = ByteBuffer.wrap(records.get(i));
+			remaining += buffers[i].remaining();
+		}
+		while (remaining > 0)
+			remaining -= channel.write(buffers);
+		channel.force(false);
+		synchronized (this) {
+			forces++;
+		}
+	}
+
+	/**
+	 * Replays the committed operations in the log on the underlying {@code StorageManager} and discards any incomplete
+	 * operation or record at the end of the log.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void recover() throws IOException {
+		long size = channel.size();
+		if (size < LOG_HEADER_SIZE) { // a new log
+			writeLogHeader(0);
+			size = LOG_HEADER_SIZE;
+		}
+		ByteBuffer log = ByteBuffer.allocate((int) Math.min(size - LOG_HEADER_SIZE, Integer.MAX_VALUE));
+		while (log.hasRemaining() && channel.read(log, LOG_HEADER_SIZE + log.position()) >= 0)
+			;
+		log.flip();
+		ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+		while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+			;
+		baseLSN = header.getLong(0);
+		ArrayList<Change> changes = new ArrayList<Change>();
+		long lsn = 0;
+		CRC32 crc = new CRC32();
+		try {
+			while (log.remaining() >= HEADER_SIZE) {
+				int length = log.getInt();
+				int checksum = log.getInt();
+				if (length <= 0 || length > MAX_RECORD_SIZE || length > log.remaining())
+					break;
+				crc.reset();
+				crc.update(log.array(), log.position(), length);
+				if ((int) crc.getValue() != checksum)
+					break;
+				ByteBuffer payload = ByteBuffer.wrap(log.array(), log.position(), length).slice();
+				log.position(log.position() + length);
+				byte type = payload.get();
+				if (type == COMMIT) {
+					for (Change change : changes)
+						apply(change);
+					changes.clear();
+					lsn = log.position();
+				} else {
+					int fileID = storageManager.fileID(Serializer.STRING.read(payload));
+					int pointer = payload.getInt();
+					byte[] bytes = null;
+					if (type == PUT) {
+						bytes = new byte[payload.remaining()];
+						payload.get(bytes);
+					}
+					changes.add(new Change(fileID, pointer, bytes, 0));
+				}
+			}
+		} catch (BufferUnderflowException e) {
+		}
+		channel.truncate(LOG_HEADER_SIZE + lsn);
+		channel.position(LOG_HEADER_SIZE + lsn);
+		endLSN = durableLSN = baseLSN + lsn;
+	}
+
+	/**
+	 * Writes the header of the log file and forces it to disk.
+	 *
+	 * @param lsn
+	 *            the log sequence number of the first log record in the log file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeLogHeader(long lsn) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+		header.putLong(0, lsn);
+		while (header.hasRemaining())
+			channel.write(header, header.position());
+		channel.force(false);
+	}
+
+	/**
+	 * Constructs a log record.
+	 *
+	 * @param type
+	 *            the type of the log record
+	 * @param fileName
+	 *            the name of the file (only for {@link #PUT} and {@link #REMOVE})
+	 * @param pointer
+	 *            the pointer (only for {@link #PUT} and {@link #REMOVE})
+	 * @param bytes
+	 *            the encoded object (only for {@link #PUT})
+	 * @return the log record
+	 */
+	static byte[] record(byte type, String fileName, int pointer, byte[] bytes) {
+		byte[] name = fileName == null ? null : fileName.getBytes(StandardCharsets.UTF_8);
+		int length = 1 + (name == null ? 0 : 2 + name.length + 4) + (bytes == null ? 0 : bytes.length);
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+		record.position(HEADER_SIZE);
+		record.put(type);
+		if (name != null) {
+			Serializer.STRING.write(record, fileName);
+			record.putInt(pointer);
+		}
+		if (bytes != null)
+			record.put(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), HEADER_SIZE, length);
+		record.putInt(0, length).putInt(4, (int) crc.getValue());
+		return record.array();
+	}
+
+	/**
+	 * Encodes the specified object.
+	 *
+	 * @param o
+	 *            an object
+	 * @return the encoded object
+	 * @throws IOException
+	 *             if the object cannot be encoded
+	 */
+	byte[] encode(Object o) throws IOException {
+		while (true) {
+			encoder.clear();
+			try {
+				codec.write(encoder, o);
+				break;
+			} catch (IOException e) { // possibly too large for the buffer
+				if (encoder.capacity() >= MAX_RECORD_SIZE)
+					throw e;
+				encoder = ByteBuffer.allocate(encoder.capacity() * 2);
+			}
+		}
+		encoder.flip();
+		byte[] bytes = new byte[encoder.remaining()];
+		encoder.get(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,260 @@
+package bptree;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@code NodeCodec} writes the nodes of a {@code BPlusTree} in a flat binary form instead of Java serialization: a
+ * header (type, flags, degree and key count) followed by the keys and then the pointers, each written by a
+ * {@code Serializer}. Nodes are decoded directly from the given {@code ByteBuffer} (e.g., a memory-mapped page), so no
+ * intermediate byte array or object stream is created. {@code String} keys can be prefix-compressed, in which case each
+ * key after the first is written as the length of the prefix it shares with the previous key followed by the rest of
+ * the key. Pointers stored on their own (e.g., the pointer to the root) are written by the pointer {@code Serializer}
+ * and any other object falls back to {@link Codec#SERIALIZATION}.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <P>
+ *            the type of pointers
+ */
+public class NodeCodec<K extends Comparable<K>, P> implements Codec {
+
+	/**
+	 * The type of a {@code LeafNode}.
+	 */
+	static final byte LEAF = 0;
+
+	/**
+	 * The type of a {@code NonLeafNode}.
+	 */
+	static final byte NON_LEAF = 1;
+
+	/**
+	 * The type of a pointer stored on its own.
+	 */
+	static final byte POINTER = 2;
+
+	/**
+	 * The type of any other object (written by Java serialization).
+	 */
+	static final byte OTHER = 3;
+
+	/**
+	 * The flag indicating that a {@code LeafNode} has a successor.
+	 */
+	static final byte HAS_SUCCESSOR = 1;
+
+	/**
+	 * The flag indicating that some pointers are {@code null} (and thus a bitmap of the {@code null} pointers follows
+	 * the header).
+	 */
+	static final byte HAS_NULLS = 2;
+
+	/**
+	 * The {@code Serializer} for keys.
+	 */
+	Serializer<K> keySerializer;
+
+	/**
+	 * The {@code Serializer} for pointers.
+	 */
+	Serializer<P> pointerSerializer;
+
+	/**
+	 * A flag indicating whether keys are prefix-compressed.
+	 */
+	boolean prefixCompression;
+
+	/**
+	 * Constructs a {@code NodeCodec}.
+	 *
+	 * @param keySerializer
+	 *            the {@code Serializer} for keys
+	 * @param pointerSerializer
+	 *            the {@code Serializer} for pointers
+	 */
+	public NodeCodec(Serializer<K> keySerializer, Serializer<P> pointerSerializer) {
+		this(keySerializer, pointerSerializer, false);
+	}
+
+	/**
+	 * Constructs a {@code NodeCodec}.
+	 *
+	 * @param keySerializer
+	 *            the {@code Serializer} for keys
+	 * @param pointerSerializer
+	 *            the {@code Serializer} for pointers
+	 * @param prefixCompression
+	 *            a flag indicating whether keys are prefix-compressed (only for {@link Serializer#STRING})
+	 */
+	public NodeCodec(Serializer<K> keySerializer, Serializer<P> pointerSerializer, boolean prefixCompression) {
+		if (prefixCompression && keySerializer != Serializer.STRING)
+			throw new IllegalArgumentException("prefix compression requires String keys");
+		this.keySerializer = keySerializer;
+		this.pointerSerializer = pointerSerializer;
+		this.prefixCompression = prefixCompression;
+	}
+
+	/**
+	 * Writes the specified object at the current position of the specified {@code ByteBuffer}.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @param o
+	 *            a node, a pointer or any other {@code Serializable} object
+	 * @throws IOException
+	 *             if the object does not fit in the remaining space of the {@code ByteBuffer}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void write(ByteBuffer buffer, Object o) throws IOException {
+		try {
+			if (o instanceof Node)
+				write(buffer, (Node<K, P>) o);
+			else {
+				int start = buffer.position();
+				try {
+					buffer.put(POINTER);
+					pointerSerializer.write(buffer, (P) o);
+				} catch (ClassCastException e) { // not a pointer
+					buffer.position(start);
+					buffer.put(OTHER);
+					Codec.SERIALIZATION.write(buffer, o);
+				}
+			}
+		} catch (BufferOverflowException e) {
+			throw new IOException("object too large: " + o);
+		} catch (ClassCastException | IllegalArgumentException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Reads an object from the current position of the specified {@code ByteBuffer}.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @return the object read
+	 * @throws IOException
+	 *             if the object cannot be read
+	 */
+	@Override
+	public Object read(ByteBuffer buffer) throws IOException {
+		try {
+			byte type = buffer.get();
+			switch (type) {
+			case LEAF:
+			case NON_LEAF:
+				return readNode(buffer, type);
+			case POINTER:
+				return pointerSerializer.read(buffer);
+			case OTHER:
+				return Codec.SERIALIZATION.read(buffer);
+			default:
+				throw new IOException("unknown type: " + type);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated object", e);
+		}
+	}
+
+	/**
+	 * Writes the specified node.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @param node
+	 *            a node
+	 */
+	void write(ByteBuffer buffer, Node<K, P> node) {
+		boolean leaf = node instanceof LeafNode;
+		int pointerCount = leaf ? node.keyCount : node.keyCount + 1;
+		P successor = leaf ? ((LeafNode<K, P>) node).successor() : null;
+		boolean hasNulls = false;
+		for (int i = 0; i < pointerCount && !hasNulls; i++)
+			hasNulls = node.pointers[i] == null;
+		buffer.put(leaf ? LEAF : NON_LEAF);
+		buffer.put((byte) ((successor != null ? HAS_SUCCESSOR : 0) | (hasNulls ? HAS_NULLS : 0)));
+		buffer.putChar((char) node.pointers.length); // the degree
+		buffer.putChar((char) node.keyCount);
+		if (hasNulls)
+			for (int i = 0; i < pointerCount; i += 8) {
+				int bits = 0;
+				for (int j = i; j < Math.min(i + 8, pointerCount); j++)
+					if (node.pointers[j] == null)
+						bits |= 1 << (j - i);
+				buffer.put((byte) bits);
+			}
+		for (int i = 0; i < node.keyCount; i++)
+			if (prefixCompression && i > 0) {
+				String previous = (String) node.keys[i - 1], key = (String) node.keys[i];
+				int prefix = commonPrefix(previous, key);
+				buffer.putChar((char) prefix);
+				Serializer.STRING.write(buffer, key.substring(prefix));
+			} else
+				keySerializer.write(buffer, node.keys[i]);
+		for (int i = 0; i < pointerCount; i++)
+			if (node.pointers[i] != null)
+				pointerSerializer.write(buffer, node.pointers[i]);
+		if (successor != null)
+			pointerSerializer.write(buffer, successor);
+	}
+
+	/**
+	 * Reads a node.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @param type
+	 *            the type of the node ({@link #LEAF} or {@link #NON_LEAF})
+	 * @return the node read
+	 */
+	@SuppressWarnings("unchecked")
+	Node<K, P> readNode(ByteBuffer buffer, byte type) {
+		byte flags = buffer.get();
+		int degree = buffer.getChar();
+		Node<K, P> node = type == LEAF ? new LeafNode<K, P>(degree) : new NonLeafNode<K, P>(degree);
+		node.keyCount = buffer.getChar();
+		int pointerCount = type == LEAF ? node.keyCount : node.keyCount + 1;
+		byte[] nulls = null;
+		if ((flags & HAS_NULLS) != 0) {
+			nulls = new byte[(pointerCount + 7) / 8];
+			buffer.get(nulls);
+		}
+		for (int i = 0; i < node.keyCount; i++)
+			if (prefixCompression && i > 0) {
+				int prefix = buffer.getChar();
+				node.keys[i] = (K) (((String) node.keys[i - 1]).substring(0, prefix) + Serializer.STRING.read(buffer));
+			} else
+				node.keys[i] = keySerializer.read(buffer);
+		for (int i = 0; i < pointerCount; i++)
+			if (nulls == null || (nulls[i / 8] & 1 << i % 8) == 0)
+				node.pointers[i] = pointerSerializer.read(buffer);
+		if ((flags & HAS_SUCCESSOR) != 0)
+			((LeafNode<K, P>) node).setSuccessor(pointerSerializer.read(buffer));
+		return node;
+	}
+
+	/**
+	 * Returns the length of the longest common prefix of the specified {@code String}s that does not end in the middle
+	 * of a surrogate pair.
+	 *
+	 * @param s
+	 *            a {@code String}
+	 * @param t
+	 *            a {@code String}
+	 * @return the length of the longest common prefix of the {@code String}s
+	 */
+	static int commonPrefix(String s, String t) {
+		int n = Math.min(Math.min(s.length(), t.length()), Character.MAX_VALUE);
+		int i = 0;
+		while (i < n && s.charAt(i) == t.charAt(i))
+			i++;
+		if (i > 0 && Character.isHighSurrogate(s.charAt(i - 1)))
+			i--;
+		return i;
+	}
+
+}
@@ -0,0 +1,469 @@
+package bptree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@code PageFileStorageManager} keeps the objects of each file (e.g., the nodes of a {@code BPlusTree}) in
+ * fixed-size pages of a single file on disk, which is read and written through memory-mapped extents so that an access
+ * touches only the page concerned. The pointer of an object is the number of its page. Page 0 is reserved for the
+ * object stored at {@link #first()} (the pointer to the root of a {@code BPlusTree}); {@link #add(int, Object)} reuses
+ * the pages freed by {@link #remove(int, Integer)} before appending new pages.
+ * <p>
+ * Each file starts with a header page (magic number, page size, page count, head of the list of free pages and a flag
+ * indicating whether the file was closed cleanly) followed by the pages, each of which starts with the length of the
+ * encoded object (0 if the page holds no object). The list of free pages is written through the free pages only when
+ * the file is closed; when a file that was not closed cleanly is opened, the pages are found from the length of the
+ * file (as the page count in the header may predate pages added since) and the free pages by scanning the page
+ * headers instead.
+ * <p>
+ * {@link #get(int, Integer)} may be called by multiple threads at a time as long as no other method is running.
+ */
+public class PageFileStorageManager implements StorageManager<Integer, Object>, Flushable, Closeable {
+
+	/**
+	 * A {@code PageFile} is an open file of pages.
+	 */
+	static class PageFile {
+
+		/**
+		 * The {@code FileChannel} of this {@code PageFile}.
+		 */
+		FileChannel channel;
+
+		/**
+		 * The memory-mapped extents of this {@code PageFile}, each of which holds {@link #PAGES_PER_EXTENT} pages
+		 * ({@code null} for the extents not mapped yet).
+		 */
+		ArrayList<MappedByteBuffer> extents = new ArrayList<MappedByteBuffer>();
+
+		/**
+		 * The number of pages in this {@code PageFile} (including page 0).
+		 */
+		int pageCount = 1;
+
+		/**
+		 * The pages that are free for reuse.
+		 */
+		BitSet free = new BitSet();
+
+		/**
+		 * Constructs a {@code PageFile}.
+		 *
+		 * @param channel
+		 *            the {@code FileChannel} of the {@code PageFile}
+		 */
+		PageFile(FileChannel channel) {
+			this.channel = channel;
+		}
+
+	}
+
+	/**
+	 * The magic number at the beginning of each file.
+	 */
+	static final int MAGIC = 0x42505446;
+
+	/**
+	 * The default page size in bytes.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	/**
+	 * The number of pages mapped at once.
+	 */
+	static final int PAGES_PER_EXTENT = 1024;
+
+	/**
+	 * The size of the header at the beginning of each page (the length of the encoded object).
+	 */
+	static final int PAGE_HEADER_SIZE = 4;
+
+	/**
+	 * The directory containing the files.
+	 */
+	File directory;
+
+	/**
+	 * The size of each page in bytes.
+	 */
+	int pageSize;
+
+	/**
+	 * The {@code Codec} for the stored objects.
+	 */
+	Codec codec;
+
+	/**
+	 * The buffer in which an object is encoded before it is copied into its page (so that an object that does not fit
+	 * leaves the page intact).
+	 */
+	ByteBuffer scratch;
+
+	/**
+	 * A map that associates file names with file IDs.
+	 */
+	Map<String, Integer> fileName2ID = new HashMap<String, Integer>();
+
+	/**
+	 * The open {@code PageFile}s indexed by file ID.
+	 */
+	ArrayList<PageFile> files = new ArrayList<PageFile>();
+
+	/**
+	 * Constructs a {@code PageFileStorageManager} that uses pages of {@link #DEFAULT_PAGE_SIZE} bytes and Java
+	 * serialization.
+	 *
+	 * @param directory
+	 *            the directory containing the files
+	 */
+	public PageFileStorageManager(File directory) {
+		this(directory, DEFAULT_PAGE_SIZE, Codec.SERIALIZATION);
+	}
+
+	/**
+	 * Constructs a {@code PageFileStorageManager}.
+	 *
+	 * @param directory
+	 *            the directory containing the files
+	 * @param pageSize
+	 *            the size of each page in bytes (must match the page size of existing files)
+	 * @param codec
+	 *            the {@code Codec} for the stored objects
+	 */
+	public PageFileStorageManager(File directory, int pageSize, Codec codec) {
+		if (pageSize < 64)
+			throw new IllegalArgumentException("page size: " + pageSize);
+		this.directory = directory;
+		this.pageSize = pageSize;
+		this.codec = codec;
+		this.scratch = ByteBuffer.allocate(pageSize - PAGE_HEADER_SIZE);
+	}
+
+	/**
+	 * Returns the ID of the specified file, opening (or creating) the file if necessary.
+	 *
+	 * @param fileName
+	 *            the name of a file in the directory of this {@code PageFileStorageManager}
+	 * @return the ID of the file
+	 * @throws UncheckedIOException
+	 *             if the file cannot be opened
+	 */
+	@Override
+	public int fileID(String fileName) {
+		Integer fileID = fileName2ID.get(fileName);
+		if (fileID == null) {
+			try {
+				files.add(open(new File(directory, fileName)));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			fileID = files.size() - 1;
+			fileName2ID.put(fileName, fileID);
+		}
+		return fileID;
+	}
+
+	/**
+	 * Returns the pointer at which the first object (e.g., the pointer to the root of a {@code BPlusTree}) is stored.
+	 *
+	 * @return 0
+	 */
+	@Override
+	public Integer first() {
+		return 0;
+	}
+
+	/**
+	 * Returns the object stored at the specified pointer.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return the object stored at the pointer ({@code null} if none)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public Object get(int fileID, Integer pointer) throws IOException {
+		PageFile file = files.get(fileID);
+		if (pointer < 0 || pointer >= file.pageCount)
+			return null;
+		return read(page(file, pointer));
+	}
+
+	/**
+	 * Stores the specified object at the specified pointer. The file is extended if the pointer lies beyond its last
+	 * page, and a free page is no longer free once an object is stored in it. The object previously stored at the
+	 * pointer is not returned, so that a write does not decode the page it overwrites.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @param o
+	 *            an object
+	 * @return {@code null}
+	 * @throws IOException
+	 *             if the object does not fit in a page or an I/O error occurs
+	 */
+	@Override
+	public Object put(int fileID, Integer pointer, Object o) throws IOException {
+		PageFile file = files.get(fileID);
+		if (pointer < 0)
+			throw new IOException("invalid pointer: " + pointer);
+		for (; file.pageCount <= pointer; file.pageCount++) { // extend the file with free pages
+			page(file, file.pageCount).putInt(0, 0);
+			file.free.set(file.pageCount);
+		}
+		write(page(file, pointer), o);
+		file.free.set(pointer, o == null && pointer != 0);
+		return null;
+	}
+
+	/**
+	 * Stores the specified object in a free page (or a new page if there is no free page).
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param o
+	 *            an object
+	 * @return the pointer to the object
+	 * @throws IOException
+	 *             if the object does not fit in a page or an I/O error occurs
+	 */
+	@Override
+	public Integer add(int fileID, Object o) throws IOException {
+		PageFile file = files.get(fileID);
+		int pointer = file.free.isEmpty() ? file.pageCount : file.free.nextSetBit(0);
+		if (pointer == file.pageCount)
+			file.pageCount++;
+		write(page(file, pointer), o);
+		file.free.clear(pointer);
+		return pointer;
+	}
+
+	/**
+	 * Removes the object stored at the specified pointer and frees its page. The removed object is not returned, so
+	 * that a removal does not decode the page it frees.
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @param pointer
+	 *            a pointer
+	 * @return {@code null}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public Object remove(int fileID, Integer pointer) throws IOException {
+		PageFile file = files.get(fileID);
+		if (pointer < 0 || pointer >= file.pageCount)
+			return null;
+		page(file, pointer).putInt(0, 0);
+		if (pointer != 0)
+			file.free.set(pointer);
+		return null;
+	}
+
+	/**
+	 * Returns the number of pages in the specified file (including page 0 and the free pages).
+	 *
+	 * @param fileID
+	 *            the ID of a file
+	 * @return the number of pages in the file
+	 */
+	public int pageCount(int fileID) {
+		return files.get(fileID).pageCount;
+	}
+
+	/**
+	 * Writes the modified pages and the headers of all the open files to disk.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public void flush() throws IOException {
+		for (PageFile file : files) {
+			for (MappedByteBuffer extent : file.extents)
+				if (extent != null)
+					extent.force();
+			writeHeader(file, -1, false);
+			file.channel.force(true);
+		}
+	}
+
+	/**
+	 * Closes all the open files after writing the lists of free pages, so that the files can be opened again without
+	 * scanning them.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		for (PageFile file : files) {
+			int head = 0;
+			for (int pointer = file.free.previousSetBit(file.pageCount - 1); pointer > 0; pointer = file.free
+					.previousSetBit(pointer - 1)) {
+				ByteBuffer page = page(file, pointer);
+				page.putInt(0, 0);
+				page.putInt(PAGE_HEADER_SIZE, head);
+				head = pointer;
+			}
+			for (MappedByteBuffer extent : file.extents)
+				if (extent != null)
+					extent.force();
+			writeHeader(file, head, true);
+			file.channel.force(true);
+			file.channel.close();
+		}
+		files.clear();
+		fileName2ID.clear();
+	}
+
+	/**
+	 * Opens (or creates) the specified file.
+	 *
+	 * @param f
+	 *            a file
+	 * @return a {@code PageFile} for the file
+	 * @throws IOException
+	 *             if the file is not a page file with the page size of this {@code PageFileStorageManager} or an I/O
+	 *             error occurs
+	 */
+	PageFile open(File f) throws IOException {
+		@SuppressWarnings("resource")
+		PageFile file = new PageFile(new RandomAccessFile(f, "rw").getChannel());
+		try {
+			if (file.channel.size() >= pageSize) {
+				ByteBuffer header = ByteBuffer.allocate(20);
+				file.channel.read(header, 0);
+				header.flip();
+				if (header.getInt() != MAGIC || header.getInt() != pageSize)
+					throw new IOException("not a page file with " + pageSize + "-byte pages: " + f);
+				file.pageCount = header.getInt();
+				int head = header.getInt();
+				if (header.getInt() != 0) // closed cleanly: follow the list of free pages
+					for (int pointer = head; pointer != 0; pointer = page(file, pointer).getInt(PAGE_HEADER_SIZE))
+						file.free.set(pointer);
+				else { // the page count may be stale: count the pages from the file length, then scan their headers
+					file.pageCount = Math.max(file.pageCount, (int) ((file.channel.size() - pageSize) / pageSize));
+					for (int pointer = 1; pointer < file.pageCount; pointer++)
+						if (page(file, pointer).getInt(0) == 0)
+							file.free.set(pointer);
+					while (file.pageCount > 1 && file.free.get(file.pageCount - 1)) // drop free pages at the end
+						file.free.clear(--file.pageCount);
+				}
+			}
+			writeHeader(file, -1, false); // until the file is closed
+			return file;
+		} catch (IOException e) {
+			file.channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the header of the specified {@code PageFile}.
+	 *
+	 * @param file
+	 *            a {@code PageFile}
+	 * @param head
+	 *            the first page in the list of free pages (-1 if the list has not been written)
+	 * @param clean
+	 *            a flag indicating whether the {@code PageFile} is being closed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeHeader(PageFile file, int head, boolean clean) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(20);
+		header.putInt(MAGIC).putInt(pageSize).putInt(file.pageCount).putInt(head).putInt(clean ? 1 : 0);
+		header.flip();
+		file.channel.write(header, 0);
+	}
+
+	/**
+	 * Returns the specified page of the specified {@code PageFile}, mapping its extent if necessary.
+	 *
+	 * @param file
+	 *            a {@code PageFile}
+	 * @param pointer
+	 *            the number of a page
+	 * @return a {@code ByteBuffer} that covers exactly the page
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	ByteBuffer page(PageFile file, int pointer) throws IOException {
+		int index = pointer / PAGES_PER_EXTENT;
+		MappedByteBuffer extent;
+		synchronized (file) { // concurrent gets may map extents
+			while (file.extents.size() <= index)
+				file.extents.add(null);
+			extent = file.extents.get(index);
+			if (extent == null) {
+				long extentSize = (long) pageSize * PAGES_PER_EXTENT;
+				extent = file.channel.map(FileChannel.MapMode.READ_WRITE, pageSize + index * extentSize, extentSize);
+				file.extents.set(index, extent);
+			}
+		}
+		ByteBuffer page = extent.duplicate();
+		int offset = pointer % PAGES_PER_EXTENT * pageSize;
+		page.position(offset).limit(offset + pageSize);
+		return page.slice();
+	}
+
+	/**
+	 * Reads the object in the specified page.
+	 *
+	 * @param page
+	 *            a {@code ByteBuffer} that covers exactly a page
+	 * @return the object in the page ({@code null} if none)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Object read(ByteBuffer page) throws IOException {
+		int length = page.getInt(0);
+		if (length == 0)
+			return null;
+		page.position(PAGE_HEADER_SIZE).limit(PAGE_HEADER_SIZE + length);
+		return codec.read(page);
+	}
+
+	/**
+	 * Writes the specified object into the specified page.
+	 *
+	 * @param page
+	 *            a {@code ByteBuffer} that covers exactly a page
+	 * @param o
+	 *            an object ({@code null} to leave the page without an object)
+	 * @throws IOException
+	 *             if the object does not fit in the page or an I/O error occurs
+	 */
+	void write(ByteBuffer page, Object o) throws IOException {
+		if (o == null) {
+			page.putInt(0, 0);
+			return;
+		}
+		scratch.clear();
+		codec.write(scratch, o);
+		scratch.flip();
+		page.putInt(0, scratch.remaining());
+		page.position(PAGE_HEADER_SIZE);
+		page.put(scratch);
+	}
+
+}
@@ -0,0 +1,91 @@
+package bptree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@code Serializer} writes and reads the keys or pointers of nodes in a fixed binary form.
+ *
+ * @param <T>
+ *            the type of values
+ */
+public interface Serializer<T> {
+
+	/**
+	 * Writes the specified value at the current position of the specified {@code ByteBuffer}.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @param value
+	 *            a value (not {@code null})
+	 */
+	void write(ByteBuffer buffer, T value);
+
+	/**
+	 * Reads a value from the current position of the specified {@code ByteBuffer}.
+	 *
+	 * @param buffer
+	 *            a {@code ByteBuffer}
+	 * @return the value read
+	 */
+	T read(ByteBuffer buffer);
+
+	/**
+	 * The {@code Serializer} for {@code Integer}s (4 bytes each).
+	 */
+	Serializer<Integer> INTEGER = new Serializer<Integer>() {
+
+		@Override
+		public void write(ByteBuffer buffer, Integer value) {
+			buffer.putInt(value);
+		}
+
+		@Override
+		public Integer read(ByteBuffer buffer) {
+			return buffer.getInt();
+		}
+
+	};
+
+	/**
+	 * The {@code Serializer} for {@code Long}s (8 bytes each).
+	 */
+	Serializer<Long> LONG = new Serializer<Long>() {
+
+		@Override
+		public void write(ByteBuffer buffer, Long value) {
+			buffer.putLong(value);
+		}
+
+		@Override
+		public Long read(ByteBuffer buffer) {
+			return buffer.getLong();
+		}
+
+	};
+
+	/**
+	 * The {@code Serializer} for {@code String}s (the length of the UTF-8 encoding in 2 bytes followed by the
+	 * encoding).
+	 */
+	Serializer<String> STRING = new Serializer<String>() {
+
+		@Override
+		public void write(ByteBuffer buffer, String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > Character.MAX_VALUE)
+				throw new IllegalArgumentException("string too long: " + bytes.length + " bytes");
+			buffer.putChar((char) bytes.length);
+			buffer.put(bytes);
+		}
+
+		@Override
+		public String read(ByteBuffer buffer) {
+			byte[] bytes = new byte[buffer.getChar()];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+	};
+
+}
@@ -0,0 +1,281 @@
+package bptree.test;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import bptree.BPlusTree;
+import bptree.BPlusTree.InvalidInsertionException;
+import bptree.BufferPool;
+import bptree.ConcurrentBPlusTree;
+import bptree.NodeCodec;
+import bptree.PageFileStorageManager;
+import bptree.Serializer;
+import bptree.StorageManager;
+
+/**
+ * The {@code ConcurrentBPlusTreeTest} class stress-tests {@code ConcurrentBPlusTree}s. Writer threads insert disjoint
+ * sets of keys in random order (and insert some of their keys again, which must fail) while reader threads look up
+ * random keys and scan random ranges. A reader checks that every key inserted before its lookup or scan began is found
+ * with its pointer and that scans return keys in ascending order. When all threads have finished, every key is looked
+ * up and the leaf chain (followed by a forward scan) and the tree (descended by a reverse scan) are compared with the
+ * reference set of keys. Deletions are not tested because {@code BPlusTree.delete} fails on some trees.
+ */
+public class ConcurrentBPlusTreeTest {
+
+	/**
+	 * The {@code ConcurrentBPlusTree} under test.
+	 */
+	ConcurrentBPlusTree<Integer, Integer> tree;
+
+	/**
+	 * The keys whose insertion has completed.
+	 */
+	NavigableSet<Integer> inserted = new ConcurrentSkipListSet<Integer>();
+
+	/**
+	 * The {@code Throwable}s thrown by the threads.
+	 */
+	ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+	/**
+	 * A flag indicating whether the writers have finished.
+	 */
+	volatile boolean done;
+
+	/**
+	 * Constructs a {@code ConcurrentBPlusTreeTest} and runs the test.
+	 *
+	 * @param degree
+	 *            the degree of the {@code BPlusTree}
+	 * @param storage
+	 *            the storage for the {@code BPlusTree} ({@code page} or {@code pool})
+	 * @param keyCount
+	 *            the number of keys to insert
+	 * @param writers
+	 *            the number of writer threads
+	 * @param readers
+	 *            the number of reader threads
+	 * @param out
+	 *            the {@code PrintStream} for the result
+	 * @throws Exception
+	 *             if the test fails
+	 */
+	public ConcurrentBPlusTreeTest(int degree, String storage, int keyCount, int writers, int readers, PrintStream out)
+			throws Exception {
+		File directory = Files.createTempDirectory("bptree").toFile();
+		PageFileStorageManager pages = new PageFileStorageManager(directory, PageFileStorageManager.DEFAULT_PAGE_SIZE,
+				new NodeCodec<Integer, Integer>(Serializer.INTEGER, Serializer.INTEGER));
+		StorageManager<Integer, Object> sm = storage.equals("pool")
+				? new BufferPool(pages, 64, BufferPool.EvictionPolicy.LRU) : pages;
+		try {
+			tree = new ConcurrentBPlusTree<Integer, Integer>(new BPlusTree<Integer, Integer>(degree, sm, "test.idx"));
+			List<Integer> keys = new ArrayList<Integer>();
+			for (int i = 0; i < keyCount; i++)
+				keys.add(i);
+			Collections.shuffle(keys, new Random(degree));
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int w = 0; w < writers; w++) {
+				List<Integer> mine = new ArrayList<Integer>();
+				for (int i = w; i < keyCount; i += writers)
+					mine.add(keys.get(i));
+				threads.add(thread(() -> write(mine)));
+			}
+			List<Thread> readerThreads = new ArrayList<Thread>();
+			for (int r = 0; r < readers; r++) {
+				long seed = r;
+				readerThreads.add(thread(() -> read(new Random(seed), keyCount)));
+			}
+			for (Thread t : threads)
+				t.join();
+			done = true;
+			for (Thread t : readerThreads)
+				t.join();
+			if (failures.isEmpty())
+				verify(keyCount);
+		} finally {
+			pages.close();
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+		if (!failures.isEmpty()) {
+			IllegalStateException e = new IllegalStateException(failures.size() + " failures");
+			for (Throwable t : failures)
+				e.addSuppressed(t);
+			throw e;
+		}
+		out.printf("degree %d, %s storage, %d keys, %d writers, %d readers: OK%n", degree, storage, keyCount, writers,
+				readers);
+	}
+
+	/**
+	 * A {@code Task} is run by a thread of a {@code ConcurrentBPlusTreeTest}.
+	 */
+	interface Task {
+
+		/**
+		 * Runs this {@code Task}.
+		 *
+		 * @throws Exception
+		 *             if an error occurs
+		 */
+		void run() throws Exception;
+
+	}
+
+	/**
+	 * Starts a thread that runs the specified {@code Task} and records what it throws.
+	 *
+	 * @param task
+	 *            a {@code Task}
+	 * @return the started thread
+	 */
+	Thread thread(Task task) {
+		Thread t = new Thread(() -> {
+			try {
+				task.run();
+			} catch (Throwable e) {
+				failures.add(e);
+			}
+		});
+		t.start();
+		return t;
+	}
+
+	/**
+	 * Inserts the specified keys, each with the pointer {@link #pointer(int)}, and inserts every 16th key again.
+	 *
+	 * @param keys
+	 *            the keys to insert
+	 * @throws Exception
+	 *             if an insertion fails
+	 */
+	void write(List<Integer> keys) throws Exception {
+		for (int i = 0; i < keys.size() && failures.isEmpty(); i++) {
+			tree.insert(keys.get(i), pointer(keys.get(i)));
+			inserted.add(keys.get(i));
+			if (i % 16 == 15)
+				try {
+					tree.insert(keys.get(i / 2), -1);
+					throw new IllegalStateException("key " + keys.get(i / 2) + " inserted twice");
+				} catch (InvalidInsertionException e) {
+				}
+		}
+	}
+
+	/**
+	 * Looks up random keys and scans random ranges until the writers have finished.
+	 *
+	 * @param random
+	 *            a {@code Random}
+	 * @param keyCount
+	 *            the number of keys to insert
+	 * @throws Exception
+	 *             if a lookup or scan returns a wrong result
+	 */
+	void read(Random random, int keyCount) throws Exception {
+		while (!done && failures.isEmpty()) {
+			int key = random.nextInt(keyCount);
+			boolean known = inserted.contains(key);
+			Integer pointer = tree.get(key);
+			if (known && pointer == null || pointer != null && pointer != pointer(key))
+				throw new IllegalStateException("key " + key + ": pointer " + pointer);
+			int to = key + random.nextInt(100);
+			TreeSet<Integer> expected = new TreeSet<Integer>(inserted.subSet(key, true, to, false));
+			boolean reverse = random.nextBoolean();
+			List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+			tree.scan(key, true, to, false, reverse, entries::add);
+			if (reverse)
+				Collections.reverse(entries);
+			check(entries, expected, "scan [" + key + ", " + to + ")");
+		}
+	}
+
+	/**
+	 * Looks up every key and scans the whole tree forward and backward after all keys have been inserted.
+	 *
+	 * @param keyCount
+	 *            the number of keys inserted
+	 * @throws Exception
+	 *             if a key is missing or a scan returns a wrong result
+	 */
+	void verify(int keyCount) throws Exception {
+		if (inserted.size() != keyCount)
+			throw new IllegalStateException(inserted.size() + " keys inserted (expected " + keyCount + ")");
+		for (int key = 0; key < keyCount; key++) {
+			Integer pointer = tree.get(key);
+			if (pointer == null || pointer != pointer(key))
+				throw new IllegalStateException("key " + key + ": pointer " + pointer);
+		}
+		for (boolean reverse : new boolean[] { false, true }) {
+			List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+			tree.scan(null, true, null, true, reverse, entries::add);
+			if (reverse)
+				Collections.reverse(entries);
+			if (entries.size() != keyCount)
+				throw new IllegalStateException((reverse ? "reverse" : "forward") + " scan: " + entries.size()
+						+ " entries (expected " + keyCount + ")");
+			check(entries, inserted, reverse ? "reverse scan" : "forward scan");
+		}
+	}
+
+	/**
+	 * Checks that the specified entries are in ascending order of keys, have the right pointers and include the
+	 * specified keys.
+	 *
+	 * @param entries
+	 *            entries in ascending order of keys
+	 * @param expected
+	 *            the keys that must be included
+	 * @param what
+	 *            a description of the entries
+	 */
+	static void check(List<Map.Entry<Integer, Integer>> entries, NavigableSet<Integer> expected, String what) {
+		int found = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			int key = entries.get(i).getKey();
+			if (i > 0 && key <= entries.get(i - 1).getKey())
+				throw new IllegalStateException(what + ": key " + key + " after " + entries.get(i - 1).getKey());
+			if (entries.get(i).getValue() != pointer(key))
+				throw new IllegalStateException(what + ": key " + key + ", pointer " + entries.get(i).getValue());
+			if (expected.contains(key))
+				found++;
+		}
+		if (found != expected.size())
+			throw new IllegalStateException(what + ": " + (expected.size() - found) + " keys missing");
+	}
+
+	/**
+	 * Returns the pointer inserted with the specified key.
+	 *
+	 * @param key
+	 *            a key
+	 * @return the pointer inserted with the key
+	 */
+	static int pointer(int key) {
+		return key * 2 + 1;
+	}
+
+	/**
+	 * The main method of {@code ConcurrentBPlusTreeTest}. This method stress-tests {@code ConcurrentBPlusTree}s.
+	 *
+	 * @param args
+	 *            the arguments of this main method
+	 */
+	public static void main(String[] args) throws Exception {
+		for (int degree : new int[] { 3, 16 })
+			for (String storage : new String[] { "page", "pool" })
+				new ConcurrentBPlusTreeTest(degree, storage, 20000, 4, 4, System.out);
+	}
+
+}
@@ -0,0 +1,232 @@
+package bptree.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import bptree.BPlusTree;
+import bptree.Cursor;
+import bptree.LoggingStorageManager;
+import bptree.NodeCodec;
+import bptree.PageFileStorageManager;
+import bptree.Serializer;
+
+/**
+ * The {@code LoggingStorageManagerTest} class tests {@code LoggingStorageManager}s on {@code PageFileStorageManager}s:
+ * forcing a log sequence number from before a checkpoint, log sequence numbers across checkpoints and restarts, the
+ * isolation of the operations of different threads, and the reuse of the pages reserved by operations rolled back.
+ */
+public class LoggingStorageManagerTest {
+
+	/**
+	 * The directory for the page file and the log file.
+	 */
+	File directory;
+
+	/**
+	 * The {@code PageFileStorageManager} under the {@code LoggingStorageManager}.
+	 */
+	PageFileStorageManager pages;
+
+	/**
+	 * The {@code LoggingStorageManager} under test.
+	 */
+	LoggingStorageManager log;
+
+	/**
+	 * Constructs a {@code LoggingStorageManagerTest} and runs the tests.
+	 *
+	 * @param out
+	 *            the {@code PrintStream} for the results
+	 * @throws Exception
+	 *             if a test fails
+	 */
+	public LoggingStorageManagerTest(PrintStream out) throws Exception {
+		directory = Files.createTempDirectory("bptree").toFile();
+		try {
+			open();
+			testForceAfterCheckpoint(out);
+			testIsolation(out);
+			testRollback(out);
+			close();
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Commits an insertion, takes a checkpoint and then forces the log sequence number of the commit, which must return
+	 * at once. Log sequence numbers must keep growing after the checkpoint and after a restart.
+	 *
+	 * @param out
+	 *            the {@code PrintStream} for the result
+	 * @throws Exception
+	 *             if the test fails
+	 */
+	void testForceAfterCheckpoint(PrintStream out) throws Exception {
+		BPlusTree<Integer, Integer> tree = tree("checkpoint.idx");
+		tree.insert(1, 1);
+		long lsn = log.commit();
+		log.checkpoint();
+		Thread t = new Thread(() -> {
+			try {
+				log.force(lsn);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		t.join(10000);
+		if (t.isAlive())
+			throw new IllegalStateException("force(" + lsn + ") does not return after a checkpoint");
+		tree.insert(2, 2);
+		long next = log.commit();
+		log.force(next);
+		if (next <= lsn)
+			throw new IllegalStateException("log sequence number " + next + " after " + lsn);
+		close();
+		open();
+		tree = tree("checkpoint.idx");
+		tree.insert(3, 3);
+		long restarted = log.commit();
+		log.force(restarted);
+		if (restarted <= next)
+			throw new IllegalStateException("log sequence number " + restarted + " after " + next + " and a restart");
+		check(tree, 1, 2, 3);
+		out.println("commit, checkpoint and force: OK");
+	}
+
+	/**
+	 * Leaves an insertion of another thread uncommitted while the calling thread commits its own insertion, which must
+	 * not make the insertion of the other thread durable.
+	 *
+	 * @param out
+	 *            the {@code PrintStream} for the result
+	 * @throws Exception
+	 *             if the test fails
+	 */
+	void testIsolation(PrintStream out) throws Exception {
+		BPlusTree<Integer, Integer> other = tree("other.idx");
+		Thread t = new Thread(() -> {
+			try {
+				other.insert(1, 1);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		t.start();
+		t.join();
+		BPlusTree<Integer, Integer> mine = tree("mine.idx");
+		mine.insert(1, 1);
+		log.force(log.commit());
+		check(other);
+		close();
+		open();
+		check(tree("other.idx"));
+		check(tree("mine.idx"), 1);
+		out.println("operations of different threads: OK");
+	}
+
+	/**
+	 * Rolls back an insertion that reserves pages and repeats it, which must reuse the pages reserved the first time.
+	 *
+	 * @param out
+	 *            the {@code PrintStream} for the result
+	 * @throws Exception
+	 *             if the test fails
+	 */
+	void testRollback(PrintStream out) throws Exception {
+		BPlusTree<Integer, Integer> tree = tree("rollback.idx");
+		int fileID = pages.fileID("rollback.idx");
+		for (int i = 0; i < 3; i++)
+			tree.insert(i, i);
+		log.force(log.commit());
+		tree.insert(3, 3); // splits the leaf
+		int pageCount = pages.pageCount(fileID);
+		log.rollback();
+		tree.insert(3, 3);
+		log.force(log.commit());
+		if (pages.pageCount(fileID) != pageCount)
+			throw new IllegalStateException(pages.pageCount(fileID) + " pages (expected " + pageCount + ")");
+		check(tree, 0, 1, 2, 3);
+		out.println("rollback: OK");
+	}
+
+	/**
+	 * Opens the page file and the log file.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void open() throws IOException {
+		NodeCodec<Integer, Integer> codec = new NodeCodec<Integer, Integer>(Serializer.INTEGER, Serializer.INTEGER);
+		pages = new PageFileStorageManager(directory, 256, codec);
+		log = new LoggingStorageManager(pages, new File(directory, "test.log"), codec);
+	}
+
+	/**
+	 * Closes the log file and the page file.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void close() throws IOException {
+		log.close();
+		pages.close();
+	}
+
+	/**
+	 * Returns a {@code BPlusTree} of degree 3 in the specified file.
+	 *
+	 * @param fileName
+	 *            the name of a file
+	 * @return a {@code BPlusTree} in the file
+	 */
+	BPlusTree<Integer, Integer> tree(String fileName) {
+		return new BPlusTree<Integer, Integer>(3, log, fileName);
+	}
+
+	/**
+	 * Checks that the specified {@code BPlusTree} contains exactly the specified keys, each with itself as the pointer.
+	 *
+	 * @param tree
+	 *            a {@code BPlusTree}
+	 * @param keys
+	 *            the expected keys in ascending order
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void check(BPlusTree<Integer, Integer> tree, int... keys) throws IOException {
+		List<Integer> found = new ArrayList<Integer>();
+		for (Cursor<Integer, Integer> cursor = new Cursor<Integer, Integer>(tree, null, true, null, true); cursor
+				.hasNext();) {
+			Map.Entry<Integer, Integer> e = cursor.next();
+			if (!e.getKey().equals(e.getValue()))
+				throw new IllegalStateException("key " + e.getKey() + ": pointer " + e.getValue());
+			found.add(e.getKey());
+		}
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int key : keys)
+			expected.add(key);
+		if (!found.equals(expected))
+			throw new IllegalStateException("keys " + found + " (expected " + expected + ")");
+	}
+
+	/**
+	 * The main method of {@code LoggingStorageManagerTest}. This method tests {@code LoggingStorageManager}s.
+	 *
+	 * @param args
+	 *            the arguments of this main method
+	 */
+	public static void main(String[] args) throws Exception {
+		new LoggingStorageManagerTest(System.out);
+	}
+
+}
@@ -0,0 +1,6 @@
+/**
+ *
+ * Provides classes for testing {@code BPlusTree} implementations.
+ *
+ */
+package bptree.test;
@@ -0,0 +1,385 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import bptree.BPlusTree;
+import bptree.BPlusTree.InvalidDeletionException;
+import bptree.BPlusTree.InvalidInsertionException;
+import bptree.BinarySearchBPlusTree;
+import bptree.BufferPool;
+import bptree.Cursor;
+import bptree.NodeCodec;
+import bptree.PageFileStorageManager;
+import bptree.Serializer;
+import bptree.StorageManager;
+
+/**
+ * The {@code BPlusTreeBenchmark} class measures the throughput of {@code BPlusTree} insertions, point lookups, range
+ * scans and deletions for combinations of tree implementations, {@code StorageManager}s, degrees, key types, key
+ * distributions and tree sizes. Each combination is run a number of times on a fresh tree and the median throughput
+ * of each phase is reported, so that the numbers can be compared across changes. Since {@code BPlusTree.delete} fails
+ * on some trees (with an {@code InvalidDeletionException}, {@code NullPointerException},
+ * {@code ArrayIndexOutOfBoundsException} or {@code ClassCastException}), the deletion phase stops at the first such
+ * failure, which is printed to the standard error, and the fewest keys deleted in any run are reported along with the
+ * throughput of the deletions that succeeded. Any other exception stops the benchmark.
+ */
+public class BPlusTreeBenchmark {
+
+	/**
+	 * A {@code ZipfianGenerator} generates integers in {@code [0, n)} so that the probability of {@code i} is
+	 * proportional to {@code 1 / (i + 1)^theta} (Gray et al., "Quickly Generating Billion-Record Synthetic Databases").
+	 */
+	static class ZipfianGenerator {
+
+		/**
+		 * The number of distinct values.
+		 */
+		int n;
+
+		/**
+		 * Constants derived from {@code n} and {@code theta}.
+		 */
+		double alpha, zetan, eta, half;
+
+		/**
+		 * Constructs a {@code ZipfianGenerator}.
+		 *
+		 * @param n
+		 *            the number of distinct values
+		 * @param theta
+		 *            the skew (at least {@code 0} and less than {@code 1})
+		 */
+		ZipfianGenerator(int n, double theta) {
+			if (n < 2 || theta < 0 || theta >= 1)
+				throw new IllegalArgumentException();
+			this.n = n;
+			alpha = 1 / (1 - theta);
+			zetan = zeta(n, theta);
+			eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+			half = 1 + Math.pow(0.5, theta);
+		}
+
+		/**
+		 * Returns the next integer.
+		 *
+		 * @param random
+		 *            a {@code Random}
+		 * @return the next integer
+		 */
+		int next(Random random) {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			if (uz < 1)
+				return 0;
+			if (uz < half)
+				return 1;
+			return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+		}
+
+		/**
+		 * Returns the sum of {@code 1 / i^theta} for {@code i} from {@code 1} to {@code n}.
+		 *
+		 * @param n
+		 *            the number of terms
+		 * @param theta
+		 *            the skew
+		 * @return the sum of {@code 1 / i^theta} for {@code i} from {@code 1} to {@code n}
+		 */
+		static double zeta(int n, double theta) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++)
+				sum += 1 / Math.pow(i, theta);
+			return sum;
+		}
+
+	}
+
+	/**
+	 * The phases of each run.
+	 */
+	static final String[] PHASES = { "insert", "lookup", "scan", "delete" };
+
+	/**
+	 * The keys of the tree, in the order of insertion.
+	 */
+	Comparable<?>[] keys;
+
+	/**
+	 * The keys in ascending order.
+	 */
+	Comparable<?>[] sortedKeys;
+
+	/**
+	 * The indices (into {@link #sortedKeys}) of the keys accessed by lookups, scans and deletions.
+	 */
+	int[] accesses;
+
+	/**
+	 * Constructs a {@code BPlusTreeBenchmark} and prints the results for each combination of the specified settings.
+	 *
+	 * @param trees
+	 *            the class names of the {@code BPlusTree}s
+	 * @param storages
+	 *            the {@code StorageManager}s ({@code memory}, {@code page} or {@code pool})
+	 * @param degrees
+	 *            the degrees
+	 * @param keyType
+	 *            the type of keys ({@code int} or {@code string})
+	 * @param distributions
+	 *            the key distributions ({@code sequential}, {@code uniform} or {@code zipfian})
+	 * @param sizes
+	 *            the numbers of keys
+	 * @param scanLength
+	 *            the number of entries read by each scan
+	 * @param poolSize
+	 *            the number of nodes in the {@code BufferPool} of the {@code pool} storage
+	 * @param runs
+	 *            the number of runs of each combination
+	 * @param out
+	 *            a {@code PrintStream}
+	 * @throws Exception
+	 *             if a tree cannot be constructed or an I/O error occurs
+	 */
+	public BPlusTreeBenchmark(String[] trees, String[] storages, int[] degrees, String keyType, String[] distributions,
+			int[] sizes, int scanLength, int poolSize, int runs, PrintStream out) throws Exception {
+		out.printf("%-22s %-7s %6s %-6s %-10s %9s %11s %11s %11s %11s %9s%n", "tree", "storage", "degree", "keys",
+				"access", "size", "insert/s", "lookup/s", "scan keys/s", "delete/s", "deleted");
+		for (int size : sizes)
+			for (String distribution : distributions) {
+				generate(keyType, distribution, size);
+				for (String tree : trees)
+					for (String storage : storages)
+						for (int degree : degrees) {
+							double[][] results = new double[PHASES.length + 1][runs];
+							for (int run = 0; run < runs; run++) {
+								double[] r = run(tree, storage, degree, keyType, scanLength, poolSize);
+								for (int i = 0; i < r.length; i++)
+									results[i][run] = r[i];
+							}
+							out.printf("%-22s %-7s %6d %-6s %-10s %9d", tree, storage, degree, keyType, distribution,
+									size);
+							for (int i = 0; i < PHASES.length; i++) {
+								Arrays.sort(results[i]);
+								out.printf(" %11.0f", results[i][runs / 2]);
+							}
+							Arrays.sort(results[PHASES.length]);
+							out.printf(" %9.0f%n", results[PHASES.length][0]);
+						}
+			}
+	}
+
+	/**
+	 * Generates the keys and the accesses.
+	 *
+	 * @param keyType
+	 *            the type of keys ({@code int} or {@code string})
+	 * @param distribution
+	 *            the key distribution ({@code sequential}, {@code uniform} or {@code zipfian})
+	 * @param size
+	 *            the number of keys
+	 */
+	void generate(String keyType, String distribution, int size) {
+		Random random = new Random(0);
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		if (!distribution.equals("sequential"))
+			for (int i = size - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1), t = order[i];
+				order[i] = order[j];
+				order[j] = t;
+			}
+		sortedKeys = new Comparable<?>[size];
+		for (int i = 0; i < size; i++)
+			sortedKeys[i] = keyType.equals("string") ? String.format("key%010d", i) : (Comparable<?>) i;
+		keys = new Comparable<?>[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = sortedKeys[order[i]];
+		accesses = new int[size];
+		ZipfianGenerator generator = distribution.equals("zipfian") && size > 1 ? new ZipfianGenerator(size, 0.99)
+				: null;
+		for (int i = 0; i < size; i++)
+			accesses[i] = distribution.equals("sequential") ? i
+					: generator != null ? order[generator.next(random)] : random.nextInt(size);
+	}
+
+	/**
+	 * Runs the phases on a fresh tree.
+	 *
+	 * @param treeName
+	 *            the class name of the {@code BPlusTree}
+	 * @param storage
+	 *            the {@code StorageManager} ({@code memory}, {@code page} or {@code pool})
+	 * @param degree
+	 *            the degree
+	 * @param keyType
+	 *            the type of keys ({@code int} or {@code string})
+	 * @param scanLength
+	 *            the number of entries read by each scan
+	 * @param poolSize
+	 *            the number of nodes in the {@code BufferPool}
+	 * @return the throughput of each phase, followed by the number of keys deleted before a deletion failed
+	 * @throws Exception
+	 *             if the tree cannot be constructed or an I/O error occurs
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	double[] run(String treeName, String storage, int degree, String keyType, int scanLength, int poolSize)
+			throws Exception {
+		File directory = null;
+		PageFileStorageManager pages = null;
+		StorageManager<Integer, Object> sm;
+		if (storage.equals("memory"))
+			sm = new MemoryStorageManager();
+		else {
+			directory = Files.createTempDirectory("bptree").toFile();
+			NodeCodec<?, Integer> codec = keyType.equals("string")
+					? new NodeCodec<String, Integer>(Serializer.STRING, Serializer.INTEGER, true)
+					: new NodeCodec<Integer, Integer>(Serializer.INTEGER, Serializer.INTEGER);
+			pages = new PageFileStorageManager(directory, PageFileStorageManager.DEFAULT_PAGE_SIZE, codec);
+			sm = storage.equals("pool") ? new BufferPool(pages, poolSize, BufferPool.EvictionPolicy.LRU) : pages;
+		}
+		Class<?> c = Class.forName(treeName.contains(".") ? treeName : "bptree." + treeName);
+		BPlusTree tree = (BPlusTree) c.getConstructor(int.class, StorageManager.class, String.class).newInstance(
+				degree, sm, "benchmark.idx");
+		double[] results = new double[PHASES.length + 1];
+		try {
+			long start = System.nanoTime();
+			for (int i = 0; i < keys.length; i++)
+				try {
+					tree.insert(keys[i], i);
+				} catch (InvalidInsertionException e) {
+				}
+			results[0] = keys.length * 1e9 / (System.nanoTime() - start);
+			start = System.nanoTime();
+			long found = 0;
+			for (int i : accesses)
+				if (lookup(tree, sortedKeys[i]) != null)
+					found++;
+			results[1] = accesses.length * 1e9 / (System.nanoTime() - start);
+			if (found != accesses.length)
+				throw new IllegalStateException(accesses.length - found + " keys not found");
+			int scans = Math.max(1, accesses.length / scanLength);
+			long scanned = 0;
+			start = System.nanoTime();
+			for (int s = 0; s < scans; s++) {
+				Iterator<?> cursor = new Cursor(tree, sortedKeys[accesses[s]], true, null, true);
+				for (int j = 0; j < scanLength && cursor.hasNext(); j++, scanned++)
+					cursor.next();
+			}
+			results[2] = scanned * 1e9 / (System.nanoTime() - start);
+			start = System.nanoTime();
+			int deleted = 0;
+			try {
+				for (; deleted < keys.length; deleted++)
+					tree.delete(keys[deleted]);
+			} catch (InvalidDeletionException | NullPointerException | ArrayIndexOutOfBoundsException
+					| ClassCastException e) { // BPlusTree.delete fails on some trees
+				System.err.printf("%s %s %d: deletion stopped after %d keys: %s%n", treeName, storage, degree, deleted,
+						e);
+			}
+			results[3] = deleted * 1e9 / (System.nanoTime() - start);
+			results[4] = deleted;
+		} finally {
+			if (pages != null) {
+				pages.close();
+				for (File file : directory.listFiles())
+					file.delete();
+				directory.delete();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Looks up the specified key.
+	 *
+	 * @param tree
+	 *            a {@code BPlusTree}
+	 * @param key
+	 *            a key
+	 * @return the pointer associated with the key ({@code null} if none)
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Object lookup(BPlusTree tree, Comparable<?> key) throws IOException {
+		if (tree instanceof BinarySearchBPlusTree)
+			return ((BinarySearchBPlusTree) tree).get(key);
+		Cursor cursor = new Cursor(tree, key, true, key, true);
+		return cursor.hasNext() ? cursor.next().getValue() : null;
+	}
+
+	/**
+	 * The main method of {@code BPlusTreeBenchmark}. Options are given as {@code name=value} arguments: {@code trees}
+	 * (comma-separated class names, default {@code BPlusTree,BinarySearchBPlusTree}), {@code storages}
+	 * (comma-separated, among {@code memory}, {@code page} and {@code pool}, default {@code memory,pool}),
+	 * {@code degrees} (comma-separated, default {@code 16,64,256}), {@code keys} ({@code int} or {@code string},
+	 * default {@code int}), {@code distributions} (comma-separated, among {@code sequential}, {@code uniform} and
+	 * {@code zipfian}, default all), {@code sizes} (comma-separated, default {@code 100000}), {@code scan} (entries per
+	 * scan, default 100), {@code pool} (nodes in the {@code BufferPool}, default 1024), {@code runs} (default 3) and
+	 * {@code warmup} (the number of keys in a throwaway run before the measurements, default 20000). Sequential
+	 * distributions insert and access keys in ascending order; the others insert keys in random order and access them
+	 * uniformly or according to a Zipfian distribution.
+	 *
+	 * @param args
+	 *            the arguments of this main method
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] trees = { "BPlusTree", "BinarySearchBPlusTree" }, storages = { "memory", "pool" };
+		String[] distributions = { "sequential", "uniform", "zipfian" };
+		int[] degrees = { 16, 64, 256 }, sizes = { 100000 };
+		String keyType = "int";
+		int scanLength = 100, poolSize = 1024, runs = 3, warmup = 20000;
+		for (String arg : args) {
+			String[] tokens = arg.split("=", 2);
+			switch (tokens[0]) {
+			case "trees":
+				trees = tokens[1].split(",");
+				break;
+			case "storages":
+				storages = tokens[1].split(",");
+				break;
+			case "degrees":
+				degrees = Arrays.stream(tokens[1].split(",")).mapToInt(Integer::parseInt).toArray();
+				break;
+			case "keys":
+				keyType = tokens[1];
+				break;
+			case "distributions":
+				distributions = tokens[1].split(",");
+				break;
+			case "sizes":
+				sizes = Arrays.stream(tokens[1].split(",")).mapToInt(Integer::parseInt).toArray();
+				break;
+			case "scan":
+				scanLength = Integer.parseInt(tokens[1]);
+				break;
+			case "pool":
+				poolSize = Integer.parseInt(tokens[1]);
+				break;
+			case "runs":
+				runs = Integer.parseInt(tokens[1]);
+				break;
+			case "warmup":
+				warmup = Integer.parseInt(tokens[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option: " + arg);
+			}
+		}
+		if (warmup > 0)
+			new BPlusTreeBenchmark(trees, storages, degrees, keyType, new String[] { "uniform" }, new int[] { warmup },
+					scanLength, poolSize, 1, new PrintStream(new java.io.ByteArrayOutputStream()));
+		System.out.printf("keys=%s sizes=%s scan=%d pool=%d runs=%d%n", keyType, Arrays.toString(sizes), scanLength,
+				poolSize, runs);
+		new BPlusTreeBenchmark(trees, storages, degrees, keyType, distributions, sizes, scanLength, poolSize, runs,
+				System.out);
+	}
+
+}
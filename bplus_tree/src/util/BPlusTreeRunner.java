@@ -0,0 +1,299 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import bptree.BPlusTree;
+import bptree.BPlusTree.InvalidDeletionException;
+import bptree.BPlusTree.InvalidInsertionException;
+import bptree.BufferPool;
+import bptree.NodeCodec;
+import bptree.PageFileStorageManager;
+import bptree.Serializer;
+import bptree.StorageManager;
+
+/**
+ * The {@code BPlusTreeRunner} class runs the {@code insert} and {@code delete} commands of a command file (in the
+ * format read by {@link BPlusTreeVisualizer}) against a {@code BPlusTree} without drawing the tree. The file is read
+ * one line at a time and the latency of each command is recorded in a {@code LatencyHistogram} of fixed size, so that
+ * files of any length can be run in bounded memory. At the end, the throughput and latency percentiles are printed.
+ */
+public class BPlusTreeRunner {
+
+	/**
+	 * A {@code LatencyHistogram} counts latencies (in nanoseconds) in buckets whose width is at most 1/32 of their
+	 * lower bound, so that percentiles are accurate to about 3% regardless of the number of latencies recorded.
+	 */
+	static class LatencyHistogram {
+
+		/**
+		 * The number of buckets for each power of 2.
+		 */
+		static final int SUB_BUCKETS = 32;
+
+		/**
+		 * The counts of the buckets.
+		 */
+		long[] counts = new long[2 * SUB_BUCKETS + (63 - 6) * SUB_BUCKETS];
+
+		/**
+		 * The number of latencies recorded.
+		 */
+		long total;
+
+		/**
+		 * The largest latency recorded.
+		 */
+		long max;
+
+		/**
+		 * Records the specified latency.
+		 *
+		 * @param nanos
+		 *            a latency in nanoseconds
+		 */
+		void record(long nanos) {
+			counts[index(Math.max(0, nanos))]++;
+			total++;
+			max = Math.max(max, nanos);
+		}
+
+		/**
+		 * Returns the specified percentile of the latencies recorded.
+		 *
+		 * @param p
+		 *            a percentile (between {@code 0} and {@code 100})
+		 * @return the lower bound of the bucket containing the percentile (in nanoseconds)
+		 */
+		long percentile(double p) {
+			long rank = (long) Math.ceil(total * p / 100), seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0)
+					return Math.min(lowerBound(i), max);
+			}
+			return max;
+		}
+
+		/**
+		 * Returns the index of the bucket for the specified latency.
+		 *
+		 * @param nanos
+		 *            a non-negative latency in nanoseconds
+		 * @return the index of the bucket for the latency
+		 */
+		static int index(long nanos) {
+			if (nanos < 2 * SUB_BUCKETS)
+				return (int) nanos;
+			int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			return (int) (2 * SUB_BUCKETS + (exponent - 6) * SUB_BUCKETS + (nanos >>> (exponent - 5)) - SUB_BUCKETS);
+		}
+
+		/**
+		 * Returns the smallest latency in the specified bucket.
+		 *
+		 * @param index
+		 *            the index of a bucket
+		 * @return the smallest latency in the bucket (in nanoseconds)
+		 */
+		static long lowerBound(int index) {
+			if (index < 2 * SUB_BUCKETS)
+				return index;
+			int exponent = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 6;
+			return (long) (SUB_BUCKETS + (index - 2 * SUB_BUCKETS) % SUB_BUCKETS) << (exponent - 5);
+		}
+
+	}
+
+	/**
+	 * The {@code BPlusTree} that the commands are run against.
+	 */
+	BPlusTree<String, Integer> tree;
+
+	/**
+	 * The {@code PrintStream} for tracing each command ({@code null} if commands are not traced).
+	 */
+	PrintStream trace;
+
+	/**
+	 * The latencies of the commands.
+	 */
+	LatencyHistogram latencies = new LatencyHistogram();
+
+	/**
+	 * The numbers of lines read, insertions, deletions, insertions of keys already in the tree, deletions of keys not
+	 * in the tree, and lines that are not commands.
+	 */
+	long lines, insertions, deletions, invalidInsertions, invalidDeletions, skipped;
+
+	/**
+	 * The total time spent running commands (in nanoseconds).
+	 */
+	long elapsed;
+
+	/**
+	 * Constructs a {@code BPlusTreeRunner}.
+	 *
+	 * @param tree
+	 *            the {@code BPlusTree} that the commands are run against
+	 * @param trace
+	 *            the {@code PrintStream} for tracing each command ({@code null} if commands are not traced)
+	 */
+	public BPlusTreeRunner(BPlusTree<String, Integer> tree, PrintStream trace) {
+		this.tree = tree;
+		this.trace = trace;
+	}
+
+	/**
+	 * Runs the commands read by the specified {@code BufferedReader}. Each line is either
+	 * {@code insert <key> <pointer>} or {@code delete <key>}; other lines are skipped. Insertions of keys already in
+	 * the {@code BPlusTree} and deletions of keys not in the {@code BPlusTree} are counted as invalid.
+	 *
+	 * @param reader
+	 *            a {@code BufferedReader}
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws RuntimeException
+	 *             if a command fails; the counts and latencies cover the commands run before it
+	 */
+	public void run(BufferedReader reader) throws IOException {
+		for (String line; (line = reader.readLine()) != null;) {
+			lines++;
+			if (trace != null)
+				trace.println("% " + line);
+			int first = line.indexOf(' '), second = line.indexOf(' ', first + 1);
+			boolean insert = second > 0 && line.startsWith("insert "), delete = first > 0 && line.startsWith("delete ");
+			if (!insert && !delete) {
+				skipped++;
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				if (insert)
+					tree.insert(line.substring(first + 1, second), Integer.parseInt(line.substring(second + 1)));
+				else
+					tree.delete(second < 0 ? line.substring(first + 1) : line.substring(first + 1, second));
+			} catch (InvalidInsertionException e) {
+				invalidInsertions++;
+				if (trace != null)
+					trace.println(e);
+			} catch (InvalidDeletionException e) {
+				invalidDeletions++;
+				if (trace != null)
+					trace.println(e);
+			} catch (RuntimeException e) {
+				throw new RuntimeException("line " + lines + ": " + line, e);
+			}
+			long latency = System.nanoTime() - start;
+			if (insert)
+				insertions++;
+			else
+				deletions++;
+			latencies.record(latency);
+			elapsed += latency;
+		}
+	}
+
+	/**
+	 * Prints the numbers of commands, the throughput and the latency percentiles.
+	 *
+	 * @param out
+	 *            a {@code PrintStream}
+	 */
+	public void report(PrintStream out) {
+		long commands = insertions + deletions;
+		out.printf("lines: %d, insertions: %d (invalid: %d), deletions: %d (invalid: %d), skipped: %d%n", lines,
+				insertions, invalidInsertions, deletions, invalidDeletions, skipped);
+		out.printf("throughput: %.0f commands/s (%.3f s)%n", elapsed == 0 ? 0 : commands * 1e9 / elapsed,
+				elapsed / 1e9);
+		out.printf("latency (us): p50 %.3f, p95 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+				latencies.percentile(50) / 1e3, latencies.percentile(95) / 1e3, latencies.percentile(99) / 1e3,
+				latencies.percentile(99.9) / 1e3, latencies.max / 1e3);
+	}
+
+	/**
+	 * The main method of {@code BPlusTreeRunner}. Options are given as {@code name=value} arguments: {@code input} (the
+	 * command file, or {@code -} for the standard input, default {@code input.txt}), {@code degree} (default 3),
+	 * {@code tree} (the class name of the {@code BPlusTree}, default {@code BPlusTree}), {@code storage}
+	 * ({@code memory}, {@code page} or {@code pool}, default {@code memory}), {@code directory} (the directory for the
+	 * page files of the {@code page} and {@code pool} storages, default a temporary directory), {@code pool} (the
+	 * number of nodes in the {@code BufferPool} of the {@code pool} storage, default 1024) and {@code trace}
+	 * ({@code true} to print each command and invalid operation as {@link BPlusTreeVisualizer} does, default
+	 * {@code false}). If a command fails, the report covers the commands run before it and the exception is rethrown,
+	 * so that the exit status is non-zero.
+	 *
+	 * @param args
+	 *            the arguments of this main method
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws Exception {
+		String input = "input.txt", treeName = "BPlusTree", storage = "memory";
+		File directory = null, temporary = null;
+		int degree = 3, poolSize = 1024;
+		boolean trace = false;
+		for (String arg : args) {
+			String[] tokens = arg.split("=", 2);
+			switch (tokens[0]) {
+			case "input":
+				input = tokens[1];
+				break;
+			case "degree":
+				degree = Integer.parseInt(tokens[1]);
+				break;
+			case "tree":
+				treeName = tokens[1];
+				break;
+			case "storage":
+				storage = tokens[1];
+				break;
+			case "directory":
+				directory = new File(tokens[1]);
+				break;
+			case "pool":
+				poolSize = Integer.parseInt(tokens[1]);
+				break;
+			case "trace":
+				trace = Boolean.parseBoolean(tokens[1]);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option: " + arg);
+			}
+		}
+		PageFileStorageManager pages = null;
+		StorageManager<Integer, Object> sm;
+		if (storage.equals("memory"))
+			sm = new MemoryStorageManager();
+		else {
+			if (directory == null)
+				directory = temporary = Files.createTempDirectory("bptree").toFile();
+			pages = new PageFileStorageManager(directory, PageFileStorageManager.DEFAULT_PAGE_SIZE,
+					new NodeCodec<String, Integer>(Serializer.STRING, Serializer.INTEGER, true));
+			sm = storage.equals("pool") ? new BufferPool(pages, poolSize, BufferPool.EvictionPolicy.LRU) : pages;
+		}
+		Class<?> c = Class.forName(treeName.contains(".") ? treeName : "bptree." + treeName);
+		BPlusTreeRunner runner = new BPlusTreeRunner((BPlusTree<String, Integer>) c
+				.getConstructor(int.class, StorageManager.class, String.class).newInstance(degree, sm, "test.idx"),
+				trace ? System.out : null);
+		try (BufferedReader reader = new BufferedReader(
+				input.equals("-") ? new InputStreamReader(System.in) : new FileReader(input), 1 << 16)) {
+			runner.run(reader);
+		} finally {
+			runner.report(System.out);
+			if (sm instanceof BufferPool)
+				((BufferPool) sm).flush();
+			if (pages != null)
+				pages.close();
+			if (temporary != null) {
+				for (File file : temporary.listFiles())
+					file.delete();
+				temporary.delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package util;
+
+import java.util.ArrayList;
+
+import bptree.StorageManager;
+
+/**
+ * A {@code MemoryStorageManager} keeps objects in memory without copying them, so that the results of
+ * {@code BPlusTreeBenchmark} and {@code BPlusTreeRunner} on it reflect the {@code BPlusTree} rather than serialization.
+ * All files share the same objects.
+ */
+public class MemoryStorageManager implements StorageManager<Integer, Object> {
+
+	/**
+	 * The objects indexed by pointer.
+	 */
+	ArrayList<Object> objects = new ArrayList<Object>();
+
+	@Override
+	public int fileID(String fileName) {
+		return 0;
+	}
+
+	@Override
+	public Integer first() {
+		return 0;
+	}
+
+	@Override
+	public Object get(int fileID, Integer pointer) {
+		return pointer < objects.size() ? objects.get(pointer) : null;
+	}
+
+	@Override
+	public Object put(int fileID, Integer pointer, Object o) {
+		while (objects.size() <= pointer)
+			objects.add(null);
+		return objects.set(pointer, o);
+	}
+
+	@Override
+	public Integer add(int fileID, Object o) {
+		if (objects.isEmpty())
+			objects.add(null);
+		objects.add(o);
+		return objects.size() - 1;
+	}
+
+	@Override
+	public Object remove(int fileID, Integer pointer) {
+		return put(fileID, pointer, null);
+	}
+
+}
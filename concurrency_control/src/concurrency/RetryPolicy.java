@@ -0,0 +1,154 @@
+package concurrency;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@code RetryPolicy} determines whether and when an aborted {@code Transaction} is restarted. A restarted
+ * {@code Transaction} is registered again by its {@code ConcurrencyController} (e.g., obtaining a fresh timestamp, or
+ * keeping its age for lock-based deadlock prevention) and replays the {@code Command}s it has executed so far after an
+ * exponentially growing, randomized backoff. To prevent starvation, a {@code Transaction} that
+ * has been aborted a given number of times runs its next attempts with priority: it waits until the attempts of the
+ * other {@code Transaction}s sharing this {@code RetryPolicy} finish, and no new attempts start until it finishes, so
+ * that it no longer conflicts with younger {@code Transaction}s. Since idle {@code Transaction}s may keep their attempts
+ * open indefinitely, a {@code Transaction} gives up priority if it cannot obtain it within a time limit.
+ */
+public class RetryPolicy {
+
+	/**
+	 * The {@code RetryPolicy} that never restarts aborted {@code Transaction}s.
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0, 0);
+
+	/**
+	 * The maximum number of times a {@code Transaction} is restarted.
+	 */
+	int maxRetries;
+
+	/**
+	 * The backoff (in milliseconds) before the first restart.
+	 */
+	long initialBackoff;
+
+	/**
+	 * The maximum backoff (in milliseconds) before a restart.
+	 */
+	long maxBackoff;
+
+	/**
+	 * The number of aborts after which a {@code Transaction} runs with priority ({@code 0} for never).
+	 */
+	int starvationThreshold;
+
+	/**
+	 * The maximum time (in milliseconds) that a {@code Transaction} waits to obtain priority.
+	 */
+	long priorityTimeout;
+
+	/**
+	 * The gate held in shared mode by each ongoing attempt and in exclusive mode by an attempt with priority.
+	 */
+	StampedLock gate = new StampedLock();
+
+	/**
+	 * Constructs a {@code RetryPolicy}.
+	 *
+	 * @param maxRetries
+	 *            the maximum number of times a {@code Transaction} is restarted
+	 * @param initialBackoff
+	 *            the backoff (in milliseconds) before the first restart, which doubles with every further restart
+	 * @param maxBackoff
+	 *            the maximum backoff (in milliseconds) before a restart
+	 * @param starvationThreshold
+	 *            the number of aborts after which a {@code Transaction} runs with priority ({@code 0} for never)
+	 * @param priorityTimeout
+	 *            the maximum time (in milliseconds) that a {@code Transaction} waits to obtain priority
+	 */
+	public RetryPolicy(int maxRetries, long initialBackoff, long maxBackoff, int starvationThreshold,
+			long priorityTimeout) {
+		this.maxRetries = maxRetries;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.starvationThreshold = starvationThreshold;
+		this.priorityTimeout = priorityTimeout;
+	}
+
+	/**
+	 * Determines whether or not a {@code Transaction} that has been aborted the specified number of times is restarted.
+	 *
+	 * @param aborts
+	 *            the number of times the {@code Transaction} has been aborted
+	 * @return {@code true} if the {@code Transaction} is restarted; {@code false} otherwise
+	 */
+	public boolean retries(int aborts) {
+		return aborts <= maxRetries;
+	}
+
+	/**
+	 * Returns the backoff before restarting a {@code Transaction} that has been aborted the specified number of times.
+	 * The backoff is chosen uniformly at random between half and all of {@code initialBackoff * 2^(aborts - 1)}
+	 * (capped at {@code maxBackoff}) so that {@code Transaction}s aborted together do not restart together.
+	 *
+	 * @param aborts
+	 *            the number of times the {@code Transaction} has been aborted
+	 * @return the backoff in milliseconds
+	 */
+	public long backoff(int aborts) {
+		long backoff = initialBackoff << Math.min(aborts - 1, 30);
+		if (backoff <= 0 || backoff > maxBackoff)
+			backoff = maxBackoff;
+		return backoff <= 1 ? backoff : ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+	}
+
+	/**
+	 * Admits an attempt of a {@code Transaction} that has been aborted the specified number of times.
+	 *
+	 * @param aborts
+	 *            the number of times the {@code Transaction} has been aborted
+	 * @return a stamp to be passed to {@link #release(long)} when the attempt finishes ({@code 0} if the attempt has
+	 *         been admitted without the gate because this {@code RetryPolicy} never restarts {@code Transaction}s or
+	 *         the calling thread has been interrupted)
+	 */
+	long admit(int aborts) {
+		if (maxRetries == 0)
+			return 0;
+		boolean priority = starvationThreshold > 0 && aborts >= starvationThreshold;
+		long[] stamp = new long[1];
+		try { // let a ForkJoinPool compensate so that the attempt holding the gate can still run its commands
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+				@Override
+				public boolean block() throws InterruptedException {
+					if (priority)
+						stamp[0] = gate.tryWriteLock(priorityTimeout, TimeUnit.MILLISECONDS);
+					if (stamp[0] == 0)
+						stamp[0] = gate.readLockInterruptibly();
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return stamp[0] != 0 || (stamp[0] = priority ? gate.tryWriteLock() : gate.tryReadLock()) != 0;
+				}
+
+			});
+		} catch (InterruptedException e) { // admitted without the gate
+			Thread.currentThread().interrupt();
+		}
+		return stamp[0];
+	}
+
+	/**
+	 * Marks the end of an attempt admitted by {@link #admit(int)}.
+	 *
+	 * @param stamp
+	 *            the stamp returned by {@link #admit(int)}
+	 */
+	void release(long stamp) {
+		if (stamp != 0)
+			gate.unlock(stamp);
+	}
+
+}
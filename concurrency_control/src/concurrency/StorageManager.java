@@ -1,12 +1,23 @@
 package concurrency;
 
 import java.io.PrintStream;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.ObjIntConsumer;
+import java.util.concurrent.locks.StampedLock;
 
 /**
- * A {@code StorageManager} manages a collection of data items.
- * 
+ * A {@code StorageManager} manages a collection of data items. Data items are kept in open-addressing hash tables
+ * indexed directly by {@code int} data IDs (no boxed keys or entry objects), which are partitioned into segments so that
+ * {@code Transaction}s accessing different segments never contend. Reads are lock-free unless they overlap a write to
+ * the same segment. The IDs of the stored data items are also kept in an ordered index of sorted {@code int} blocks so
+ * that data items can be enumerated in ID order (e.g., for range reads); only insertions and removals update this
+ * index. Tracing of accesses is optional and can be performed synchronously (in the order of the accesses) or
+ * asynchronously by a background thread so that the accessing threads do not format or print anything.
+ *
  * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
  *
  * @param <V>
@@ -15,41 +26,531 @@ import java.util.Map;
 public class StorageManager<V> {
 
 	/**
-	 * A map that associates each data ID with a value.
+	 * A {@code Segment} is an open-addressing hash table with linear probing that stores part of the data items.
+	 */
+	static class Segment {
+
+		/**
+		 * The lock protecting this {@code Segment}.
+		 */
+		final StampedLock lock = new StampedLock();
+
+		/**
+		 * The data IDs stored in this {@code Segment}.
+		 */
+		int[] keys = new int[INITIAL_SEGMENT_CAPACITY];
+
+		/**
+		 * The values stored in this {@code Segment} ({@code null} for empty slots and {@link StorageManager#NULL} for
+		 * {@code null} values).
+		 */
+		Object[] values = new Object[INITIAL_SEGMENT_CAPACITY];
+
+		/**
+		 * The number of data items stored in this {@code Segment}.
+		 */
+		int size = 0;
+
+		/**
+		 * Returns the value stored for the specified data ID. This method may be called without holding the lock, in
+		 * which case the result must be validated.
+		 *
+		 * @param dID
+		 *            the ID of the data item
+		 * @param hash
+		 *            the hash of the data ID
+		 * @return the value stored for the data ID ({@code null} if none)
+		 */
+		Object get(int dID, int hash) {
+			int[] keys = this.keys;
+			Object[] values = this.values;
+			if (keys.length != values.length) // a concurrent resize has been observed halfway
+				return null;
+			int mask = keys.length - 1;
+			for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				Object value = values[i];
+				if (value == null)
+					return null;
+				if (keys[i] == dID)
+					return value;
+			}
+			return null;
+		}
+
+		/**
+		 * Stores the specified value for the specified data ID. The caller must hold the write lock.
+		 *
+		 * @param dID
+		 *            the ID of the data item
+		 * @param hash
+		 *            the hash of the data ID
+		 * @param value
+		 *            the value to store (not {@code null})
+		 * @return the previous value stored for the data ID ({@code null} if none)
+		 */
+		Object put(int dID, int hash, Object value) {
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			for (; values[i] != null; i = (i + 1) & mask)
+				if (keys[i] == dID) {
+					Object oValue = values[i];
+					values[i] = value;
+					return oValue;
+				}
+			keys[i] = dID;
+			values[i] = value;
+			if (++size > keys.length / 4 * 3)
+				resize();
+			return null;
+		}
+
+		/**
+		 * Removes the value stored for the specified data ID. The caller must hold the write lock.
+		 *
+		 * @param dID
+		 *            the ID of the data item
+		 * @param hash
+		 *            the hash of the data ID
+		 * @return the removed value ({@code null} if none)
+		 */
+		Object remove(int dID, int hash) {
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			for (; values[i] != null; i = (i + 1) & mask)
+				if (keys[i] == dID) {
+					Object oValue = values[i];
+					// shift back the following entries of the cluster so that no tombstones are needed
+					for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+						int home = hash(keys[j]) & mask;
+						if (((j - home) & mask) >= ((j - i) & mask)) {
+							keys[i] = keys[j];
+							values[i] = values[j];
+							i = j;
+						}
+					}
+					values[i] = null;
+					size--;
+					return oValue;
+				}
+			return null;
+		}
+
+		/**
+		 * Doubles the capacity of this {@code Segment}. The caller must hold the write lock. New arrays are built
+		 * before being published so that concurrent optimistic readers only see complete tables.
+		 */
+		void resize() {
+			int[] oKeys = keys;
+			Object[] oValues = values;
+			int[] nKeys = new int[oKeys.length * 2];
+			Object[] nValues = new Object[oKeys.length * 2];
+			int mask = nKeys.length - 1;
+			for (int j = 0; j < oKeys.length; j++)
+				if (oValues[j] != null) {
+					int i = hash(oKeys[j]) & mask;
+					while (nValues[i] != null)
+						i = (i + 1) & mask;
+					nKeys[i] = oKeys[j];
+					nValues[i] = oValues[j];
+				}
+			keys = nKeys;
+			values = nValues;
+		}
+
+	}
+
+	/**
+	 * An {@code IDIndex} keeps data IDs in ascending order in blocks of sorted {@code int}s (no boxed keys or node
+	 * objects per ID). A directory of the blocks is searched by the first ID of each block, so that a lookup takes two
+	 * binary searches and an insertion or removal shifts at most one block.
 	 */
-	HashMap<Integer, V> dID2value = new HashMap<Integer, V>();
+	static class IDIndex {
+
+		/**
+		 * The maximum number of IDs in each block.
+		 */
+		static final int BLOCK_CAPACITY = 256;
+
+		/**
+		 * The lock protecting this {@code IDIndex}.
+		 */
+		final StampedLock lock = new StampedLock();
+
+		/**
+		 * The blocks of IDs in ascending order (only the first block can be empty).
+		 */
+		int[][] blocks = { new int[BLOCK_CAPACITY] };
+
+		/**
+		 * The number of IDs in each block.
+		 */
+		int[] counts = new int[1];
+
+		/**
+		 * The number of blocks in use.
+		 */
+		int blockCount = 1;
+
+		/**
+		 * Adds the specified ID.
+		 *
+		 * @param dID
+		 *            an ID
+		 */
+		void add(int dID) {
+			long stamp = lock.writeLock();
+			try {
+				int b = block(dID);
+				int i = Arrays.binarySearch(blocks[b], 0, counts[b], dID);
+				if (i >= 0)
+					return;
+				i = -i - 1;
+				if (counts[b] == BLOCK_CAPACITY) { // move the upper half of the block to a new block
+					int half = BLOCK_CAPACITY / 2;
+					int[] block = new int[BLOCK_CAPACITY];
+					System.arraycopy(blocks[b], half, block, 0, BLOCK_CAPACITY - half);
+					counts[b] = half;
+					insertBlock(b + 1, block, BLOCK_CAPACITY - half);
+					if (i > half) {
+						b++;
+						i -= half;
+					}
+				}
+				int[] block = blocks[b];
+				System.arraycopy(block, i, block, i + 1, counts[b] - i);
+				block[i] = dID;
+				counts[b]++;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Removes the specified ID.
+		 *
+		 * @param dID
+		 *            an ID
+		 */
+		void remove(int dID) {
+			long stamp = lock.writeLock();
+			try {
+				int b = block(dID);
+				int i = Arrays.binarySearch(blocks[b], 0, counts[b], dID);
+				if (i < 0)
+					return;
+				int[] block = blocks[b];
+				System.arraycopy(block, i + 1, block, i, --counts[b] - i);
+				if (counts[b] == 0 && blockCount > 1) {
+					System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+					System.arraycopy(counts, b + 1, counts, b, blockCount - b - 1);
+					blocks[--blockCount] = null;
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Returns the smallest ID greater than (or, if {@code inclusive}, equal to) the specified ID.
+		 *
+		 * @param dID
+		 *            an ID
+		 * @param inclusive
+		 *            a flag indicating whether the specified ID itself is returned if it is contained
+		 * @return the smallest ID greater than (or, if {@code inclusive}, equal to) the specified ID; {@code -1} if there
+		 *         is no such ID
+		 */
+		long next(int dID, boolean inclusive) {
+			if (!inclusive) {
+				if (dID == Integer.MAX_VALUE)
+					return -1;
+				dID++;
+			}
+			long stamp = lock.readLock();
+			try {
+				int b = block(dID);
+				int i = Arrays.binarySearch(blocks[b], 0, counts[b], dID);
+				if (i < 0)
+					i = -i - 1;
+				if (i < counts[b])
+					return blocks[b][i];
+				return b + 1 < blockCount ? blocks[b + 1][0] : -1;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Returns the IDs that are at least {@code fromID} and less than {@code toID}.
+		 *
+		 * @param fromID
+		 *            the smallest ID in the range (inclusive)
+		 * @param toID
+		 *            the end of the range (exclusive)
+		 * @return the IDs in the range in ascending order
+		 */
+		int[] range(int fromID, int toID) {
+			if (fromID >= toID)
+				return new int[0];
+			long stamp = lock.readLock();
+			try {
+				int b = block(fromID);
+				int i = Arrays.binarySearch(blocks[b], 0, counts[b], fromID);
+				if (i < 0)
+					i = -i - 1;
+				int[] dIDs = new int[16];
+				int size = 0;
+				for (; b < blockCount; b++, i = 0)
+					for (; i < counts[b]; i++) {
+						if (blocks[b][i] >= toID)
+							return Arrays.copyOf(dIDs, size);
+						if (size == dIDs.length)
+							dIDs = Arrays.copyOf(dIDs, size * 2);
+						dIDs[size++] = blocks[b][i];
+					}
+				return Arrays.copyOf(dIDs, size);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Returns the index of the block where the specified ID belongs, i.e., the last block whose first ID is not
+		 * greater than the ID (or the first block).
+		 *
+		 * @param dID
+		 *            an ID
+		 * @return the index of the block where the ID belongs
+		 */
+		int block(int dID) {
+			int low = 1, high = blockCount - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (blocks[mid][0] <= dID)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return low - 1;
+		}
+
+		/**
+		 * Inserts the specified block into the directory at the specified position.
+		 *
+		 * @param b
+		 *            the position of the new block
+		 * @param block
+		 *            the new block
+		 * @param count
+		 *            the number of IDs in the new block
+		 */
+		void insertBlock(int b, int[] block, int count) {
+			if (blockCount == blocks.length) {
+				blocks = Arrays.copyOf(blocks, blockCount * 2);
+				counts = Arrays.copyOf(counts, blockCount * 2);
+			}
+			System.arraycopy(blocks, b, blocks, b + 1, blockCount - b);
+			System.arraycopy(counts, b, counts, b + 1, blockCount - b);
+			blocks[b] = block;
+			counts[b] = count;
+			blockCount++;
+		}
+
+	}
 
 	/**
-	 * A {@code PrintStream}.
+	 * A {@code TraceEvent} describes an access to be traced asynchronously.
+	 */
+	static class TraceEvent {
+
+		/**
+		 * The ID of the data item.
+		 */
+		int dID;
+
+		/**
+		 * The value read or the previous value of the data item.
+		 */
+		Object oValue;
+
+		/**
+		 * The new value of the data item ({@link StorageManager#READ} for a read and {@link StorageManager#REMOVED}
+		 * for a removal).
+		 */
+		Object nValue;
+
+		/**
+		 * The {@code CountDownLatch} to count down when this {@code TraceEvent} is reached (only for flush requests).
+		 */
+		CountDownLatch flushed;
+
+		/**
+		 * Constructs a {@code TraceEvent}.
+		 *
+		 * @param dID
+		 *            the ID of the data item
+		 * @param oValue
+		 *            the value read or the previous value of the data item
+		 * @param nValue
+		 *            the new value of the data item
+		 * @param flushed
+		 *            the {@code CountDownLatch} to count down when the {@code TraceEvent} is reached
+		 */
+		TraceEvent(int dID, Object oValue, Object nValue, CountDownLatch flushed) {
+			this.dID = dID;
+			this.oValue = oValue;
+			this.nValue = nValue;
+			this.flushed = flushed;
+		}
+
+	}
+
+	/**
+	 * The initial capacity of each {@code Segment}.
+	 */
+	static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+	/**
+	 * The capacity of the queue of {@code TraceEvent}s used for asynchronous tracing.
+	 */
+	static final int TRACE_QUEUE_CAPACITY = 1 << 16;
+
+	/**
+	 * The object stored in place of {@code null} values.
+	 */
+	static final Object NULL = new Object();
+
+	/**
+	 * The marker indicating that a {@code TraceEvent} describes a read.
+	 */
+	static final Object READ = new Object();
+
+	/**
+	 * The marker indicating that a {@code TraceEvent} describes a removal.
+	 */
+	static final Object REMOVED = new Object();
+
+	/**
+	 * The {@code Segment}s of this {@code StorageManager}.
+	 */
+	Segment[] segments;
+
+	/**
+	 * The number of bits by which hashes are shifted to obtain {@code Segment} indices.
+	 */
+	int segmentShift;
+
+	/**
+	 * The IDs of the stored data items in ascending order. Each ID is added and removed while the lock of its
+	 * {@code Segment} is held, so that this index agrees with the {@code Segment}s whenever no write is in progress.
+	 */
+	IDIndex dIDs = new IDIndex();
+
+	/**
+	 * A {@code PrintStream} ({@code null} if tracing is disabled).
 	 */
 	PrintStream out;
 
 	/**
-	 * Constructs a {@code StorageManager}.
-	 * 
+	 * The queue of {@code TraceEvent}s to print ({@code null} unless tracing is asynchronous).
+	 */
+	ArrayBlockingQueue<TraceEvent> traceEvents;
+
+	/**
+	 * Constructs a {@code StorageManager} that does not trace accesses.
+	 */
+	public StorageManager() {
+		this(null, false);
+	}
+
+	/**
+	 * Constructs a {@code StorageManager} that prints each access to the specified {@code PrintStream} as it happens.
+	 *
 	 * @param out
 	 *            a {@code PrintStream}
 	 */
 	public StorageManager(PrintStream out) {
+		this(out, false);
+	}
+
+	/**
+	 * Constructs a {@code StorageManager}.
+	 *
+	 * @param out
+	 *            the {@code PrintStream} to which accesses are traced ({@code null} to disable tracing)
+	 * @param asynchronous
+	 *            a flag indicating whether accesses are traced by a background thread
+	 */
+	public StorageManager(PrintStream out, boolean asynchronous) {
 		this.out = out;
+		// the smallest power of two that is at least 16 and at least four times the number of processors
+		int concurrency = Integer.highestOneBit((Math.max(16, Runtime.getRuntime().availableProcessors() * 4) - 1) << 1);
+		segments = new Segment[concurrency];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = new Segment();
+		segmentShift = 32 - Integer.numberOfTrailingZeros(concurrency);
+		if (out != null && asynchronous) {
+			traceEvents = new ArrayBlockingQueue<TraceEvent>(TRACE_QUEUE_CAPACITY);
+			Thread tracer = new Thread(this::printTraceEvents, "storage-tracer");
+			tracer.setDaemon(true);
+			tracer.start();
+		}
 	}
 
 	/**
 	 * Returns the value of the specified data item.
-	 * 
+	 *
 	 * @param dID
 	 *            the ID of the data item
 	 * @return the value of the data item
 	 */
 	public V read(int dID) {
-		V value = dID2value.get(dID);
-		out.println("  % d" + dID + ": " + value);
-		return value;
+		V v = peek(dID);
+		if (out != null)
+			trace(dID, v, READ);
+		return v;
+	}
+
+	/**
+	 * Returns the value of the specified data item without tracing the read.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @return the value of the data item
+	 */
+	public V peek(int dID) {
+		int hash = hash(dID);
+		Segment segment = segment(hash);
+		long stamp = segment.lock.tryOptimisticRead();
+		Object value = segment.get(dID, hash);
+		if (!segment.lock.validate(stamp)) {
+			stamp = segment.lock.readLock();
+			try {
+				value = segment.get(dID, hash);
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		return unmask(value);
+	}
+
+	/**
+	 * Traces a read of the specified data item whose value has been obtained elsewhere (e.g., from an older version
+	 * kept by a concurrency controller), so that such reads appear in the trace like those served by {@link #read(int)}.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @param value
+	 *            the value read
+	 */
+	public void traceRead(int dID, V value) {
+		if (out != null)
+			trace(dID, value, READ);
 	}
 
 	/**
 	 * Stores the specified data item.
-	 * 
+	 *
 	 * @param dID
 	 *            the ID of the data item
 	 * @param dValue
@@ -57,31 +558,249 @@ public class StorageManager<V> {
 	 * @return the previous value of the data item
 	 */
 	public V write(int dID, V dValue) {
-		V oValue = dID2value.put(dID, dValue);
-		out.println("  % d" + dID + ": " + oValue + " -> " + dValue);
-		return oValue;
+		int hash = hash(dID);
+		Segment segment = segment(hash);
+		Object oValue;
+		long stamp = segment.lock.writeLock();
+		try {
+			oValue = segment.put(dID, hash, dValue == null ? NULL : dValue);
+			if (oValue == null) // an insertion
+				dIDs.add(dID);
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+		V v = unmask(oValue);
+		if (out != null)
+			trace(dID, v, dValue);
+		return v;
 	}
 
 	/**
-	 * Prints the data items managed by this {@code StorageManager}
-	 * 
+	 * Prints the data items managed by this {@code StorageManager} in the order of their IDs.
+	 *
 	 * @param out
 	 *            a {@code PrintStream}
 	 */
 	public void print(PrintStream out) {
+		TreeMap<Integer, V> dID2value = new TreeMap<Integer, V>();
+		for (Segment segment : segments) {
+			long stamp = segment.lock.readLock();
+			try {
+				for (int i = 0; i < segment.keys.length; i++)
+					if (segment.values[i] != null)
+						dID2value.put(segment.keys[i], unmask(segment.values[i]));
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
 		for (Map.Entry<Integer, V> entry : dID2value.entrySet())
 			out.println("d" + entry.getKey() + ": " + entry.getValue());
 	}
 
+	/**
+	 * Performs the specified action for each data item without tracing. Each {@code Segment} is visited under its read
+	 * lock, so the data items seen are not necessarily a consistent snapshot if writes happen concurrently.
+	 *
+	 * @param action
+	 *            the action to perform for each value and data ID
+	 */
+	public void forEach(ObjIntConsumer<V> action) {
+		for (Segment segment : segments) {
+			long stamp = segment.lock.readLock();
+			try {
+				for (int i = 0; i < segment.keys.length; i++)
+					if (segment.values[i] != null)
+						action.accept(unmask(segment.values[i]), segment.keys[i]);
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Determines whether the specified data item is stored.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @return {@code true} if the data item is stored; {@code false} otherwise
+	 */
+	public boolean contains(int dID) {
+		int hash = hash(dID);
+		Segment segment = segment(hash);
+		long stamp = segment.lock.tryOptimisticRead();
+		boolean contained = segment.get(dID, hash) != null;
+		if (!segment.lock.validate(stamp)) {
+			stamp = segment.lock.readLock();
+			try {
+				contained = segment.get(dID, hash) != null;
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		return contained;
+	}
+
+	/**
+	 * Returns the IDs of the stored data items that are at least {@code fromID} and less than {@code toID}.
+	 *
+	 * @param fromID
+	 *            the smallest ID in the range (inclusive)
+	 * @param toID
+	 *            the end of the range (exclusive)
+	 * @return the IDs of the stored data items in the range in ascending order
+	 */
+	public int[] dIDs(int fromID, int toID) {
+		return dIDs.range(fromID, toID);
+	}
+
+	/**
+	 * Returns the ID of the stored data item that follows the specified ID.
+	 *
+	 * @param dID
+	 *            an ID
+	 * @param inclusive
+	 *            a flag indicating whether the specified ID itself is returned if it is stored
+	 * @return the smallest stored ID greater than (or, if {@code inclusive}, equal to) the specified ID; {@code -1} if
+	 *         there is no such ID
+	 */
+	public long nextDID(int dID, boolean inclusive) {
+		return dIDs.next(dID, inclusive);
+	}
+
 	/**
 	 * Removes the specified data item.
-	 * 
+	 *
 	 * @param dID
 	 *            the ID of the data item
 	 */
 	public void remove(int dID) {
-		V oValue = dID2value.get(dID);
-		out.println("  % d" + dID + ": " + oValue + " -> removed");
-		dID2value.remove(dID);
+		int hash = hash(dID);
+		Segment segment = segment(hash);
+		Object oValue;
+		long stamp = segment.lock.writeLock();
+		try {
+			oValue = segment.remove(dID, hash);
+			if (oValue != null)
+				dIDs.remove(dID);
+		} finally {
+			segment.lock.unlockWrite(stamp);
+		}
+		if (out != null)
+			trace(dID, unmask(oValue), REMOVED);
+	}
+
+	/**
+	 * Waits until all the accesses made so far have been traced.
+	 *
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 */
+	public void flush() throws InterruptedException {
+		if (traceEvents == null)
+			return;
+		CountDownLatch flushed = new CountDownLatch(1);
+		traceEvents.put(new TraceEvent(0, null, null, flushed));
+		flushed.await();
+	}
+
+	/**
+	 * Traces an access to the specified data item, either by printing it right away or by handing it over to the
+	 * background thread.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @param oValue
+	 *            the value read or the previous value of the data item
+	 * @param nValue
+	 *            the new value of the data item ({@link #READ} for a read and {@link #REMOVED} for a removal)
+	 */
+	void trace(int dID, Object oValue, Object nValue) {
+		if (traceEvents == null) {
+			out.println(format(dID, oValue, nValue));
+			return;
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				traceEvents.put(new TraceEvent(dID, oValue, nValue, null));
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
 	}
+
+	/**
+	 * Prints the queued {@code TraceEvent}s (run by the background thread).
+	 */
+	void printTraceEvents() {
+		try {
+			while (true) {
+				TraceEvent event = traceEvents.take();
+				if (event.flushed != null)
+					event.flushed.countDown();
+				else
+					out.println(format(event.dID, event.oValue, event.nValue));
+			}
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Returns a description of an access to the specified data item.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @param oValue
+	 *            the value read or the previous value of the data item
+	 * @param nValue
+	 *            the new value of the data item ({@link #READ} for a read and {@link #REMOVED} for a removal)
+	 * @return a description of the access
+	 */
+	static String format(int dID, Object oValue, Object nValue) {
+		if (nValue == READ)
+			return "  % d" + dID + ": " + oValue;
+		else if (nValue == REMOVED)
+			return "  % d" + dID + ": " + oValue + " -> removed";
+		else
+			return "  % d" + dID + ": " + oValue + " -> " + nValue;
+	}
+
+	/**
+	 * Returns the {@code Segment} for the specified hash.
+	 *
+	 * @param hash
+	 *            the hash of a data ID
+	 * @return the {@code Segment} for the hash
+	 */
+	Segment segment(int hash) {
+		return segments[hash >>> segmentShift];
+	}
+
+	/**
+	 * Returns the value represented by the specified stored object.
+	 *
+	 * @param value
+	 *            a stored object
+	 * @return the value represented by the stored object
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> V unmask(Object value) {
+		return value == NULL ? null : (V) value;
+	}
+
+	/**
+	 * Returns the hash of the specified data ID. Consecutive data IDs are spread over all {@code Segment}s and slots.
+	 *
+	 * @param dID
+	 *            the ID of a data item
+	 * @return the hash of the data ID
+	 */
+	static int hash(int dID) {
+		int h = dID * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
 }
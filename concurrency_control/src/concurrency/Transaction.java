@@ -1,6 +1,18 @@
 package concurrency;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import concurrency.command.Command;
 import concurrency.command.CommitCommand;
@@ -8,16 +20,27 @@ import concurrency.command.ReadCommand;
 import concurrency.command.WriteCommand;
 import concurrency.control.ConcurrencyController;
 import concurrency.control.ConcurrencyController.AbortException;
+import concurrency.control.ConcurrencyController.UndoLog;
+import concurrency.control.Metrics;
+import concurrency.control.Metrics.Operation;
 
 /**
- * A {@code Transaction} represents a transaction.
+ * A {@code Transaction} represents a transaction. A {@code Transaction} does not own a thread. {@code Command}s given
+ * to a {@code Transaction} are placed in a bounded queue and executed one after another by a task that is submitted to
+ * an {@code Executor} only while the queue is not empty. Idle {@code Transaction}s therefore consume no threads, and
+ * {@code Command}s are handed over without sleeping or blocking the caller. A client may also submit a whole batch of
+ * {@code Command}s (e.g., a stored procedure) at once and obtain their results as {@code CompletableFuture}s; the
+ * {@code Command}s in a batch are executed back-to-back by a single task. With a {@code RetryPolicy}, an aborted
+ * {@code Transaction} is restarted automatically: it is restarted through its {@code ConcurrencyController} and
+ * replays the {@code Command}s of the aborted attempt, and the results of its {@code Command}s are delivered when it
+ * commits (or fails for good).
  * 
  * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
  *
  * @param <V>
  *            the type of data items
  */
-public class Transaction<V> extends Thread {
+public class Transaction<V> implements Runnable {
 
 	/**
 	 * An {@code TransactionUnreadyException} is thrown if a {@code Transaction} is not ready to take the next
@@ -34,6 +57,100 @@ public class Transaction<V> extends Thread {
 
 	}
 
+	/**
+	 * A {@code Batch} represents {@code Command}s submitted together and the {@code CompletableFuture}s for their
+	 * results.
+	 *
+	 * @param <V>
+	 *            the type of data items
+	 */
+	static class Batch<V> {
+
+		/**
+		 * The {@code Command}s in this {@code Batch}.
+		 */
+		Command[] commands;
+
+		/**
+		 * The {@code CompletableFuture}s for the results of the {@code Command}s in this {@code Batch}.
+		 */
+		List<CompletableFuture<V>> results;
+
+		/**
+		 * Constructs a {@code Batch}.
+		 * 
+		 * @param commands
+		 *            the {@code Command}s in the {@code Batch}
+		 */
+		Batch(Command[] commands) {
+			this.commands = commands;
+			this.results = new ArrayList<CompletableFuture<V>>(commands.length);
+			for (int i = 0; i < commands.length; i++)
+				results.add(new CompletableFuture<V>());
+		}
+
+	}
+
+	/**
+	 * A {@code Step} is a {@code Command} executed in the current attempt of a {@code Transaction} that may be restarted.
+	 *
+	 * @param <V>
+	 *            the type of data items
+	 */
+	static class Step<V> {
+
+		/**
+		 * The {@code Command}.
+		 */
+		Command command;
+
+		/**
+		 * The {@code CompletableFuture} for the result of the {@code Command}.
+		 */
+		CompletableFuture<V> result;
+
+		/**
+		 * The result of the {@code Command} in the current attempt.
+		 */
+		V value;
+
+		/**
+		 * Constructs a {@code Step}.
+		 * 
+		 * @param command
+		 *            the {@code Command}
+		 * @param result
+		 *            the {@code CompletableFuture} for the result of the {@code Command}
+		 */
+		Step(Command command, CompletableFuture<V> result) {
+			this.command = command;
+			this.result = result;
+		}
+
+	}
+
+	/**
+	 * The default capacity of the queue of {@code Command} batches of each {@code Transaction}.
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+	/**
+	 * The {@code Executor} used by {@code Transaction}s that are not given one: a work-stealing pool of daemon threads
+	 * (one per processor) that runs submitted tasks in FIFO order. {@code Transaction}s blocked waiting for locks let
+	 * the pool add compensating threads (see {@code LockManager}).
+	 */
+	static final ExecutorService defaultExecutor = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+			ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+	/**
+	 * The {@code ScheduledExecutorService} that resubmits restarted {@code Transaction}s after their backoff.
+	 */
+	static final ScheduledExecutorService retryScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread thread = new Thread(r, "transaction-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	/**
 	 * The ID of this {@code Transaction}.
 	 */
@@ -44,23 +161,99 @@ public class Transaction<V> extends Thread {
 	 */
 	ConcurrencyController<V> controller;
 
+	/**
+	 * The {@code UndoLog} of this {@code Transaction} (only accessed by the task executing its {@code Command}s).
+	 */
+	UndoLog<V> undoLog = new UndoLog<V>();
+
+	/**
+	 * The {@code Metrics} in which the latencies of the {@code Command}s are recorded.
+	 */
+	Metrics metrics;
+
 	/**
 	 * A {@code PrintStream}.
 	 */
 	PrintStream out;
 
 	/**
-	 * A flag indicating that this {@code Transaction} is ready for the next command.
+	 * The {@code Executor} that runs the {@code Command}s of this {@code Transaction}.
 	 */
-	boolean readyForNextCommand = false;
+	Executor executor;
 
 	/**
-	 * The next {@code Command} to execute.
+	 * The {@code Batch}es of {@code Command}s that have been given to this {@code Transaction} but not executed yet.
 	 */
-	Command nextCommand;
+	ArrayBlockingQueue<Batch<V>> commands;
 
 	/**
-	 * Constructs a {@code Transaction}.
+	 * A flag indicating that a task executing the {@code Command}s of this {@code Transaction} has been submitted.
+	 */
+	AtomicBoolean scheduled = new AtomicBoolean();
+
+	/**
+	 * A flag indicating that this {@code Transaction} has been terminated or aborted and takes no more commands.
+	 */
+	volatile boolean finished = false;
+
+	/**
+	 * The number of {@code Batch}es given to this {@code Transaction}.
+	 */
+	AtomicLong submitted = new AtomicLong();
+
+	/**
+	 * The number of {@code Batch}es that this {@code Transaction} has executed or discarded.
+	 */
+	AtomicLong completed = new AtomicLong();
+
+	/**
+	 * The number of threads waiting in {@link #awaitCompletion(long)}.
+	 */
+	volatile int waiters = 0;
+
+	/**
+	 * The {@code RetryPolicy} of this {@code Transaction}.
+	 */
+	RetryPolicy retryPolicy;
+
+	/**
+	 * The {@code Batch} being executed ({@code null} if none). Like the fields below, only accessed by the task
+	 * executing the {@code Command}s of this {@code Transaction}.
+	 */
+	Batch<V> current;
+
+	/**
+	 * The index of the next {@code Command} to execute in the current {@code Batch}.
+	 */
+	int next;
+
+	/**
+	 * The {@code Step}s of the current attempt (only used if this {@code Transaction} may be restarted).
+	 */
+	ArrayList<Step<V>> steps = new ArrayList<Step<V>>();
+
+	/**
+	 * The number of times this {@code Transaction} has been aborted since it last committed.
+	 */
+	int aborts = 0;
+
+	/**
+	 * A flag indicating whether the current attempt has been admitted by the {@code RetryPolicy}.
+	 */
+	boolean admitted = false;
+
+	/**
+	 * The stamp obtained when the current attempt was admitted by the {@code RetryPolicy}.
+	 */
+	long permit;
+
+	/**
+	 * A flag indicating that this {@code Transaction} has been restarted and must replay its {@code Step}s.
+	 */
+	boolean restarting = false;
+
+	/**
+	 * Constructs a {@code Transaction} that runs on the default {@code Executor}.
 	 * 
 	 * @param tID
 	 *            the ID of the {@code Transaction}
@@ -70,53 +263,228 @@ public class Transaction<V> extends Thread {
 	 *            a {@code PrintStream}
 	 */
 	public Transaction(int tID, ConcurrencyController<V> controller, PrintStream out) {
+		this(tID, controller, out, defaultExecutor, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Constructs a {@code Transaction} that is restarted according to the specified {@code RetryPolicy} if aborted.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param controller
+	 *            a {@code ConcurrencyController}
+	 * @param out
+	 *            a {@code PrintStream}
+	 * @param retryPolicy
+	 *            the {@code RetryPolicy} that determines whether and when the {@code Transaction} is restarted after
+	 *            being aborted
+	 */
+	public Transaction(int tID, ConcurrencyController<V> controller, PrintStream out, RetryPolicy retryPolicy) {
+		this(tID, controller, out, defaultExecutor, DEFAULT_QUEUE_CAPACITY, retryPolicy);
+	}
+
+	/**
+	 * Constructs a {@code Transaction}.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param controller
+	 *            a {@code ConcurrencyController}
+	 * @param out
+	 *            a {@code PrintStream}
+	 * @param executor
+	 *            the {@code Executor} that runs the {@code Command}s of the {@code Transaction}
+	 * @param queueCapacity
+	 *            the maximum number of {@code Command} batches that can wait to be executed
+	 */
+	public Transaction(int tID, ConcurrencyController<V> controller, PrintStream out, Executor executor,
+			int queueCapacity) {
+		this(tID, controller, out, executor, queueCapacity, RetryPolicy.NONE);
+	}
+
+	/**
+	 * Constructs a {@code Transaction}.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param controller
+	 *            a {@code ConcurrencyController}
+	 * @param out
+	 *            a {@code PrintStream}
+	 * @param executor
+	 *            the {@code Executor} that runs the {@code Command}s of the {@code Transaction}
+	 * @param queueCapacity
+	 *            the maximum number of {@code Command} batches that can wait to be executed
+	 * @param retryPolicy
+	 *            the {@code RetryPolicy} that determines whether and when the {@code Transaction} is restarted after
+	 *            being aborted
+	 */
+	public Transaction(int tID, ConcurrencyController<V> controller, PrintStream out, Executor executor,
+			int queueCapacity, RetryPolicy retryPolicy) {
 		this.tID = tID;
 		this.controller = controller;
+		this.metrics = controller.metrics();
 		this.out = out;
+		this.executor = executor;
+		this.commands = new ArrayBlockingQueue<Batch<V>>(queueCapacity);
+		this.retryPolicy = retryPolicy;
 		controller.register(tID);
 	}
 
 	/**
-	 * Runs a series of operations defined for this {@code Transaction}.
+	 * Executes the queued {@code Command}s of this {@code Transaction} until the queue becomes empty.
 	 */
-	@SuppressWarnings("unchecked")
 	public void run() {
-		try {
-			while (true) {
-				Command command = nextCommand();
-				if (command == null)
+		if (finished)
+			endAttempt(null);
+		else if (restarting) {
+			restarting = false;
+			for (int i = 0; i < steps.size(); i++)
+				if (!perform(steps.get(i)))
+					return; // restarted again
+		}
+		while (true) {
+			if (current == null) {
+				current = commands.poll();
+				next = 0;
+			}
+			if (current == null) {
+				scheduled.set(false);
+				// a command may have been queued after poll() but before scheduled was cleared
+				if (commands.isEmpty() || !scheduled.compareAndSet(false, true))
 					return;
-				else if (command instanceof ReadCommand)
-					controller.read(tID, ((ReadCommand) command).dID());
-				else if (command instanceof WriteCommand)
-					controller.write(tID, ((WriteCommand<V>) command).dID(), ((WriteCommand<V>) command).dValue());
-				else if (command instanceof CommitCommand)
-					controller.commit(tID);
+				continue;
 			}
+			while (next < current.commands.length) {
+				int i = next++;
+				if (!execute(current.commands[i], current.results.get(i)))
+					return; // restarted; run() is submitted again after the backoff
+			}
+			current = null;
+			completed();
+		}
+	}
+
+	/**
+	 * Executes the specified {@code Command} and completes the specified {@code CompletableFuture} with its result
+	 * (the value read for a {@code ReadCommand} and {@code null} for the other {@code Command}s). If the
+	 * {@code Command} fails, the {@code CompletableFuture} is completed with the exception; if this
+	 * {@code Transaction} has already finished, the {@code CompletableFuture} is cancelled. If this
+	 * {@code Transaction} may be restarted, the {@code CompletableFuture} is completed only when this
+	 * {@code Transaction} commits or fails for good.
+	 * 
+	 * @param command
+	 *            the {@code Command} to execute
+	 * @param result
+	 *            the {@code CompletableFuture} for the result of the {@code Command}
+	 * @return {@code false} if this {@code Transaction} has been aborted and will be restarted; {@code true}
+	 *         otherwise
+	 */
+	boolean execute(Command command, CompletableFuture<V> result) {
+		if (finished) {
+			result.cancel(false);
+			endAttempt(null);
+			return true;
+		}
+		Step<V> step = new Step<V>(command, result);
+		if (retryPolicy.retries(1))
+			steps.add(step);
+		return perform(step);
+	}
+
+	/**
+	 * Performs the specified {@code Step}. If this {@code Transaction} is aborted, it is rolled back and, if the
+	 * {@code RetryPolicy} allows, restarted through its {@code ConcurrencyController} and resubmitted after a backoff.
+	 * 
+	 * @param step
+	 *            a {@code Step}
+	 * @return {@code false} if this {@code Transaction} has been aborted and will be restarted; {@code true}
+	 *         otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	boolean perform(Step<V> step) {
+		Command command = step.command;
+		try {
+			if (!admitted && retryPolicy.retries(1)) {
+				permit = retryPolicy.admit(aborts);
+				admitted = true;
+			}
+			step.value = null;
+			long start = System.nanoTime();
+			if (command instanceof ReadCommand) {
+				step.value = controller.read(tID, ((ReadCommand) command).dID());
+				metrics.record(Operation.READ, System.nanoTime() - start);
+			} else if (command instanceof WriteCommand) {
+				controller.write(tID, ((WriteCommand<V>) command).dID(), ((WriteCommand<V>) command).dValue(),
+						undoLog);
+				metrics.record(Operation.WRITE, System.nanoTime() - start);
+			} else if (command instanceof CommitCommand) {
+				controller.commit(tID, undoLog);
+				metrics.record(Operation.COMMIT, System.nanoTime() - start);
+			}
+			if (steps.isEmpty())
+				step.result.complete(step.value);
+			else if (command instanceof CommitCommand) {
+				aborts = 0;
+				endAttempt(null);
+			}
+			return true;
 		} catch (Exception e) {
 			out.println("  % " + e.getClass().getSimpleName());
 			if (e instanceof AbortException) {
-				controller.rollback(tID);
+				boolean restart = retryPolicy.retries(++aborts);
+				long start = System.nanoTime();
+				if (restart)
+					controller.restart(tID, undoLog);
+				else
+					controller.rollback(tID, undoLog);
+				metrics.record(Operation.ROLLBACK, System.nanoTime() - start);
+				if (restart) {
+					releasePermit();
+					restarting = true;
+					long backoff = retryPolicy.backoff(aborts);
+					if (backoff > 0)
+						retryScheduler.schedule(() -> executor.execute(this), backoff, TimeUnit.MILLISECONDS);
+					else
+						executor.execute(this);
+					return false;
+				}
 			}
+			finished = true;
+			step.result.completeExceptionally(e);
+			endAttempt(e);
+			return true;
 		}
 	}
 
 	/**
-	 * Obtains the next {@code Command}.
+	 * Ends the current attempt by delivering the results of its {@code Step}s and letting other attempts be admitted by
+	 * the {@code RetryPolicy}.
 	 * 
-	 * @return the next {@code Command} to execute
+	 * @param failure
+	 *            the {@code Exception} that made this {@code Transaction} fail for good ({@code null} if it has
+	 *            committed or been terminated)
 	 */
-	Command nextCommand() {
-		synchronized (this) {
-			try {
-				readyForNextCommand = true;
-				wait();
-				readyForNextCommand = false;
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+	void endAttempt(Exception failure) {
+		for (Step<V> step : steps)
+			if (failure != null)
+				step.result.completeExceptionally(failure);
+			else if (finished)
+				step.result.cancel(false);
+			else
+				step.result.complete(step.value);
+		steps.clear();
+		releasePermit();
+	}
+
+	/**
+	 * Lets other attempts be admitted by the {@code RetryPolicy} if the current attempt has been admitted.
+	 */
+	void releasePermit() {
+		if (admitted) {
+			retryPolicy.release(permit);
+			admitted = false;
 		}
-		return nextCommand;
 	}
 
 	/**
@@ -125,27 +493,109 @@ public class Transaction<V> extends Thread {
 	 * @return {@code true} if this {@code Transaction} is ready for the next command; {@code false} otherwise
 	 */
 	public boolean readyForNextCommand() {
-		return readyForNextCommand;
+		return !finished && commands.remainingCapacity() > 0;
 	}
 
 	/**
-	 * Sets the next {@code Command} to execute.
+	 * Sets the next {@code Command} to execute. The {@code Command} is executed after all previously given
+	 * {@code Command}s. A {@code null} {@code Command} terminates this {@code Transaction}.
 	 * 
 	 * @param nextCommand
 	 *            the next {@code Command} to execute
 	 * @throws TransactionUnreadyException
-	 *             if a {@code Transaction} is not ready to take the next {@code Command}
+	 *             if this {@code Transaction} has finished or its queue of {@code Command}s is full
 	 */
 	public void setNextCommand(Command nextCommand) throws TransactionUnreadyException {
-		synchronized (this) {
-			if (!readyForNextCommand) {
-				this.nextCommand = null;
-				notify();
-				throw new TransactionUnreadyException();
+		if (nextCommand == null) {
+			terminate();
+			return;
+		}
+		submit(nextCommand);
+	}
+
+	/**
+	 * Submits the specified {@code Command}s to be executed back-to-back, after all previously given {@code Command}s,
+	 * without returning control to the caller in between.
+	 * 
+	 * @param commands
+	 *            the {@code Command}s to execute
+	 * @return the {@code CompletableFuture}s for the results of the {@code Command}s (the value read for each
+	 *         {@code ReadCommand} and {@code null} for the other {@code Command}s)
+	 * @throws TransactionUnreadyException
+	 *             if this {@code Transaction} has finished or its queue of {@code Command}s is full
+	 */
+	public List<CompletableFuture<V>> submit(Command... commands) throws TransactionUnreadyException {
+		Batch<V> batch = new Batch<V>(commands);
+		if (finished || !this.commands.offer(batch))
+			throw new TransactionUnreadyException();
+		submitted.incrementAndGet();
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(this);
+		return batch.results;
+	}
+
+	/**
+	 * Submits the specified {@code Command}s to be executed back-to-back, after all previously given {@code Command}s,
+	 * without returning control to the caller in between.
+	 * 
+	 * @param commands
+	 *            the {@code Command}s to execute
+	 * @return the {@code CompletableFuture}s for the results of the {@code Command}s (the value read for each
+	 *         {@code ReadCommand} and {@code null} for the other {@code Command}s)
+	 * @throws TransactionUnreadyException
+	 *             if this {@code Transaction} has finished or its queue of {@code Command}s is full
+	 */
+	public List<CompletableFuture<V>> submit(List<? extends Command> commands) throws TransactionUnreadyException {
+		return submit(commands.toArray(new Command[commands.size()]));
+	}
+
+	/**
+	 * Terminates this {@code Transaction} so that it discards all the {@code Command}s that have not been executed yet.
+	 */
+	public void terminate() {
+		finished = true;
+		if (retryPolicy.retries(1) && scheduled.compareAndSet(false, true)) // let run() end the current attempt
+			executor.execute(this);
+	}
+
+	/**
+	 * Waits until this {@code Transaction} has executed all the {@code Command}s given so far or the specified time
+	 * has elapsed (e.g., because a {@code Command} is blocked).
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds
+	 * @return {@code true} if all the {@code Command}s given so far have been executed; {@code false} otherwise
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 */
+	public boolean awaitCompletion(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (commands) {
+			waiters++;
+			try {
+				while (completed.get() < submitted.get()) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						return false;
+					commands.wait(remaining);
+				}
+			} finally {
+				waiters--;
 			}
-			this.nextCommand = nextCommand;
-			notify();
 		}
+		return true;
+	}
+
+	/**
+	 * Records the completion of a {@code Command} and wakes up the threads waiting in {@link #awaitCompletion(long)}
+	 * (if any).
+	 */
+	void completed() {
+		completed.incrementAndGet();
+		if (waiters > 0)
+			synchronized (commands) {
+				commands.notifyAll();
+			}
 	}
 
 }
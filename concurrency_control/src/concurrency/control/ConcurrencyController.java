@@ -1,9 +1,11 @@
 package concurrency.control;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import concurrency.StorageManager;
+import concurrency.control.Metrics.AbortReason;
 
 /**
  * A {@code ConcurrencyController} controls concurrent execution of {@code Transaction}s in a manner that achieves
@@ -57,15 +59,176 @@ public class ConcurrencyController<V> {
 
 	}
 
+	/**
+	 * An {@code UndoLog} holds the before-images of the data items written by a {@code Transaction} in the order of the
+	 * first write to each data item. It is owned by the {@code Transaction} (which passes it to the
+	 * {@code ConcurrencyController} with each write, commit and rollback and reuses it across attempts), is
+	 * append-only until it is cleared, and stores data IDs in primitive arrays: a small log is searched linearly and a
+	 * larger one is indexed by an open-addressing table of positions so that each data item is recorded only once.
+	 *
+	 * @param <V>
+	 *            the type of data items
+	 */
+	public static class UndoLog<V> {
+
+		/**
+		 * The number of entries up to which an {@code UndoLog} is searched linearly.
+		 */
+		static final int LINEAR_SEARCH_LIMIT = 8;
+
+		/**
+		 * The IDs of the data items in this {@code UndoLog}.
+		 */
+		int[] dIDs = new int[LINEAR_SEARCH_LIMIT];
+
+		/**
+		 * The before-images of the data items in this {@code UndoLog}.
+		 */
+		Object[] beforeImages = new Object[LINEAR_SEARCH_LIMIT];
+
+		/**
+		 * The number of entries in this {@code UndoLog}.
+		 */
+		int size = 0;
+
+		/**
+		 * An open-addressing table that maps the data IDs to their positions plus one ({@code 0} for empty slots);
+		 * {@code null} until this {@code UndoLog} grows beyond {@link #LINEAR_SEARCH_LIMIT} entries.
+		 */
+		int[] positions;
+
+		/**
+		 * Constructs an empty {@code UndoLog}.
+		 */
+		public UndoLog() {
+		}
+
+		/**
+		 * Appends the before-image of the specified data item unless this {@code UndoLog} already contains one.
+		 * 
+		 * @param dID
+		 *            the ID of the data item
+		 * @param beforeImage
+		 *            the value of the data item before the first write
+		 * @return {@code true} if the before-image has been appended; {@code false} otherwise
+		 */
+		boolean append(int dID, V beforeImage) {
+			if (contains(dID))
+				return false;
+			if (size == dIDs.length) {
+				dIDs = Arrays.copyOf(dIDs, size * 2);
+				beforeImages = Arrays.copyOf(beforeImages, size * 2);
+			}
+			dIDs[size] = dID;
+			beforeImages[size++] = beforeImage;
+			if (positions != null && size * 2 > positions.length)
+				index(positions.length * 2);
+			else if (positions != null)
+				insert(size - 1);
+			else if (size > LINEAR_SEARCH_LIMIT)
+				index(LINEAR_SEARCH_LIMIT * 4);
+			return true;
+		}
+
+		/**
+		 * Determines whether or not this {@code UndoLog} contains the before-image of the specified data item.
+		 * 
+		 * @param dID
+		 *            the ID of the data item
+		 * @return {@code true} if this {@code UndoLog} contains the before-image of the data item; {@code false}
+		 *         otherwise
+		 */
+		boolean contains(int dID) {
+			if (positions == null) {
+				for (int i = 0; i < size; i++)
+					if (dIDs[i] == dID)
+						return true;
+				return false;
+			}
+			int mask = positions.length - 1;
+			for (int i = slot(dID, mask); positions[i] != 0; i = (i + 1) & mask)
+				if (dIDs[positions[i] - 1] == dID)
+					return true;
+			return false;
+		}
+
+		/**
+		 * Removes all entries from this {@code UndoLog}, keeping its arrays for the next attempt.
+		 */
+		void clear() {
+			Arrays.fill(beforeImages, 0, size, null);
+			size = 0;
+			positions = null;
+		}
+
+		/**
+		 * Returns the before-image in the specified entry.
+		 * 
+		 * @param i
+		 *            the position of the entry
+		 * @return the before-image in the entry
+		 */
+		@SuppressWarnings("unchecked")
+		V beforeImage(int i) {
+			return (V) beforeImages[i];
+		}
+
+		/**
+		 * Rebuilds the table of positions with the specified capacity.
+		 * 
+		 * @param capacity
+		 *            the new capacity (a power of two)
+		 */
+		void index(int capacity) {
+			positions = new int[capacity];
+			for (int i = 0; i < size; i++)
+				insert(i);
+		}
+
+		/**
+		 * Inserts the specified position into the table of positions.
+		 * 
+		 * @param position
+		 *            the position of an entry
+		 */
+		void insert(int position) {
+			int mask = positions.length - 1;
+			int i = slot(dIDs[position], mask);
+			while (positions[i] != 0)
+				i = (i + 1) & mask;
+			positions[i] = position + 1;
+		}
+
+		/**
+		 * Returns the home slot of the specified data ID in the table of positions.
+		 * 
+		 * @param dID
+		 *            the ID of a data item
+		 * @param mask
+		 *            the capacity of the table minus one
+		 * @return the home slot of the data ID
+		 */
+		static int slot(int dID, int mask) {
+			int hash = dID * 0x9E3779B9;
+			return (hash ^ hash >>> 16) & mask;
+		}
+
+	}
+
 	/**
 	 * A {@code StorageManager}.
 	 */
 	private StorageManager<V> storageManager;
 
 	/**
-	 * A map that associates each {@code Transaction} ID with the data for rolling back the {@code Transaction}.
+	 * The {@code LogManager} that makes updates durable ({@code null} if updates are not logged).
 	 */
-	private Map<Integer, Map<Integer, V>> tID2OrignalValues = new HashMap<Integer, Map<Integer, V>>();
+	private LogManager<V> logManager;
+
+	/**
+	 * The {@code Metrics} of this {@code ConcurrencyController}.
+	 */
+	private Metrics metrics;
 
 	/**
 	 * Constructs a {@code ConcurrencyController}.
@@ -74,7 +237,44 @@ public class ConcurrencyController<V> {
 	 *            a {@code StorageManager}
 	 */
 	public ConcurrencyController(StorageManager<V> storageManager) {
+		this(storageManager, null);
+	}
+
+	/**
+	 * Constructs a {@code ConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param logManager
+	 *            the {@code LogManager} that makes updates durable ({@code null} if updates are not to be logged)
+	 */
+	public ConcurrencyController(StorageManager<V> storageManager, LogManager<V> logManager) {
+		this(storageManager, logManager, new Metrics());
+	}
+
+	/**
+	 * Constructs a {@code ConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param logManager
+	 *            the {@code LogManager} that makes updates durable ({@code null} if updates are not to be logged)
+	 * @param metrics
+	 *            the {@code Metrics} to collect statistics in
+	 */
+	protected ConcurrencyController(StorageManager<V> storageManager, LogManager<V> logManager, Metrics metrics) {
 		this.storageManager = storageManager;
+		this.logManager = logManager;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the {@code Metrics} of this {@code ConcurrencyController}.
+	 * 
+	 * @return the {@code Metrics} of this {@code ConcurrencyController}
+	 */
+	public Metrics metrics() {
+		return metrics;
 	}
 
 	/**
@@ -86,6 +286,20 @@ public class ConcurrencyController<V> {
 	public void register(int tID) {
 	}
 
+	/**
+	 * Rolls back the specified {@code Transaction} so that it can be restarted. By default, the {@code Transaction} is
+	 * then registered again as if it were new (which, e.g., gives it a fresh timestamp or snapshot).
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} to restart
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 */
+	public void restart(int tID, UndoLog<V> undoLog) {
+		rollback(tID, undoLog);
+		register(tID);
+	}
+
 	/**
 	 * Handles a read request.
 	 * 
@@ -102,6 +316,35 @@ public class ConcurrencyController<V> {
 		return storageManager.read(dID);
 	}
 
+	/**
+	 * Handles a range read request by reading, through {@link #read(int, int)}, each stored data item whose ID is at
+	 * least {@code fromID} and less than {@code toID}. This implementation does not prevent phantoms, i.e., data items
+	 * inserted into the range by other {@code Transaction}s before the requesting {@code Transaction} finishes; see
+	 * {@link Strict2PLConcurrencyController} for range reads protected by next-key locking. Writes that a
+	 * {@code ConcurrencyController} buffers until commit are only included for data items that are already stored.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param fromID
+	 *            the smallest ID in the range (inclusive)
+	 * @param toID
+	 *            the end of the range (exclusive)
+	 * @return a map that associates the IDs of the data items in the range with their values in ascending order of the
+	 *         IDs
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             if the request cannot be permitted and thus the related {@code Transaction} must be aborted
+	 */
+	public SortedMap<Integer, V> scan(int tID, int fromID, int toID)
+			throws InvalidTransactionIDException, AbortException {
+		SortedMap<Integer, V> dID2value = new TreeMap<Integer, V>();
+		if (fromID < toID)
+			for (int dID : dIDs(fromID, toID))
+				dID2value.put(dID, read(tID, dID));
+		return dID2value;
+	}
+
 	/**
 	 * Handles a write request.
 	 * 
@@ -111,46 +354,135 @@ public class ConcurrencyController<V> {
 	 *            the ID of the data item for which the request was made
 	 * @param dValue
 	 *            the value of the data item for which the request was made
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
 	 * @throws InvalidTransactionIDException
 	 *             if an invalid {@code Transaction} ID is given
 	 * @throws AbortException
 	 *             if the request cannot be permitted and thus the related {@code Transaction} must be aborted
 	 */
-	public void write(int tID, int dID, V dValue) throws InvalidTransactionIDException, AbortException {
-		V pValue = storageManager.write(dID, dValue);
-		Map<Integer, V> orignalValues = tID2OrignalValues.get(tID);
-		if (orignalValues == null) {
-			orignalValues = new HashMap<Integer, V>();
-			tID2OrignalValues.put(tID, orignalValues);
-		}
-		if (orignalValues.get(dID) == null)
-			orignalValues.put(dID, pValue);
+	public void write(int tID, int dID, V dValue, UndoLog<V> undoLog)
+			throws InvalidTransactionIDException, AbortException {
+		store(tID, dID, dValue, undoLog);
 	}
 
 	/**
-	 * Rolls back the specified {@code Transaction}.
+	 * Determines whether the specified data item is stored.
+	 * 
+	 * @param dID
+	 *            the ID of the data item
+	 * @return {@code true} if the data item is stored; {@code false} otherwise
+	 */
+	protected boolean contains(int dID) {
+		return storageManager.contains(dID);
+	}
+
+	/**
+	 * Returns the IDs of the stored data items that are at least {@code fromID} and less than {@code toID}.
+	 * 
+	 * @param fromID
+	 *            the smallest ID in the range (inclusive)
+	 * @param toID
+	 *            the end of the range (exclusive)
+	 * @return the IDs of the stored data items in the range in ascending order
+	 */
+	protected int[] dIDs(int fromID, int toID) {
+		return storageManager.dIDs(fromID, toID);
+	}
+
+	/**
+	 * Returns the ID of the stored data item that follows the specified ID.
+	 * 
+	 * @param dID
+	 *            an ID
+	 * @param inclusive
+	 *            a flag indicating whether the specified ID itself is returned if it is stored
+	 * @return the smallest stored ID greater than (or, if {@code inclusive}, equal to) the specified ID; {@code -1} if
+	 *         there is no such ID
+	 */
+	protected long nextStoredDID(int dID, boolean inclusive) {
+		return storageManager.nextDID(dID, inclusive);
+	}
+
+	/**
+	 * Stores the specified data item on behalf of the specified {@code Transaction}, appending the original value to the
+	 * specified {@code UndoLog} on the first write to the data item and logging the update if a {@code LogManager} is
+	 * used.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param dID
+	 *            the ID of the data item
+	 * @param dValue
+	 *            the new value of the data item
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 */
+	protected void store(int tID, int dID, V dValue, UndoLog<V> undoLog) {
+		V pValue = logManager == null ? storageManager.write(dID, dValue) : logManager.write(tID, dID, dValue);
+		if (undoLog.append(dID, pValue)) // only the value before the first write matters
+			metrics.undoLogAppended();
+	}
+
+	/**
+	 * Rolls back the specified {@code Transaction} by restoring the before-images in its {@code UndoLog} in reverse
+	 * order. The {@code UndoLog} is then cleared.
 	 * 
 	 * @param tID
 	 *            the ID of the {@code Transaction} to roll back.
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
 	 */
-	public void rollback(int tID) {
-		Map<Integer, V> orignalValues = tID2OrignalValues.get(tID);
-		if (orignalValues != null)
-			for (Map.Entry<Integer, V> entry : orignalValues.entrySet()) {
-				if (entry.getValue() == null)
-					storageManager.remove(entry.getKey());
+	public void rollback(int tID, UndoLog<V> undoLog) {
+		if (undoLog.size > 0) {
+			metrics.undoLogDiscarded(undoLog.size);
+			for (int i = undoLog.size - 1; i >= 0; i--) {
+				int dID = undoLog.dIDs[i];
+				V beforeImage = undoLog.beforeImage(i);
+				if (logManager != null)
+					logManager.restore(tID, dID, beforeImage);
+				else if (beforeImage == null)
+					storageManager.remove(dID);
 				else
-					storageManager.write(entry.getKey(), entry.getValue());
+					storageManager.write(dID, beforeImage);
 			}
+			undoLog.clear();
+			if (logManager != null)
+				logManager.abort(tID);
+		}
 	}
 
 	/**
-	 * Commits the specified {@code Transaction}.
+	 * Commits the specified {@code Transaction}. If the {@code Transaction} has made updates and a {@code LogManager}
+	 * is used, this method returns only after the commit record is on disk. The {@code UndoLog} of the
+	 * {@code Transaction} is then cleared.
 	 * 
 	 * @param tID
 	 *            the ID of the {@code Transaction} to commit.
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws AbortException
+	 *             if the {@code Transaction} cannot commit and thus must be aborted
+	 */
+	public void commit(int tID, UndoLog<V> undoLog) throws AbortException {
+		if (undoLog.size > 0) {
+			metrics.undoLogDiscarded(undoLog.size);
+			undoLog.clear();
+			if (logManager != null)
+				logManager.commit(tID);
+		}
+	}
+
+	/**
+	 * Records an abort of a {@code Transaction} for the specified reason in the {@code Metrics} of this
+	 * {@code ConcurrencyController}.
+	 * 
+	 * @param reason
+	 *            the {@code AbortReason}
+	 * @return an {@code AbortException} to throw
 	 */
-	public void commit(int tID) {
-		tID2OrignalValues.remove(tID);
+	protected AbortException abort(AbortReason reason) {
+		metrics.aborted(reason);
+		return new AbortException();
 	}
 }
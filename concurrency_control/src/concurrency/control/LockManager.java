@@ -0,0 +1,735 @@
+package concurrency.control;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import concurrency.control.ConcurrencyController.AbortException;
+import concurrency.control.Metrics.AbortReason;
+
+/**
+ * A {@code LockManager} manages shared and exclusive locks on data items on behalf of {@code Transaction}s. Locks are
+ * owned by {@code Transaction} IDs (not threads), are re-entrant, can be upgraded from the shared mode to the exclusive
+ * mode, and are granted in FIFO order.
+ */
+public class LockManager {
+
+	/**
+	 * The {@code LockMode} enumeration defines the modes of locks.
+	 */
+	public enum LockMode {
+
+		/**
+		 * The shared mode which is compatible with other shared locks.
+		 */
+		SHARED,
+
+		/**
+		 * The exclusive mode which is incompatible with any other lock.
+		 */
+		EXCLUSIVE;
+
+		/**
+		 * Determines whether or not a lock in this mode also grants the specified mode.
+		 *
+		 * @param mode
+		 *            a {@code LockMode}
+		 * @return {@code true} if a lock in this mode also grants the specified mode; {@code false} otherwise
+		 */
+		public boolean covers(LockMode mode) {
+			return this == EXCLUSIVE || mode == SHARED;
+		}
+
+	}
+
+	/**
+	 * A {@code LockRequest} represents a request for a lock that has not been granted yet.
+	 */
+	static class LockRequest {
+
+		/**
+		 * The ID of the {@code Transaction} that has made this {@code LockRequest}.
+		 */
+		int tID;
+
+		/**
+		 * The requested {@code LockMode}.
+		 */
+		LockMode mode;
+
+		/**
+		 * A flag indicating whether or not this {@code LockRequest} has been granted.
+		 */
+		volatile boolean granted = false;
+
+		/**
+		 * The number of {@code LockRequest}s waiting for the lock (including this one) when this {@code LockRequest}
+		 * was queued.
+		 */
+		int queueDepth;
+
+		/**
+		 * Constructs a {@code LockRequest}.
+		 *
+		 * @param tID
+		 *            the ID of the {@code Transaction} that makes the {@code LockRequest}
+		 * @param mode
+		 *            the requested {@code LockMode}
+		 */
+		LockRequest(int tID, LockMode mode) {
+			this.tID = tID;
+			this.mode = mode;
+		}
+
+	}
+
+	/**
+	 * A {@code LockEntry} is an entry of the lock table. All fields other than {@code users} are guarded by the
+	 * {@code LockEntry} itself.
+	 */
+	static class LockEntry {
+
+		/**
+		 * A map that associates the IDs of the {@code Transaction}s holding the lock with the granted modes.
+		 */
+		LinkedHashMap<Integer, LockMode> holders = new LinkedHashMap<Integer, LockMode>();
+
+		/**
+		 * The {@code LockRequest}s waiting for the lock in FIFO order (upgrade requests are placed in front).
+		 */
+		LinkedList<LockRequest> waiting = new LinkedList<LockRequest>();
+
+		/**
+		 * The number of {@code Transaction}s that hold or wait for the lock. Only updated while the lock table bin of the
+		 * data item is locked (i.e., inside {@code ConcurrentHashMap#compute}).
+		 */
+		int users = 0;
+
+		/**
+		 * Determines whether or not the specified {@code Transaction} can be granted the specified mode right now.
+		 *
+		 * @param tID
+		 *            the ID of the {@code Transaction}
+		 * @param mode
+		 *            the requested {@code LockMode}
+		 * @return {@code true} if the lock can be granted; {@code false} otherwise
+		 */
+		boolean compatible(int tID, LockMode mode) {
+			for (Map.Entry<Integer, LockMode> holder : holders.entrySet())
+				if (holder.getKey() != tID && (mode == LockMode.EXCLUSIVE || holder.getValue() == LockMode.EXCLUSIVE))
+					return false;
+			return true;
+		}
+
+		/**
+		 * Grants the lock to the waiting {@code LockRequest}s at the head of the queue as long as they are compatible
+		 * with the current holders.
+		 */
+		void grantWaiters() {
+			boolean granted = false;
+			for (Iterator<LockRequest> i = waiting.iterator(); i.hasNext();) {
+				LockRequest request = i.next();
+				if (!compatible(request.tID, request.mode))
+					break;
+				i.remove();
+				holders.put(request.tID, request.mode);
+				request.granted = true;
+				granted = true;
+			}
+			if (granted)
+				notifyAll();
+		}
+
+		/**
+		 * Returns the IDs of the {@code Transaction}s that the specified waiting {@code LockRequest} waits for, i.e.,
+		 * the holders whose locks are incompatible with the request and the {@code Transaction}s queued ahead of it.
+		 *
+		 * @param request
+		 *            a waiting {@code LockRequest}
+		 * @return the IDs of the {@code Transaction}s that the {@code LockRequest} waits for
+		 */
+		List<Integer> blockers(LockRequest request) {
+			List<Integer> blockers = new ArrayList<Integer>();
+			for (Map.Entry<Integer, LockMode> holder : holders.entrySet())
+				if (holder.getKey() != request.tID
+						&& (request.mode == LockMode.EXCLUSIVE || holder.getValue() == LockMode.EXCLUSIVE))
+					blockers.add(holder.getKey());
+			for (LockRequest r : waiting) {
+				if (r == request)
+					break;
+				if (r.tID != request.tID)
+					blockers.add(r.tID);
+			}
+			return blockers;
+		}
+
+		/**
+		 * Withdraws the specified {@code LockRequest} and grants the lock to the {@code LockRequest}s that were only
+		 * blocked by it.
+		 *
+		 * @param request
+		 *            a waiting {@code LockRequest}
+		 */
+		void withdraw(LockRequest request) {
+			waiting.remove(request);
+			grantWaiters();
+		}
+
+	}
+
+	/**
+	 * The {@code DeadlockPolicy} enumeration defines how a {@code LockManager} deals with deadlocks.
+	 */
+	public enum DeadlockPolicy {
+
+		/**
+		 * Lets {@code Transaction}s wait and periodically searches the waits-for graph for cycles, aborting the youngest
+		 * {@code Transaction} in each cycle.
+		 */
+		DETECTION,
+
+		/**
+		 * Lets an older {@code Transaction} wait for a younger one and aborts a younger {@code Transaction} that would
+		 * wait for an older one.
+		 */
+		WAIT_DIE,
+
+		/**
+		 * Lets a younger {@code Transaction} wait for an older one and aborts (wounds) a younger {@code Transaction} that
+		 * an older one would wait for.
+		 */
+		WOUND_WAIT
+
+	}
+
+	/**
+	 * A map that associates data IDs with lock entries. Entries are created on demand and removed when no
+	 * {@code Transaction} holds or waits for them.
+	 */
+	ConcurrentHashMap<Integer, LockEntry> dID2entry = new ConcurrentHashMap<Integer, LockEntry>();
+
+	/**
+	 * The {@code DeadlockPolicy} of this {@code LockManager}.
+	 */
+	DeadlockPolicy policy;
+
+	/**
+	 * The interval (in milliseconds) between two rounds of deadlock detection.
+	 */
+	long detectionInterval;
+
+	/**
+	 * The maximum time (in milliseconds) that a {@code Transaction} waits for a lock before it is aborted ({@code 0}
+	 * for no limit).
+	 */
+	long lockTimeout;
+
+	/**
+	 * The thread that periodically detects deadlocks ({@code null} until some {@code Transaction} has to wait).
+	 */
+	volatile Thread detector;
+
+	/**
+	 * The number of {@code Transaction}s that have been registered so far.
+	 */
+	AtomicLong count = new AtomicLong();
+
+	/**
+	 * A map that associates {@code Transaction} IDs with the registration order which serves as the age of each
+	 * {@code Transaction} (a smaller value means an older {@code Transaction}).
+	 */
+	ConcurrentHashMap<Integer, Long> tID2timestamp = new ConcurrentHashMap<Integer, Long>();
+
+	/**
+	 * A map that associates the IDs of the waiting {@code Transaction}s with the {@code LockEntry}s they wait on.
+	 */
+	ConcurrentHashMap<Integer, LockEntry> tID2waitingEntry = new ConcurrentHashMap<Integer, LockEntry>();
+
+	/**
+	 * The IDs of the {@code Transaction}s that have been chosen to be aborted.
+	 */
+	Set<Integer> victims = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The {@code Metrics} in which lock waits and the aborts caused by this {@code LockManager} are recorded.
+	 */
+	Metrics metrics = new Metrics();
+
+	/**
+	 * Constructs a {@code LockManager} that detects deadlocks every 50 milliseconds and never times out lock requests.
+	 */
+	public LockManager() {
+		this(DeadlockPolicy.DETECTION, 50, 0);
+	}
+
+	/**
+	 * Constructs a {@code LockManager}.
+	 *
+	 * @param policy
+	 *            the {@code DeadlockPolicy} to use
+	 * @param detectionInterval
+	 *            the interval (in milliseconds) between two rounds of deadlock detection (only used with
+	 *            {@link DeadlockPolicy#DETECTION})
+	 * @param lockTimeout
+	 *            the maximum time (in milliseconds) that a {@code Transaction} waits for a lock before it is aborted
+	 *            ({@code 0} for no limit)
+	 */
+	public LockManager(DeadlockPolicy policy, long detectionInterval, long lockTimeout) {
+		this.policy = policy;
+		this.detectionInterval = detectionInterval;
+		this.lockTimeout = lockTimeout;
+	}
+
+	/**
+	 * Registers a {@code Transaction} so that it is older than all {@code Transaction}s registered later.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	public void register(int tID) {
+		tID2timestamp.put(tID, count.getAndIncrement());
+	}
+
+	/**
+	 * Registers a {@code Transaction} with the specified registration order (e.g., the one it had before it was
+	 * rolled back to be restarted).
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param timestamp
+	 *            the registration order of the {@code Transaction}
+	 */
+	public void register(int tID, long timestamp) {
+		tID2timestamp.put(tID, timestamp);
+	}
+
+	/**
+	 * Unregisters a {@code Transaction} that has committed or rolled back.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	public void unregister(int tID) {
+		tID2timestamp.remove(tID);
+		victims.remove(tID);
+	}
+
+	/**
+	 * Determines whether or not the specified {@code Transaction} has been chosen to be aborted.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @return {@code true} if the {@code Transaction} must be aborted; {@code false} otherwise
+	 */
+	public boolean isVictim(int tID) {
+		return victims.contains(tID);
+	}
+
+	/**
+	 * Acquires a lock on the specified data item in the specified mode, waiting if necessary. Returns immediately if the
+	 * {@code Transaction} already holds a lock that covers the mode, and upgrades a shared lock if the exclusive mode is
+	 * requested.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param dID
+	 *            the ID of the data item
+	 * @param mode
+	 *            the requested {@code LockMode}
+	 * @throws AbortException
+	 *             if the {@code Transaction} has been chosen as a victim, would violate the {@code DeadlockPolicy} by
+	 *             waiting, has waited longer than the lock timeout, or is interrupted while waiting
+	 */
+	public void lock(int tID, int dID, LockMode mode) throws AbortException {
+		if (victims.contains(tID))
+			throw abortException(AbortReason.DEADLOCK);
+		LockRequest request = null;
+		LockEntry entry = dID2entry.get(dID);
+		if (entry != null) // the entry cannot disappear while the transaction holds the lock
+			synchronized (entry) {
+				LockMode held = entry.holders.get(tID);
+				if (held != null) {
+					if (held.covers(mode))
+						return;
+					if (!entry.waiting.isEmpty()) // the upgrade may newly block waiters, which must re-apply the policy
+						entry.notifyAll();
+					if (entry.compatible(tID, mode)) {
+						entry.holders.put(tID, mode);
+						return;
+					}
+					request = new LockRequest(tID, mode); // upgrade
+					entry.waiting.addFirst(request);
+					request.queueDepth = entry.waiting.size();
+				}
+			}
+		if (request != null) {
+			await(dID, entry, request);
+			return;
+		}
+		entry = acquireEntry(dID);
+		synchronized (entry) {
+			if (entry.waiting.isEmpty() && entry.compatible(tID, mode)) {
+				entry.holders.put(tID, mode);
+				return;
+			}
+			request = new LockRequest(tID, mode);
+			entry.waiting.addLast(request);
+			request.queueDepth = entry.waiting.size();
+		}
+		try {
+			await(dID, entry, request);
+		} catch (AbortException e) {
+			releaseEntry(dID);
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the lock that the specified {@code Transaction} holds on the specified data item.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param dID
+	 *            the ID of the data item
+	 */
+	public void unlock(int tID, int dID) {
+		LockEntry entry = dID2entry.get(dID);
+		if (entry == null)
+			return;
+		synchronized (entry) {
+			if (entry.holders.remove(tID) == null)
+				return;
+			entry.grantWaiters();
+		}
+		releaseEntry(dID);
+	}
+
+	/**
+	 * Returns the {@code LockMode} in which the specified {@code Transaction} holds the specified data item.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param dID
+	 *            the ID of the data item
+	 * @return the {@code LockMode} in which the {@code Transaction} holds the data item; {@code null} if the
+	 *         {@code Transaction} holds no lock on the data item
+	 */
+	public LockMode lockMode(int tID, int dID) {
+		LockEntry entry = dID2entry.get(dID);
+		if (entry == null)
+			return null;
+		synchronized (entry) {
+			return entry.holders.get(tID);
+		}
+	}
+
+	/**
+	 * Searches the waits-for graph for cycles and aborts the youngest {@code Transaction} in each cycle found.
+	 *
+	 * @return the number of {@code Transaction}s chosen to be aborted
+	 */
+	public int detectDeadlocks() {
+		Map<Integer, List<Integer>> waitsFor = new HashMap<Integer, List<Integer>>();
+		for (LockEntry entry : dID2entry.values())
+			synchronized (entry) {
+				for (LockRequest request : entry.waiting)
+					if (!victims.contains(request.tID))
+						waitsFor.put(request.tID, entry.blockers(request));
+			}
+		int aborted = 0;
+		Set<Integer> visited = new HashSet<Integer>();
+		for (Integer start : new ArrayList<Integer>(waitsFor.keySet())) {
+			if (visited.contains(start) || !waitsFor.containsKey(start))
+				continue;
+			// iterative depth-first search; path holds the transactions on the current path
+			LinkedHashSet<Integer> path = new LinkedHashSet<Integer>();
+			Deque<Iterator<Integer>> iterators = new ArrayDeque<Iterator<Integer>>();
+			Deque<Integer> nodes = new ArrayDeque<Integer>();
+			visited.add(start);
+			path.add(start);
+			nodes.push(start);
+			iterators.push(waitsFor.get(start).iterator());
+			while (!nodes.isEmpty()) {
+				Iterator<Integer> i = iterators.peek();
+				if (!i.hasNext()) {
+					path.remove(nodes.pop());
+					iterators.pop();
+					continue;
+				}
+				Integer next = i.next();
+				if (path.contains(next)) { // a cycle from next to the top of the stack
+					int victim = youngest(path, next);
+					abort(victim);
+					aborted++;
+					waitsFor.remove(victim);
+					while (!nodes.isEmpty()) // restart the search from the remaining transactions
+						path.remove(nodes.pop());
+					iterators.clear();
+				} else if (!visited.contains(next) && waitsFor.containsKey(next)) {
+					visited.add(next);
+					path.add(next);
+					nodes.push(next);
+					iterators.push(waitsFor.get(next).iterator());
+				}
+			}
+		}
+		return aborted;
+	}
+
+	/**
+	 * Returns the number of times {@code Transaction}s have waited for locks.
+	 *
+	 * @return the number of times {@code Transaction}s have waited for locks
+	 */
+	public long waits() {
+		return metrics.lockWaits().count();
+	}
+
+	/**
+	 * Returns the total time that {@code Transaction}s have spent waiting for locks.
+	 *
+	 * @return the total time (in nanoseconds) that {@code Transaction}s have spent waiting for locks
+	 */
+	public long waitTime() {
+		return metrics.lockWaits().sum();
+	}
+
+	/**
+	 * Returns the {@code Metrics} in which lock waits and the aborts caused by this {@code LockManager} are recorded.
+	 *
+	 * @return the {@code Metrics} of this {@code LockManager}
+	 */
+	public Metrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * Stops the deadlock detection thread of this {@code LockManager} (if any).
+	 */
+	public void shutdown() {
+		Thread detector = this.detector;
+		if (detector != null)
+			detector.interrupt();
+	}
+
+	/**
+	 * Chooses the specified {@code Transaction} to be aborted and wakes it up if it is waiting for a lock.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	void abort(int tID) {
+		victims.add(tID);
+		LockEntry entry = tID2waitingEntry.get(tID);
+		if (entry != null)
+			synchronized (entry) {
+				entry.notifyAll();
+			}
+	}
+
+	/**
+	 * Waits until the specified {@code LockRequest} is granted while enforcing the {@code DeadlockPolicy} and the lock
+	 * timeout. The caller must not hold the monitor of the {@code LockEntry}.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @param entry
+	 *            the {@code LockEntry}
+	 * @param request
+	 *            the {@code LockRequest}
+	 * @throws AbortException
+	 *             if the {@code Transaction} must be aborted instead of waiting any longer
+	 */
+	void await(int dID, LockEntry entry, LockRequest request) throws AbortException {
+		if (policy == DeadlockPolicy.DETECTION && detector == null)
+			startDetector();
+		long timestamp = timestamp(request.tID);
+		long deadline = lockTimeout > 0 ? System.currentTimeMillis() + lockTimeout : 0;
+		long start = System.nanoTime();
+		tID2waitingEntry.put(request.tID, entry);
+		try {
+			while (true) {
+				List<Integer> wounded = null;
+				synchronized (entry) {
+					if (request.granted)
+						return;
+					long remaining = deadline == 0 ? 0 : deadline - System.currentTimeMillis();
+					if (victims.contains(request.tID)) {
+						entry.withdraw(request);
+						throw abortException(AbortReason.DEADLOCK);
+					}
+					if (deadline != 0 && remaining <= 0) {
+						entry.withdraw(request);
+						throw abortException(AbortReason.LOCK_TIMEOUT);
+					}
+					if (policy != DeadlockPolicy.DETECTION)
+						for (Integer blocker : entry.blockers(request)) {
+							long blockerTimestamp = timestamp(blocker);
+							if (policy == DeadlockPolicy.WAIT_DIE && blockerTimestamp < timestamp) { // die
+								entry.withdraw(request);
+								throw abortException(AbortReason.DEADLOCK);
+							} else if (policy == DeadlockPolicy.WOUND_WAIT && blockerTimestamp > timestamp
+									&& !victims.contains(blocker)) { // wound
+								if (wounded == null)
+									wounded = new ArrayList<Integer>();
+								wounded.add(blocker);
+							}
+						}
+					if (wounded == null) // the state checked above cannot change before the wait begins
+						try {
+							block(entry, request, remaining);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							if (request.granted)
+								return;
+							entry.withdraw(request);
+							throw abortException(AbortReason.OTHER);
+						}
+				}
+				if (wounded != null) // wound outside the monitor so that monitors are never nested
+					for (Integer tID : wounded)
+						abort(tID);
+			}
+		} finally {
+			tID2waitingEntry.remove(request.tID);
+			metrics.lockWaited(dID, System.nanoTime() - start, request.queueDepth);
+		}
+	}
+
+	/**
+	 * Records an abort for the specified reason in the {@code Metrics} of this {@code LockManager}.
+	 *
+	 * @param reason
+	 *            the {@code AbortReason}
+	 * @return an {@code AbortException} to throw
+	 */
+	AbortException abortException(AbortReason reason) {
+		metrics.aborted(reason);
+		return new AbortException();
+	}
+
+	/**
+	 * Blocks until the specified {@code LockRequest} is granted, its {@code Transaction} is chosen as a victim, the
+	 * {@code LockEntry} is notified, or the specified time elapses. The caller must hold the monitor of the
+	 * {@code LockEntry}. When called from a {@code ForkJoinPool}, the pool is informed so that it can run other
+	 * {@code Transaction}s on compensating threads in the meantime.
+	 *
+	 * @param entry
+	 *            the {@code LockEntry}
+	 * @param request
+	 *            the {@code LockRequest}
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds ({@code 0} for no limit)
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 */
+	void block(LockEntry entry, LockRequest request, long timeout) throws InterruptedException {
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (!isReleasable())
+					entry.wait(timeout);
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return request.granted || victims.contains(request.tID);
+			}
+
+		});
+	}
+
+	/**
+	 * Returns the registration order of the specified {@code Transaction}, registering it if necessary.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @return the registration order of the {@code Transaction}
+	 */
+	long timestamp(int tID) {
+		return tID2timestamp.computeIfAbsent(tID, k -> count.getAndIncrement());
+	}
+
+	/**
+	 * Returns the youngest {@code Transaction} in the cycle that starts at the specified {@code Transaction} in the
+	 * specified path.
+	 *
+	 * @param path
+	 *            the {@code Transaction}s on the current search path
+	 * @param start
+	 *            the {@code Transaction} at which the cycle starts
+	 * @return the ID of the youngest {@code Transaction} in the cycle
+	 */
+	int youngest(LinkedHashSet<Integer> path, int start) {
+		int victim = start;
+		boolean inCycle = false;
+		for (Integer tID : path) {
+			if (tID == start)
+				inCycle = true;
+			if (inCycle && timestamp(tID) > timestamp(victim))
+				victim = tID;
+		}
+		return victim;
+	}
+
+	/**
+	 * Starts the deadlock detection thread unless it has been started already.
+	 */
+	synchronized void startDetector() {
+		if (detector != null)
+			return;
+		detector = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(detectionInterval);
+					detectDeadlocks();
+				}
+			} catch (InterruptedException e) {
+			}
+		}, "deadlock-detector");
+		detector.setDaemon(true);
+		detector.start();
+	}
+
+	/**
+	 * Returns the {@code LockEntry} for the specified data item after registering the caller as one of its users.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @return the {@code LockEntry} for the data item
+	 */
+	LockEntry acquireEntry(int dID) {
+		return dID2entry.compute(dID, (k, entry) -> {
+			if (entry == null)
+				entry = new LockEntry();
+			entry.users++;
+			return entry;
+		});
+	}
+
+	/**
+	 * Unregisters the caller as a user of the {@code LockEntry} for the specified data item and removes the entry if it
+	 * has no other users.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 */
+	void releaseEntry(int dID) {
+		dID2entry.computeIfPresent(dID, (k, entry) -> --entry.users == 0 ? null : entry);
+	}
+
+}
@@ -0,0 +1,739 @@
+package concurrency.control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+
+import concurrency.StorageManager;
+
+/**
+ * A {@code LogManager} makes the updates of {@code Transaction}s durable by means of write-ahead logging in the style
+ * of ARIES. Each update is stored in the {@code StorageManager} and described by an update record carrying both the
+ * before and after images of the data item. Rollbacks are described by compensation records, and commit records are
+ * forced to disk before commits are acknowledged. Forcing uses group commit: the first {@code Transaction} that needs
+ * its commit record on disk writes and forces everything appended so far, while the {@code Transaction}s that commit in
+ * the meantime wait and are then covered by the next force, so a single {@code fsync} serves many commits.
+ * <p>
+ * Since the {@code StorageManager} is volatile, a checkpoint writes a fuzzy snapshot of all the data items (taken
+ * while {@code Transaction}s keep running) together with the position in the log from which restart recovery must
+ * start. Restart recovery loads the latest checkpoint, repeats history by redoing all the updates logged after the
+ * checkpoint began, and then undoes the updates of the {@code Transaction}s that had neither committed nor aborted.
+ * <p>
+ * The log is kept in segments, each a file named after the log sequence number of its first log record. Each
+ * checkpoint starts a new segment and, once the checkpoint file is in place, deletes the segments that end before the
+ * position from which restart recovery must start, so that the log on disk (and the time restart recovery takes)
+ * stays bounded by what was logged since the oldest {@code Transaction} running at the last checkpoint began.
+ *
+ * @param <V>
+ *            the type of data items
+ */
+public class LogManager<V> {
+
+	/**
+	 * A {@code Codec} converts data items to and from bytes.
+	 *
+	 * @param <V>
+	 *            the type of data items
+	 */
+	public interface Codec<V> {
+
+		/**
+		 * Writes the specified data item.
+		 *
+		 * @param out
+		 *            a {@code DataOutput}
+		 * @param value
+		 *            a data item (not {@code null})
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		void write(DataOutput out, V value) throws IOException;
+
+		/**
+		 * Reads a data item.
+		 *
+		 * @param in
+		 *            a {@code DataInput}
+		 * @return the data item read
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 */
+		V read(DataInput in) throws IOException;
+
+	}
+
+	/**
+	 * The {@code Codec} for {@code Integer} data items.
+	 */
+	public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+
+		@Override
+		public void write(DataOutput out, Integer value) throws IOException {
+			out.writeInt(value);
+		}
+
+		@Override
+		public Integer read(DataInput in) throws IOException {
+			return in.readInt();
+		}
+
+	};
+
+	/**
+	 * The type of the records describing updates.
+	 */
+	static final byte UPDATE = 1;
+
+	/**
+	 * The type of the records describing the restoration of data items during rollbacks (redo-only).
+	 */
+	static final byte COMPENSATION = 2;
+
+	/**
+	 * The type of commit records.
+	 */
+	static final byte COMMIT = 3;
+
+	/**
+	 * The type of abort records.
+	 */
+	static final byte ABORT = 4;
+
+	/**
+	 * The size of the header (the length and checksum of the payload) of each log record.
+	 */
+	static final int HEADER_SIZE = 8;
+
+	/**
+	 * The maximum size of the payload of a log record that restart recovery accepts.
+	 */
+	static final int MAX_RECORD_SIZE = 1 << 24;
+
+	/**
+	 * The {@code StorageManager} whose updates are logged.
+	 */
+	StorageManager<V> storageManager;
+
+	/**
+	 * The {@code Codec} for data items.
+	 */
+	Codec<V> codec;
+
+	/**
+	 * The directory for the log segments and the checkpoint file.
+	 */
+	File directory;
+
+	/**
+	 * The checkpoint file.
+	 */
+	File checkpointFile;
+
+	/**
+	 * The {@code FileChannel} for appending to the current log segment.
+	 */
+	FileChannel channel;
+
+	/**
+	 * The log sequence number of the first log record in the current log segment.
+	 */
+	long segmentLSN;
+
+	/**
+	 * The log records that have been appended but not yet written to the log file.
+	 */
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+	/**
+	 * The log sequence number (the offset in the whole log) at which the next log record will be placed.
+	 */
+	long endLSN;
+
+	/**
+	 * The log sequence number up to which all log records are on disk.
+	 */
+	long durableLSN;
+
+	/**
+	 * A flag indicating whether a thread is currently writing and forcing log records.
+	 */
+	boolean flushing = false;
+
+	/**
+	 * The {@code IOException} that occurred while writing the log ({@code null} if none).
+	 */
+	IOException failure;
+
+	/**
+	 * A map that associates the IDs of the {@code Transaction}s that have logged updates but not finished with the log
+	 * sequence numbers of their first log records. Guarded by the monitor of this {@code LogManager}.
+	 */
+	HashMap<Integer, Long> tID2firstLSN = new HashMap<Integer, Long>();
+
+	/**
+	 * The latch held in shared mode while an update is stored and logged, and briefly in exclusive mode by a checkpoint
+	 * so that every update included in its snapshot is also in the log.
+	 */
+	StampedLock latch = new StampedLock();
+
+	/**
+	 * The lock that prevents checkpoints from overlapping.
+	 */
+	Object checkpointLock = new Object();
+
+	/**
+	 * The number of times the log has been forced to disk.
+	 */
+	AtomicLong forces = new AtomicLong();
+
+	/**
+	 * Constructs a {@code LogManager} that keeps its files in the specified directory and performs restart recovery
+	 * on the specified {@code StorageManager} (which must be empty) if the directory contains a log.
+	 *
+	 * @param directory
+	 *            the directory for the log and checkpoint files
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param codec
+	 *            the {@code Codec} for data items
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public LogManager(File directory, StorageManager<V> storageManager, Codec<V> codec) throws IOException {
+		this.storageManager = storageManager;
+		this.codec = codec;
+		this.directory = directory;
+		directory.mkdirs();
+		checkpointFile = new File(directory, "checkpoint");
+		recover();
+	}
+
+	/**
+	 * Stores the specified data item and logs the update.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction} that makes the update
+	 * @param dID
+	 *            the ID of the data item
+	 * @param dValue
+	 *            the new value of the data item
+	 * @return the previous value of the data item
+	 */
+	public V write(int tID, int dID, V dValue) {
+		long stamp = latch.readLock();
+		try {
+			V pValue = storageManager.write(dID, dValue);
+			append(record(UPDATE, tID, dID, pValue, dValue));
+			return pValue;
+		} finally {
+			latch.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Restores the specified data item while rolling back the specified {@code Transaction} and logs a compensation
+	 * record.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction} being rolled back
+	 * @param dID
+	 *            the ID of the data item
+	 * @param dValue
+	 *            the value to restore ({@code null} to remove the data item)
+	 */
+	public void restore(int tID, int dID, V dValue) {
+		long stamp = latch.readLock();
+		try {
+			if (dValue == null)
+				storageManager.remove(dID);
+			else
+				storageManager.write(dID, dValue);
+			append(record(COMPENSATION, tID, dID, null, dValue));
+		} finally {
+			latch.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Logs the commit of the specified {@code Transaction} and waits until the commit record is on disk.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	public void commit(int tID) {
+		force(append(record(COMMIT, tID, 0, null, null)));
+	}
+
+	/**
+	 * Logs the end of the rollback of the specified {@code Transaction}. The abort record is not forced since restart
+	 * recovery would roll back the {@code Transaction} anyway.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	public void abort(int tID) {
+		append(record(ABORT, tID, 0, null, null));
+	}
+
+	/**
+	 * Takes a fuzzy checkpoint. {@code Transaction}s keep running while the data items are copied into the checkpoint
+	 * file, which replaces the previous one only when complete. Then the log segments that restart recovery no longer
+	 * needs are deleted.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (checkpointLock) {
+			startSegment();
+			long beginLSN, scanLSN;
+			synchronized (this) {
+				beginLSN = endLSN;
+				scanLSN = beginLSN;
+				for (Long firstLSN : tID2firstLSN.values())
+					scanLSN = Math.min(scanLSN, firstLSN);
+			}
+			File tmpFile = new File(checkpointFile.getPath() + ".tmp");
+			try (FileOutputStream file = new FileOutputStream(tmpFile)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+				out.writeLong(scanLSN);
+				out.writeLong(beginLSN);
+				try {
+					storageManager.forEach((value, dID) -> {
+						try {
+							out.writeBoolean(true);
+							out.writeInt(dID);
+							writeValue(out, value);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+				out.writeBoolean(false);
+				out.flush();
+				// wait for the updates already stored (and possibly copied) but not yet logged, and make them durable
+				latch.unlockWrite(latch.writeLock());
+				long lsn;
+				synchronized (this) {
+					lsn = endLSN;
+				}
+				force(lsn);
+				file.getFD().sync();
+			}
+			Files.move(tmpFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			long[] segments = segments();
+			for (int i = 0; i + 1 < segments.length && segments[i + 1] <= scanLSN; i++)
+				segment(segments[i]).delete();
+		}
+	}
+
+	/**
+	 * Returns the number of times the log has been forced to disk.
+	 *
+	 * @return the number of times the log has been forced to disk
+	 */
+	public long forces() {
+		return forces.get();
+	}
+
+	/**
+	 * Writes all the appended log records to disk and closes the log file.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void close() throws IOException {
+		long lsn;
+		synchronized (this) {
+			lsn = endLSN;
+		}
+		force(lsn);
+		channel.close();
+	}
+
+	/**
+	 * Appends the specified log record.
+	 *
+	 * @param record
+	 *            a log record
+	 * @return the log sequence number right after the log record
+	 */
+	synchronized long append(byte[] record) {
+		if (failure != null)
+			throw new UncheckedIOException(failure);
+		long lsn = endLSN;
+		buffer.write(record, 0, record.length);
+		endLSN += record.length;
+		int tID = ByteBuffer.wrap(record, HEADER_SIZE + 1, 4).getInt();
+		if (record[HEADER_SIZE] == COMMIT || record[HEADER_SIZE] == ABORT)
+			tID2firstLSN.remove(tID);
+		else
+			tID2firstLSN.putIfAbsent(tID, lsn);
+		return endLSN;
+	}
+
+	/**
+	 * Waits until all the log records before the specified log sequence number are on disk. If no other thread is
+	 * writing the log, the calling thread writes and forces all the log records appended so far, including those of
+	 * other {@code Transaction}s (group commit).
+	 *
+	 * @param lsn
+	 *            a log sequence number
+	 */
+	void force(long lsn) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				byte[] bytes;
+				long target;
+				synchronized (this) {
+					while (flushing && durableLSN < lsn)
+						try {
+							awaitFlush(lsn);
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					if (durableLSN >= lsn)
+						return;
+					if (failure != null)
+						throw new UncheckedIOException(failure);
+					flushing = true;
+					bytes = buffer.toByteArray();
+					buffer.reset();
+					target = endLSN;
+				}
+				try {
+					writeAndForce(bytes);
+				} catch (IOException e) {
+					synchronized (this) {
+						failure = e;
+						flushing = false;
+						notifyAll();
+					}
+					throw new UncheckedIOException(e);
+				}
+				synchronized (this) {
+					durableLSN = target;
+					flushing = false;
+					notifyAll();
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits, while holding the monitor of this {@code LogManager}, until the thread writing the log has finished or the
+	 * log records before the specified log sequence number are on disk. The wait is a managed block so that a
+	 * {@code ForkJoinPool} running the committing {@code Transaction}s can activate spare threads instead of letting
+	 * every waiting committer hold up one of its workers.
+	 *
+	 * @param lsn
+	 *            a log sequence number
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting
+	 */
+	void awaitFlush(long lsn) throws InterruptedException {
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (!isReleasable())
+					LogManager.this.wait();
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return !flushing || durableLSN >= lsn;
+			}
+
+		});
+	}
+
+	/**
+	 * Ends the current log segment at the end of the log records on disk and starts a new one, unless the current log
+	 * segment is empty.
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@SuppressWarnings("resource")
+	synchronized void startSegment() throws IOException {
+		boolean interrupted = false;
+		try {
+			while (flushing) // the log records written by other threads are on disk once flushing is over
+				try {
+					awaitFlush(Long.MAX_VALUE);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		if (failure != null)
+			throw failure;
+		if (durableLSN == segmentLSN)
+			return;
+		FileChannel next = new RandomAccessFile(segment(durableLSN), "rw").getChannel();
+		channel.close();
+		channel = next;
+		segmentLSN = durableLSN;
+	}
+
+	/**
+	 * Returns the log sequence numbers at which the log segments in the directory begin.
+	 *
+	 * @return the log sequence numbers at which the log segments begin, in ascending order
+	 */
+	long[] segments() {
+		String[] names = directory.list((d, name) -> name.matches("log\\.\\d+"));
+		long[] segments = new long[names == null ? 0 : names.length];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = Long.parseLong(names[i].substring(4));
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Returns the log segment that begins at the specified log sequence number.
+	 *
+	 * @param lsn
+	 *            a log sequence number
+	 * @return the log segment that begins at the log sequence number
+	 */
+	File segment(long lsn) {
+		return new File(directory, String.format("log.%020d", lsn));
+	}
+
+	/**
+	 * Writes the specified bytes at the end of the log file and forces them to disk. Like waiting for a flush, the I/O
+	 * is a managed block so that a {@code ForkJoinPool} can keep running other {@code Transaction}s meanwhile.
+	 *
+	 * @param bytes
+	 *            the bytes to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeAndForce(byte[] bytes) throws IOException {
+		IOException[] failure = new IOException[1];
+		boolean[] done = new boolean[1];
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+				@Override
+				public boolean block() {
+					try {
+						ByteBuffer b = ByteBuffer.wrap(bytes);
+						while (b.hasRemaining())
+							channel.write(b);
+						channel.force(false);
+						forces.incrementAndGet();
+					} catch (IOException e) {
+						failure[0] = e;
+					}
+					done[0] = true;
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return done[0];
+				}
+
+			});
+		} catch (InterruptedException e) { // not thrown since block() does not wait
+			Thread.currentThread().interrupt();
+		}
+		if (failure[0] != null)
+			throw failure[0];
+	}
+
+	/**
+	 * Performs restart recovery: loads the latest checkpoint, redoes the updates logged after the checkpoint began,
+	 * rolls back the {@code Transaction}s that had neither committed nor aborted, and discards any incomplete log
+	 * record at the end of the log (and any log segment after it).
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@SuppressWarnings("resource")
+	void recover() throws IOException {
+		long scanLSN = 0, beginLSN = 0;
+		if (checkpointFile.exists())
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+				scanLSN = in.readLong();
+				beginLSN = in.readLong();
+				while (in.readBoolean()) {
+					int dID = in.readInt();
+					storageManager.write(dID, readValue(in));
+				}
+			}
+		// the updates of the transactions not finished yet (in the order of their first updates)
+		LinkedHashMap<Integer, LinkedHashMap<Integer, V>> tID2originalValues =
+				new LinkedHashMap<Integer, LinkedHashMap<Integer, V>>();
+		long lsn = scanLSN;
+		long[] segments = segments();
+		long base = segments.length > 0 && segments[0] <= lsn ? segments[0] : lsn;
+		CRC32 crc = new CRC32();
+		try {
+			read: for (int i = 0; i < segments.length && segments[i] <= lsn; i++) {
+				if (i + 1 < segments.length && segments[i + 1] <= lsn) // ends before the scan starts
+					continue;
+				base = segments[i];
+				File segment = segment(base);
+				long size = base + segment.length();
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+					for (long skipped = 0, n; skipped < lsn - base; skipped += n)
+						if ((n = in.skip(lsn - base - skipped)) <= 0)
+							break read;
+					while (lsn + HEADER_SIZE <= size) {
+						int length = in.readInt();
+						int checksum = in.readInt();
+						if (length <= 0 || length > MAX_RECORD_SIZE || lsn + HEADER_SIZE + length > size)
+							break read;
+						byte[] payload = new byte[length];
+						in.readFully(payload);
+						crc.reset();
+						crc.update(payload, 0, length);
+						if ((int) crc.getValue() != checksum)
+							break read;
+						DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+						byte type = record.readByte();
+						int tID = record.readInt();
+						if (type == UPDATE || type == COMPENSATION) {
+							int dID = record.readInt();
+							V pValue = readValue(record);
+							V dValue = readValue(record);
+							if (lsn >= beginLSN) // repeat history
+								if (dValue == null)
+									storageManager.remove(dID);
+								else
+									storageManager.write(dID, dValue);
+							if (type == UPDATE)
+								tID2originalValues.computeIfAbsent(tID, k -> new LinkedHashMap<Integer, V>())
+										.putIfAbsent(dID, pValue);
+						} else
+							tID2originalValues.remove(tID);
+						lsn += HEADER_SIZE + length;
+					}
+					if (lsn < size) // an incomplete log record
+						break read;
+				}
+			}
+		} catch (EOFException e) {
+		}
+		for (long segment : segments)
+			if (segment > base) // after the end of the log
+				segment(segment).delete();
+		channel = new RandomAccessFile(segment(base), "rw").getChannel();
+		channel.truncate(lsn - base);
+		channel.position(lsn - base);
+		segmentLSN = base;
+		endLSN = durableLSN = lsn;
+		for (Map.Entry<Integer, LinkedHashMap<Integer, V>> loser : tID2originalValues.entrySet()) {
+			for (Map.Entry<Integer, V> original : loser.getValue().entrySet())
+				restore(loser.getKey(), original.getKey(), original.getValue());
+			abort(loser.getKey());
+		}
+		force(endLSN);
+	}
+
+	/**
+	 * Constructs a log record.
+	 *
+	 * @param type
+	 *            the type of the log record
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param dID
+	 *            the ID of the data item (only for updates and compensations)
+	 * @param pValue
+	 *            the previous value of the data item (only for updates)
+	 * @param dValue
+	 *            the new value of the data item (only for updates and compensations)
+	 * @return the log record
+	 */
+	byte[] record(byte type, int tID, int dID, V pValue, V dValue) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeLong(0); // placeholder for the header
+			out.writeByte(type);
+			out.writeInt(tID);
+			if (type == UPDATE || type == COMPENSATION) {
+				out.writeInt(dID);
+				writeValue(out, pValue);
+				writeValue(out, dValue);
+			}
+			byte[] record = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+			ByteBuffer.wrap(record).putInt(record.length - HEADER_SIZE).putInt((int) crc.getValue());
+			return record;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the specified data item, which may be {@code null}.
+	 *
+	 * @param out
+	 *            a {@code DataOutput}
+	 * @param value
+	 *            a data item
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void writeValue(DataOutput out, V value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			codec.write(out, value);
+	}
+
+	/**
+	 * Reads a data item written by {@link #writeValue(DataOutput, Object)}.
+	 *
+	 * @param in
+	 *            a {@code DataInput}
+	 * @return the data item read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	V readValue(DataInput in) throws IOException {
+		return in.readBoolean() ? codec.read(in) : null;
+	}
+
+}
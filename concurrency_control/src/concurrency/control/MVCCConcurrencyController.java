@@ -0,0 +1,378 @@
+package concurrency.control;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import concurrency.StorageManager;
+import concurrency.control.Metrics.AbortReason;
+
+/**
+ * The {@code MVCCConcurrencyController} class implements multi-version concurrency control with snapshot isolation.
+ * Each {@code Transaction} reads a consistent snapshot as of its registration and never blocks or aborts due to reads.
+ * Writes are buffered privately and installed as new versions at commit time unless another {@code Transaction} that
+ * committed after the snapshot was taken has written the same data item (first-committer-wins). Versions that are no
+ * longer visible to any active {@code Transaction} are garbage-collected in the background.
+ *
+ * @param <V>
+ *            the type of data items
+ */
+public class MVCCConcurrencyController<V> extends ConcurrencyController<V> {
+
+	/**
+	 * A {@code Version} represents a committed version of a data item.
+	 *
+	 * @param <V>
+	 *            the type of data items
+	 */
+	static class Version<V> {
+
+		/**
+		 * The commit timestamp of the {@code Transaction} that has created this {@code Version}.
+		 */
+		final long timestamp;
+
+		/**
+		 * The value of the data item ({@code null} if the data item does not exist).
+		 */
+		final V value;
+
+		/**
+		 * The next older {@code Version} ({@code null} if there is none or it has been garbage-collected).
+		 */
+		volatile Version<V> older;
+
+		/**
+		 * Constructs a {@code Version}.
+		 * 
+		 * @param timestamp
+		 *            the commit timestamp of the {@code Transaction} that has created the {@code Version}
+		 * @param value
+		 *            the value of the data item
+		 * @param older
+		 *            the next older {@code Version}
+		 */
+		Version(long timestamp, V value, Version<V> older) {
+			this.timestamp = timestamp;
+			this.value = value;
+			this.older = older;
+		}
+
+	}
+
+	/**
+	 * The interval (in milliseconds) between two rounds of garbage collection.
+	 */
+	static final long GARBAGE_COLLECTION_INTERVAL = 1000;
+
+	/**
+	 * A {@code StorageManager} which always holds the latest committed value of each data item.
+	 */
+	StorageManager<V> storageManager;
+
+	/**
+	 * A map that associates data IDs with their newest {@code Version}s.
+	 */
+	ConcurrentHashMap<Integer, Version<V>> dID2version = new ConcurrentHashMap<Integer, Version<V>>();
+
+	/**
+	 * A map that associates the IDs of active {@code Transaction}s with their snapshot timestamps.
+	 */
+	ConcurrentHashMap<Integer, Long> tID2snapshot = new ConcurrentHashMap<Integer, Long>();
+
+	/**
+	 * A map that associates {@code Transaction} IDs with their buffered writes. Each map of buffered writes is only
+	 * accessed by the thread running the corresponding {@code Transaction}.
+	 */
+	ConcurrentHashMap<Integer, Map<Integer, V>> tID2writes = new ConcurrentHashMap<Integer, Map<Integer, V>>();
+
+	/**
+	 * The commit timestamp of the most recently committed {@code Transaction}. Updated only while holding the monitor of
+	 * this {@code MVCCConcurrencyController}, after the new {@code Version}s have been installed.
+	 */
+	volatile long lastCommitted = 0;
+
+	/**
+	 * The thread that periodically garbage-collects obsolete {@code Version}s ({@code null} until the first commit).
+	 */
+	volatile Thread collector;
+
+	/**
+	 * Constructs a {@code MVCCConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 */
+	public MVCCConcurrencyController(StorageManager<V> storageManager) {
+		this(storageManager, null);
+	}
+
+	/**
+	 * Constructs a {@code MVCCConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param logManager
+	 *            the {@code LogManager} that makes installed writes durable ({@code null} if writes are not to be
+	 *            logged)
+	 */
+	public MVCCConcurrencyController(StorageManager<V> storageManager, LogManager<V> logManager) {
+		super(storageManager, logManager);
+		this.storageManager = storageManager;
+	}
+
+	/**
+	 * Registers a {@code Transaction} and takes its snapshot.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	@Override
+	public void register(int tID) {
+		long snapshot;
+		do { // retry so that garbage collection cannot miss a snapshot older than the last commit
+			snapshot = lastCommitted;
+			tID2snapshot.put(tID, snapshot);
+		} while (snapshot != lastCommitted);
+	}
+
+	/**
+	 * Handles a read request by returning the value written by the {@code Transaction} itself or, if there is none, the
+	 * value in the snapshot of the {@code Transaction}.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param dID
+	 *            the ID of the data item for which the request was made
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             never thrown by this {@code MVCCConcurrencyController}
+	 */
+	@Override
+	public V read(int tID, int dID) throws InvalidTransactionIDException, AbortException {
+		Map<Integer, V> writes = tID2writes.get(tID);
+		if (writes != null && writes.containsKey(dID))
+			return writes.get(dID);
+		V value = snapshotValue(dID, snapshot(tID));
+		storageManager.traceRead(dID, value);
+		return value;
+	}
+
+	/**
+	 * Handles a range read request by returning the data items in the range as of the snapshot of the
+	 * {@code Transaction}, overlaid with the writes that the {@code Transaction} has buffered for the range. Data items
+	 * whose value is {@code null} (e.g., those inserted after the snapshot was taken) are left out. Since every data
+	 * item committed before the snapshot was taken has been stored by then, the stored IDs in the range cover all the
+	 * data items in the snapshot, and no phantom can appear in the result.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param fromID
+	 *            the smallest ID in the range (inclusive)
+	 * @param toID
+	 *            the end of the range (exclusive)
+	 * @return a map that associates the IDs of the data items in the range with their values in ascending order of the
+	 *         IDs
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             never thrown by this {@code MVCCConcurrencyController}
+	 */
+	@Override
+	public SortedMap<Integer, V> scan(int tID, int fromID, int toID)
+			throws InvalidTransactionIDException, AbortException {
+		SortedMap<Integer, V> dID2value = new TreeMap<Integer, V>();
+		if (fromID >= toID)
+			return dID2value;
+		long snapshot = snapshot(tID);
+		Map<Integer, V> writes = tID2writes.get(tID);
+		for (int dID : dIDs(fromID, toID))
+			if (writes == null || !writes.containsKey(dID)) {
+				V value = snapshotValue(dID, snapshot);
+				storageManager.traceRead(dID, value);
+				if (value != null)
+					dID2value.put(dID, value);
+			}
+		if (writes != null)
+			for (Map.Entry<Integer, V> write : writes.entrySet())
+				if (write.getKey() >= fromID && write.getKey() < toID && write.getValue() != null)
+					dID2value.put(write.getKey(), write.getValue());
+		return dID2value;
+	}
+
+	/**
+	 * Handles a write request by buffering the write until the {@code Transaction} commits.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param dID
+	 *            the ID of the data item for which the request was made
+	 * @param dValue
+	 *            the value of the data item for which the request was made
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             if another {@code Transaction} has already committed a newer {@code Version} of the data item
+	 */
+	@Override
+	public void write(int tID, int dID, V dValue, UndoLog<V> undoLog)
+			throws InvalidTransactionIDException, AbortException {
+		Version<V> version = dID2version.get(dID);
+		if (version != null && version.timestamp > snapshot(tID)) // would lose at commit anyway
+			throw abort(AbortReason.VALIDATION);
+		Map<Integer, V> writes = tID2writes.get(tID);
+		if (writes == null) {
+			writes = new LinkedHashMap<Integer, V>();
+			tID2writes.put(tID, writes);
+		}
+		writes.put(dID, dValue);
+	}
+
+	/**
+	 * Rolls back the specified {@code Transaction} by discarding its buffered writes.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} to roll back.
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 */
+	@Override
+	public void rollback(int tID, UndoLog<V> undoLog) {
+		tID2writes.remove(tID);
+		tID2snapshot.remove(tID);
+	}
+
+	/**
+	 * Commits the specified {@code Transaction} by installing its buffered writes as new {@code Version}s.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} to commit
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws AbortException
+	 *             if another {@code Transaction} that committed after the snapshot of the specified {@code Transaction}
+	 *             was taken has written one of the same data items
+	 */
+	@Override
+	public void commit(int tID, UndoLog<V> undoLog) throws AbortException {
+		Map<Integer, V> writes = tID2writes.remove(tID);
+		if (writes != null && !writes.isEmpty()) {
+			long snapshot = snapshot(tID);
+			synchronized (this) { // validation and installation only; reads never enter this section
+				for (Integer dID : writes.keySet()) {
+					Version<V> version = dID2version.get(dID);
+					if (version != null && version.timestamp > snapshot) {
+						tID2snapshot.remove(tID);
+						throw abort(AbortReason.VALIDATION);
+					}
+				}
+				long timestamp = lastCommitted + 1;
+				for (Map.Entry<Integer, V> write : writes.entrySet()) {
+					int dID = write.getKey();
+					dID2version.put(dID, new Version<V>(timestamp, write.getValue(), newestVersion(dID)));
+					store(tID, dID, write.getValue(), undoLog);
+				}
+				lastCommitted = timestamp;
+			}
+			super.commit(tID, undoLog); // outside the critical section so that commit records are forced in groups
+			if (collector == null)
+				startCollector();
+		}
+		tID2snapshot.remove(tID);
+	}
+
+	/**
+	 * Removes the {@code Version}s that are no longer visible to any active {@code Transaction}.
+	 * 
+	 * @return the number of {@code Version}s removed
+	 */
+	public int collectGarbage() {
+		long oldest = lastCommitted;
+		for (Long snapshot : tID2snapshot.values())
+			oldest = Math.min(oldest, snapshot);
+		int removed = 0;
+		for (Version<V> version : dID2version.values()) {
+			while (version.timestamp > oldest && version.older != null)
+				version = version.older;
+			for (Version<V> v = version.older; v != null; v = v.older)
+				removed++;
+			version.older = null; // the newest version visible to the oldest snapshot is the last one needed
+		}
+		return removed;
+	}
+
+	/**
+	 * Returns the snapshot timestamp of the specified {@code Transaction}, taking a snapshot if the {@code Transaction}
+	 * has not been registered.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @return the snapshot timestamp of the {@code Transaction}
+	 */
+	long snapshot(int tID) {
+		Long snapshot = tID2snapshot.get(tID);
+		if (snapshot == null) {
+			register(tID);
+			snapshot = tID2snapshot.get(tID);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns the value of the specified data item in the specified snapshot.
+	 * 
+	 * @param dID
+	 *            the ID of the data item
+	 * @param snapshot
+	 *            a snapshot timestamp
+	 * @return the value of the data item in the snapshot ({@code null} if the data item does not exist in the snapshot)
+	 * @throws AbortException
+	 *             if the {@code Version} for the snapshot has been garbage-collected
+	 */
+	V snapshotValue(int dID, long snapshot) throws AbortException {
+		Version<V> version = newestVersion(dID);
+		while (version != null && version.timestamp > snapshot)
+			version = version.older;
+		if (version == null) // cannot happen while the snapshot is registered (garbage collection keeps it)
+			throw abort(AbortReason.OTHER);
+		return version.value;
+	}
+
+	/**
+	 * Returns the newest {@code Version} of the specified data item, creating a {@code Version} from the value in the
+	 * {@code StorageManager} if the data item has never been accessed through this {@code MVCCConcurrencyController}.
+	 * Since the {@code Version} is created before any commit changes the stored value, every snapshot can see it.
+	 * 
+	 * @param dID
+	 *            the ID of the data item
+	 * @return the newest {@code Version} of the data item
+	 */
+	Version<V> newestVersion(int dID) {
+		return dID2version.computeIfAbsent(dID, k -> new Version<V>(0, storageManager.peek(k), null));
+	}
+
+	/**
+	 * Starts the garbage collection thread unless it has been started already.
+	 */
+	synchronized void startCollector() {
+		if (collector != null)
+			return;
+		collector = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(GARBAGE_COLLECTION_INTERVAL);
+					collectGarbage();
+				}
+			} catch (InterruptedException e) {
+			}
+		}, "version-collector");
+		collector.setDaemon(true);
+		collector.start();
+	}
+
+}
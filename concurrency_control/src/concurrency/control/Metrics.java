@@ -0,0 +1,687 @@
+package concurrency.control;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A {@code Metrics} instance collects statistics about a {@code ConcurrencyController}: the latency of each kind of
+ * operation, the number of aborts by {@code AbortReason}, the time spent waiting for locks (also per contended data
+ * item), and the size of the undo logs. All counters are striped ({@code LongAdder}s) and recording an event does not
+ * allocate memory (except when a data item takes over a slot for per-data item statistics), so the statistics can be
+ * collected at all times. They can be pulled through the methods of this class or through JMX after
+ * {@link #register(String)}.
+ * <p>
+ * The lock waits per data item are tracked in a fixed-size table in the manner of the space-saving algorithm (Metwally
+ * et al., "Efficient Computation of Frequent and Top-k Elements in Data Streams"): a data item hashes to a bucket of
+ * {@link #WAYS} slots, and a data item that finds no slot of its own takes over the slot with the least wait time in
+ * its bucket, inheriting that wait time as its error. A data item on which much time is spent waiting thus keeps (or
+ * regains) a slot however many other data items are waited for.
+ */
+public class Metrics implements MetricsMXBean {
+
+	/**
+	 * The {@code Operation} enumeration defines the operations whose latencies are recorded.
+	 */
+	public enum Operation {
+
+		/**
+		 * A read.
+		 */
+		READ,
+
+		/**
+		 * A write.
+		 */
+		WRITE,
+
+		/**
+		 * A commit.
+		 */
+		COMMIT,
+
+		/**
+		 * A rollback.
+		 */
+		ROLLBACK
+	}
+
+	/**
+	 * The {@code AbortReason} enumeration defines why a {@code Transaction} is aborted.
+	 */
+	public enum AbortReason {
+
+		/**
+		 * A read of a data item that a younger {@code Transaction} has already written.
+		 */
+		READ_TOO_LATE,
+
+		/**
+		 * A write of a data item that a younger {@code Transaction} has already read or written.
+		 */
+		WRITE_TOO_LATE,
+
+		/**
+		 * A deadlock that has been detected or prevented (wait-die or wound-wait).
+		 */
+		DEADLOCK,
+
+		/**
+		 * A lock request that has waited longer than the lock timeout.
+		 */
+		LOCK_TIMEOUT,
+
+		/**
+		 * A failed validation against the {@code Transaction}s that committed concurrently.
+		 */
+		VALIDATION,
+
+		/**
+		 * Any other reason (e.g., an interrupt while waiting for a lock).
+		 */
+		OTHER
+	}
+
+	/**
+	 * A {@code Histogram} counts values (e.g., latencies in nanoseconds) in buckets whose widths grow with the values so
+	 * that every value is represented with a relative error below 12.5% (as in HdrHistogram with 1 significant digit).
+	 */
+	public static class Histogram {
+
+		/**
+		 * The number of bits that distinguish the buckets sharing the same highest bit.
+		 */
+		static final int SUB_BUCKET_BITS = 3;
+
+		/**
+		 * The number of buckets sharing the same highest bit.
+		 */
+		static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		/**
+		 * The counts of the buckets.
+		 */
+		LongAdder[] counts = new LongAdder[bucket(Long.MAX_VALUE) + 1];
+
+		/**
+		 * The sum of the recorded values.
+		 */
+		LongAdder sum = new LongAdder();
+
+		/**
+		 * The largest recorded value.
+		 */
+		LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Constructs a {@code Histogram}.
+		 */
+		public Histogram() {
+			for (int i = 0; i < counts.length; i++)
+				counts[i] = new LongAdder();
+		}
+
+		/**
+		 * Records the specified value.
+		 *
+		 * @param value
+		 *            a value (negative values are recorded as {@code 0})
+		 */
+		public void record(long value) {
+			if (value < 0)
+				value = 0;
+			counts[bucket(value)].increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		/**
+		 * Returns the number of recorded values.
+		 *
+		 * @return the number of recorded values
+		 */
+		public long count() {
+			long count = 0;
+			for (LongAdder c : counts)
+				count += c.sum();
+			return count;
+		}
+
+		/**
+		 * Returns the sum of the recorded values.
+		 *
+		 * @return the sum of the recorded values
+		 */
+		public long sum() {
+			return sum.sum();
+		}
+
+		/**
+		 * Returns the mean of the recorded values.
+		 *
+		 * @return the mean of the recorded values ({@code 0} if no value has been recorded)
+		 */
+		public double mean() {
+			long count = count();
+			return count == 0 ? 0 : (double) sum() / count;
+		}
+
+		/**
+		 * Returns the largest recorded value.
+		 *
+		 * @return the largest recorded value ({@code 0} if no value has been recorded)
+		 */
+		public long max() {
+			return max.get();
+		}
+
+		/**
+		 * Returns the specified percentile of the recorded values.
+		 *
+		 * @param percentile
+		 *            a percentile (e.g., {@code 99.9})
+		 * @return an upper bound of the specified percentile that exceeds it by less than 12.5% ({@code 0} if no value
+		 *         has been recorded)
+		 */
+		public long percentile(double percentile) {
+			long[] counts = new long[this.counts.length];
+			long total = 0;
+			for (int i = 0; i < counts.length; i++)
+				total += counts[i] = this.counts[i].sum();
+			long rank = (long) Math.ceil(total * Math.min(percentile, 100) / 100);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++)
+				if ((seen += counts[i]) >= Math.max(rank, 1))
+					return Math.min(lowest(i + 1) - 1, max());
+			return 0;
+		}
+
+		/**
+		 * Returns the bucket of the specified value.
+		 *
+		 * @param value
+		 *            a non-negative value
+		 * @return the index of the bucket that counts the value
+		 */
+		static int bucket(long value) {
+			if (value < 2 * SUB_BUCKETS)
+				return (int) value;
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			return shift * SUB_BUCKETS + (int) (value >>> shift);
+		}
+
+		/**
+		 * Returns the smallest value counted by the specified bucket.
+		 *
+		 * @param bucket
+		 *            the index of a bucket
+		 * @return the smallest value counted by the bucket ({@code Long.MAX_VALUE} if there is no such bucket)
+		 */
+		static long lowest(int bucket) {
+			if (bucket < 2 * SUB_BUCKETS)
+				return bucket;
+			int shift = bucket / SUB_BUCKETS - 1;
+			long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+			return lowest < 0 ? Long.MAX_VALUE : lowest;
+		}
+
+	}
+
+	/**
+	 * A {@code DataItemStats} instance holds the statistics about the lock waits on a data item.
+	 */
+	public static class DataItemStats {
+
+		/**
+		 * The ID of the data item.
+		 */
+		int dID;
+
+		/**
+		 * The number of times {@code Transaction}s have waited for a lock on the data item.
+		 */
+		LongAdder waits = new LongAdder();
+
+		/**
+		 * The total time (in nanoseconds) that {@code Transaction}s have spent waiting for a lock on the data item.
+		 */
+		LongAdder waitTime = new LongAdder();
+
+		/**
+		 * The sum of the queue lengths that {@code Transaction}s have found when they started waiting.
+		 */
+		LongAdder queueDepths = new LongAdder();
+
+		/**
+		 * The longest queue that a {@code Transaction} has found when it started waiting.
+		 */
+		LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * The estimated wait time (in nanoseconds) of the data item whose slot the data item has taken over.
+		 */
+		long error;
+
+		/**
+		 * Constructs a {@code DataItemStats} instance.
+		 *
+		 * @param dID
+		 *            the ID of the data item
+		 * @param error
+		 *            the estimated wait time (in nanoseconds) of the data item whose slot the data item takes over
+		 *            ({@code 0} if none)
+		 */
+		DataItemStats(int dID, long error) {
+			this.dID = dID;
+			this.error = error;
+		}
+
+		/**
+		 * Returns the ID of the data item.
+		 *
+		 * @return the ID of the data item
+		 */
+		public int dID() {
+			return dID;
+		}
+
+		/**
+		 * Returns the number of times {@code Transaction}s have waited for a lock on the data item.
+		 *
+		 * @return the number of times {@code Transaction}s have waited for a lock on the data item
+		 */
+		public long waits() {
+			return waits.sum();
+		}
+
+		/**
+		 * Returns the total time that {@code Transaction}s have spent waiting for a lock on the data item since the
+		 * data item has had its slot.
+		 *
+		 * @return the total time (in nanoseconds) that {@code Transaction}s have spent waiting for a lock on the data
+		 *         item since it has had its slot
+		 */
+		public long waitTime() {
+			return waitTime.sum();
+		}
+
+		/**
+		 * Returns the maximum amount by which {@link #estimate()} may exceed the actual wait time on the data item
+		 * (the wait time inherited from the data item whose slot it has taken over).
+		 *
+		 * @return the maximum error (in nanoseconds) of the estimated wait time
+		 */
+		public long error() {
+			return error;
+		}
+
+		/**
+		 * Returns an upper bound on the total time that {@code Transaction}s have spent waiting for a lock on the data
+		 * item, which is used to rank data items.
+		 *
+		 * @return the wait time recorded since the data item has had its slot plus the inherited error (in
+		 *         nanoseconds)
+		 */
+		public long estimate() {
+			return waitTime() + error;
+		}
+
+		/**
+		 * Returns the average length of the queue that {@code Transaction}s have found when they started waiting
+		 * (including themselves).
+		 *
+		 * @return the average queue depth
+		 */
+		public double meanQueueDepth() {
+			long waits = waits();
+			return waits == 0 ? 0 : (double) queueDepths.sum() / waits;
+		}
+
+		/**
+		 * Returns the longest queue that a {@code Transaction} has found when it started waiting (including itself).
+		 *
+		 * @return the maximum queue depth
+		 */
+		public long maxQueueDepth() {
+			return maxQueueDepth.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d (%d waits, %.3f ms waited%s, queue depth %.1f avg %d max)", dID, waits(),
+					waitTime() / 1e6, error == 0 ? "" : String.format(" + up to %.3f ms", error / 1e6),
+					meanQueueDepth(), maxQueueDepth());
+		}
+
+	}
+
+	/**
+	 * The default number of slots for the data items whose lock waits are tracked individually.
+	 */
+	public static final int DEFAULT_TRACKED_DATA_ITEMS = 4096;
+
+	/**
+	 * The number of slots in each bucket of the table of {@code DataItemStats}.
+	 */
+	static final int WAYS = 4;
+
+	/**
+	 * The latency (in nanoseconds) of each {@code Operation}.
+	 */
+	Histogram[] latencies = new Histogram[Operation.values().length];
+
+	/**
+	 * The number of aborts for each {@code AbortReason}.
+	 */
+	LongAdder[] aborts = new LongAdder[AbortReason.values().length];
+
+	/**
+	 * The time (in nanoseconds) spent in each lock wait.
+	 */
+	Histogram lockWaits = new Histogram();
+
+	/**
+	 * The slots for the {@code DataItemStats} of the data items that have been waited for, in buckets of {@link #WAYS}
+	 * slots ({@code null} for the slots not used yet).
+	 */
+	AtomicReferenceArray<DataItemStats> slots;
+
+	/**
+	 * The number of buckets minus 1 (the number of buckets is a power of 2).
+	 */
+	int mask;
+
+	/**
+	 * The number of entries currently in the undo logs of the active {@code Transaction}s.
+	 */
+	LongAdder undoLogEntries = new LongAdder();
+
+	/**
+	 * The number of entries in the undo log of each {@code Transaction} that has made updates, when it finishes.
+	 */
+	Histogram undoLogSizes = new Histogram();
+
+	/**
+	 * Constructs a {@code Metrics} instance.
+	 */
+	public Metrics() {
+		this(DEFAULT_TRACKED_DATA_ITEMS);
+	}
+
+	/**
+	 * Constructs a {@code Metrics} instance.
+	 *
+	 * @param trackedDataItems
+	 *            the number of slots for the data items whose lock waits are tracked individually (rounded up to a
+	 *            power of 2 and at least {@link #WAYS}; lock waits on all data items are included in the totals)
+	 */
+	public Metrics(int trackedDataItems) {
+		int buckets = Math.max(1, (trackedDataItems + WAYS - 1) / WAYS);
+		if (buckets > 1)
+			buckets = Integer.highestOneBit(buckets - 1) << 1;
+		slots = new AtomicReferenceArray<DataItemStats>(buckets * WAYS);
+		mask = buckets - 1;
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new Histogram();
+		for (int i = 0; i < aborts.length; i++)
+			aborts[i] = new LongAdder();
+	}
+
+	/**
+	 * Records the latency of an {@code Operation}.
+	 *
+	 * @param operation
+	 *            an {@code Operation}
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public void record(Operation operation, long nanos) {
+		latencies[operation.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Records an abort.
+	 *
+	 * @param reason
+	 *            the {@code AbortReason}
+	 */
+	public void aborted(AbortReason reason) {
+		aborts[reason.ordinal()].increment();
+	}
+
+	/**
+	 * Records a lock wait.
+	 *
+	 * @param dID
+	 *            the ID of the data item
+	 * @param nanos
+	 *            the time (in nanoseconds) spent waiting
+	 * @param queueDepth
+	 *            the number of lock requests waiting for the data item when the wait began (including the waiting one)
+	 */
+	public void lockWaited(int dID, long nanos, int queueDepth) {
+		lockWaits.record(nanos);
+		DataItemStats stats = stats(dID);
+		stats.waits.increment();
+		stats.waitTime.add(nanos);
+		stats.queueDepths.add(queueDepth);
+		stats.maxQueueDepth.accumulate(queueDepth);
+	}
+
+	/**
+	 * Returns the {@code DataItemStats} of the specified data item, taking over the slot with the least estimated wait
+	 * time in its bucket if the data item has no slot.
+	 *
+	 * @param dID
+	 *            the ID of a data item
+	 * @return the {@code DataItemStats} of the data item
+	 */
+	DataItemStats stats(int dID) {
+		int h = dID * 0x9E3779B9;
+		int bucket = ((h ^ h >>> 16) & mask) * WAYS;
+		while (true) {
+			int slot = -1;
+			DataItemStats victim = null;
+			for (int i = bucket; i < bucket + WAYS; i++) {
+				DataItemStats stats = slots.get(i);
+				if (stats == null) { // the slots of a bucket are used in order and never freed
+					slot = i;
+					victim = null;
+					break;
+				}
+				if (stats.dID == dID)
+					return stats;
+				if (victim == null || stats.estimate() < victim.estimate()) {
+					slot = i;
+					victim = stats;
+				}
+			}
+			DataItemStats stats = new DataItemStats(dID, victim == null ? 0 : victim.estimate());
+			if (slots.compareAndSet(slot, victim, stats))
+				return stats;
+		}
+	}
+
+	/**
+	 * Records that an entry has been appended to the undo log of a {@code Transaction}.
+	 */
+	public void undoLogAppended() {
+		undoLogEntries.increment();
+	}
+
+	/**
+	 * Records that the undo log of a {@code Transaction} has been discarded because the {@code Transaction} has
+	 * committed or rolled back.
+	 *
+	 * @param entries
+	 *            the number of entries in the undo log
+	 */
+	public void undoLogDiscarded(int entries) {
+		undoLogEntries.add(-entries);
+		undoLogSizes.record(entries);
+	}
+
+	/**
+	 * Returns the latency {@code Histogram} of the specified {@code Operation}.
+	 *
+	 * @param operation
+	 *            an {@code Operation}
+	 * @return the {@code Histogram} of the latencies (in nanoseconds) of the {@code Operation}
+	 */
+	public Histogram latency(Operation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	/**
+	 * Returns the number of aborts for the specified {@code AbortReason}.
+	 *
+	 * @param reason
+	 *            an {@code AbortReason}
+	 * @return the number of aborts for the {@code AbortReason}
+	 */
+	public long aborts(AbortReason reason) {
+		return aborts[reason.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the {@code Histogram} of the lock waits.
+	 *
+	 * @return the {@code Histogram} of the time (in nanoseconds) spent in each lock wait
+	 */
+	public Histogram lockWaits() {
+		return lockWaits;
+	}
+
+	/**
+	 * Returns the data items on which {@code Transaction}s have spent the most time waiting for locks.
+	 *
+	 * @param k
+	 *            the maximum number of data items to return
+	 * @return the {@code DataItemStats} of the data items in descending order of the estimated wait time
+	 */
+	public List<DataItemStats> hotDataItems(int k) {
+		List<DataItemStats> stats = new ArrayList<DataItemStats>();
+		for (int i = 0; i < slots.length(); i++)
+			if (slots.get(i) != null)
+				stats.add(slots.get(i));
+		Collections.sort(stats, (s1, s2) -> Long.compare(s2.estimate(), s1.estimate()));
+		return stats.subList(0, Math.min(k, stats.size()));
+	}
+
+	/**
+	 * Returns the {@code Histogram} of the undo log sizes.
+	 *
+	 * @return the {@code Histogram} of the number of entries in the undo log of each {@code Transaction} that has made
+	 *         updates, when it finishes
+	 */
+	public Histogram undoLogSizes() {
+		return undoLogSizes;
+	}
+
+	/**
+	 * Registers this {@code Metrics} instance with the platform MBean server.
+	 *
+	 * @param name
+	 *            the name that distinguishes this {@code Metrics} instance (e.g., the name of the
+	 *            {@code ConcurrencyController})
+	 * @return the {@code ObjectName} under which this {@code Metrics} instance is registered
+	 * @throws JMException
+	 *             if this {@code Metrics} instance cannot be registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("concurrency.control:type=Metrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public Map<String, Long> getOperationCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (Operation operation : Operation.values())
+			counts.put(operation.name(), latency(operation).count());
+		return counts;
+	}
+
+	@Override
+	public Map<String, Double> getMeanLatencies() {
+		Map<String, Double> latencies = new LinkedHashMap<String, Double>();
+		for (Operation operation : Operation.values())
+			latencies.put(operation.name(), latency(operation).mean());
+		return latencies;
+	}
+
+	@Override
+	public Map<String, Long> getP99Latencies() {
+		Map<String, Long> latencies = new LinkedHashMap<String, Long>();
+		for (Operation operation : Operation.values())
+			latencies.put(operation.name(), latency(operation).percentile(99));
+		return latencies;
+	}
+
+	@Override
+	public Map<String, Long> getAbortCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (AbortReason reason : AbortReason.values())
+			counts.put(reason.name(), aborts(reason));
+		return counts;
+	}
+
+	@Override
+	public long getLockWaits() {
+		return lockWaits.count();
+	}
+
+	@Override
+	public long getLockWaitTime() {
+		return lockWaits.sum();
+	}
+
+	@Override
+	public long getP99LockWait() {
+		return lockWaits.percentile(99);
+	}
+
+	@Override
+	public Map<Integer, Long> getHotDataItems() {
+		Map<Integer, Long> items = new LinkedHashMap<Integer, Long>();
+		for (DataItemStats stats : hotDataItems(10))
+			items.put(stats.dID(), stats.estimate());
+		return items;
+	}
+
+	@Override
+	public long getUndoLogEntries() {
+		return undoLogEntries.sum();
+	}
+
+	@Override
+	public double getMeanUndoLogSize() {
+		return undoLogSizes.mean();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		for (Operation operation : Operation.values()) {
+			Histogram h = latency(operation);
+			s.append(String.format("%s: %d (mean %.1f us, p99 %.1f us)%n", operation, h.count(), h.mean() / 1e3,
+					h.percentile(99) / 1e3));
+		}
+		s.append("aborts: ").append(getAbortCounts()).append(String.format("%n"));
+		s.append(String.format("lock waits: %d (mean %.3f ms, p99 %.3f ms), hottest: %s%n", lockWaits.count(),
+				lockWaits.mean() / 1e6, lockWaits.percentile(99) / 1e6, hotDataItems(3)));
+		s.append(String.format("undo log: %d entries (mean %.1f per transaction)", getUndoLogEntries(),
+				getMeanUndoLogSize()));
+		return s.toString();
+	}
+
+}
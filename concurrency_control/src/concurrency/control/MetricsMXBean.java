@@ -0,0 +1,82 @@
+package concurrency.control;
+
+import java.util.Map;
+
+/**
+ * The {@code MetricsMXBean} interface defines the attributes through which {@code Metrics} are exposed via JMX.
+ * Latencies and wait times are in nanoseconds.
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Returns the number of times each operation has completed.
+	 *
+	 * @return a map that associates the name of each operation with the number of times it has completed
+	 */
+	Map<String, Long> getOperationCounts();
+
+	/**
+	 * Returns the mean latency of each operation.
+	 *
+	 * @return a map that associates the name of each operation with its mean latency
+	 */
+	Map<String, Double> getMeanLatencies();
+
+	/**
+	 * Returns the 99th percentile latency of each operation.
+	 *
+	 * @return a map that associates the name of each operation with its 99th percentile latency
+	 */
+	Map<String, Long> getP99Latencies();
+
+	/**
+	 * Returns the number of aborts for each reason.
+	 *
+	 * @return a map that associates the name of each abort reason with the number of aborts
+	 */
+	Map<String, Long> getAbortCounts();
+
+	/**
+	 * Returns the number of lock waits.
+	 *
+	 * @return the number of lock waits
+	 */
+	long getLockWaits();
+
+	/**
+	 * Returns the total time spent waiting for locks.
+	 *
+	 * @return the total time spent waiting for locks
+	 */
+	long getLockWaitTime();
+
+	/**
+	 * Returns the 99th percentile of the time spent in each lock wait.
+	 *
+	 * @return the 99th percentile of the time spent in each lock wait
+	 */
+	long getP99LockWait();
+
+	/**
+	 * Returns the data items on which the most time has been spent waiting for locks.
+	 *
+	 * @return a map that associates the IDs of up to 10 data items with the (estimated) time in nanoseconds spent
+	 *         waiting for locks on them
+	 */
+	Map<Integer, Long> getHotDataItems();
+
+	/**
+	 * Returns the number of entries currently in the undo logs of the active {@code Transaction}s.
+	 *
+	 * @return the number of entries currently in the undo logs
+	 */
+	long getUndoLogEntries();
+
+	/**
+	 * Returns the mean number of entries in the undo log of a {@code Transaction} that has made updates.
+	 *
+	 * @return the mean undo log size
+	 */
+	double getMeanUndoLogSize();
+
+}
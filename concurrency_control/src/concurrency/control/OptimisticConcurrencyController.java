@@ -0,0 +1,295 @@
+package concurrency.control;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import concurrency.StorageManager;
+import concurrency.control.Metrics.AbortReason;
+
+/**
+ * The {@code OptimisticConcurrencyController} class implements optimistic concurrency control with backward
+ * validation. During the read phase, a {@code Transaction} reads data items without any checks while recording its read
+ * set and buffering its writes. At commit time, the read set is validated against the writes of the
+ * {@code Transaction}s that have committed since the {@code Transaction} started, and the buffered writes are installed
+ * if the validation succeeds.
+ *
+ * @param <V>
+ *            the type of data items
+ */
+public class OptimisticConcurrencyController<V> extends ConcurrencyController<V> {
+
+	/**
+	 * A {@code Workspace} holds the private state of a {@code Transaction} during its read phase. It is only accessed by
+	 * the thread running the {@code Transaction}.
+	 *
+	 * @param <V>
+	 *            the type of data items
+	 */
+	static class Workspace<V> {
+
+		/**
+		 * The commit timestamp of the last {@code Transaction} that had committed when the {@code Transaction} started.
+		 */
+		long start;
+
+		/**
+		 * The IDs of the data items that the {@code Transaction} has read.
+		 */
+		HashSet<Integer> readSet = new HashSet<Integer>();
+
+		/**
+		 * The ranges of IDs that the {@code Transaction} has read, each given by the smallest ID (inclusive) and the end
+		 * of the range (exclusive).
+		 */
+		ArrayList<int[]> ranges = new ArrayList<int[]>();
+
+		/**
+		 * The buffered writes of the {@code Transaction}.
+		 */
+		LinkedHashMap<Integer, V> writes = new LinkedHashMap<Integer, V>();
+
+		/**
+		 * Constructs a {@code Workspace}.
+		 *
+		 * @param start
+		 *            the commit timestamp of the last {@code Transaction} that had committed when the
+		 *            {@code Transaction} started
+		 */
+		Workspace(long start) {
+			this.start = start;
+		}
+
+	}
+
+	/**
+	 * A {@code StorageManager}.
+	 */
+	StorageManager<V> storageManager;
+
+	/**
+	 * A map that associates the IDs of active {@code Transaction}s with their {@code Workspace}s.
+	 */
+	ConcurrentHashMap<Integer, Workspace<V>> tID2workspace = new ConcurrentHashMap<Integer, Workspace<V>>();
+
+	/**
+	 * A map that associates data IDs with the commit timestamps of the last {@code Transaction}s that have written them.
+	 * Validating a {@code Transaction} against it costs time proportional to the size of its read set rather than to
+	 * the number of {@code Transaction}s that committed since it started.
+	 */
+	ConcurrentHashMap<Integer, Long> dID2lastWritten = new ConcurrentHashMap<Integer, Long>();
+
+	/**
+	 * The commit timestamp of the most recently committed {@code Transaction}. Updated only while holding the monitor of
+	 * this {@code OptimisticConcurrencyController}, after the writes have been installed.
+	 */
+	volatile long lastCommitted = 0;
+
+	/**
+	 * Constructs an {@code OptimisticConcurrencyController}.
+	 *
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 */
+	public OptimisticConcurrencyController(StorageManager<V> storageManager) {
+		this(storageManager, null);
+	}
+
+	/**
+	 * Constructs an {@code OptimisticConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param logManager
+	 *            the {@code LogManager} that makes installed writes durable ({@code null} if writes are not to be
+	 *            logged)
+	 */
+	public OptimisticConcurrencyController(StorageManager<V> storageManager, LogManager<V> logManager) {
+		super(storageManager, logManager);
+		this.storageManager = storageManager;
+	}
+
+	/**
+	 * Registers a {@code Transaction}.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	@Override
+	public void register(int tID) {
+		tID2workspace.put(tID, new Workspace<V>(lastCommitted));
+	}
+
+	/**
+	 * Handles a read request by returning the value written by the {@code Transaction} itself or, if there is none, the
+	 * stored value.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param dID
+	 *            the ID of the data item for which the request was made
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             never thrown by this {@code OptimisticConcurrencyController}
+	 */
+	@Override
+	public V read(int tID, int dID) throws InvalidTransactionIDException, AbortException {
+		Workspace<V> workspace = workspace(tID);
+		if (workspace.writes.containsKey(dID))
+			return workspace.writes.get(dID);
+		workspace.readSet.add(dID);
+		return storageManager.read(dID);
+	}
+
+	/**
+	 * Handles a range read request by reading the stored data items in the range, overlaid with the writes that the
+	 * {@code Transaction} has buffered for the range. The range is recorded so that validation also detects data items
+	 * inserted into the range by {@code Transaction}s that commit in the meantime (phantoms).
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param fromID
+	 *            the smallest ID in the range (inclusive)
+	 * @param toID
+	 *            the end of the range (exclusive)
+	 * @return a map that associates the IDs of the data items in the range with their values in ascending order of the
+	 *         IDs
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             never thrown by this {@code OptimisticConcurrencyController}
+	 */
+	@Override
+	public SortedMap<Integer, V> scan(int tID, int fromID, int toID)
+			throws InvalidTransactionIDException, AbortException {
+		SortedMap<Integer, V> dID2value = new TreeMap<Integer, V>();
+		if (fromID >= toID)
+			return dID2value;
+		Workspace<V> workspace = workspace(tID);
+		workspace.ranges.add(new int[] { fromID, toID });
+		for (int dID : dIDs(fromID, toID))
+			if (!workspace.writes.containsKey(dID))
+				dID2value.put(dID, storageManager.read(dID));
+		for (Map.Entry<Integer, V> write : workspace.writes.entrySet())
+			if (write.getKey() >= fromID && write.getKey() < toID)
+				dID2value.put(write.getKey(), write.getValue());
+		return dID2value;
+	}
+
+	/**
+	 * Handles a write request by buffering the write until the {@code Transaction} commits.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param dID
+	 *            the ID of the data item for which the request was made
+	 * @param dValue
+	 *            the value of the data item for which the request was made
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             never thrown by this {@code OptimisticConcurrencyController}
+	 */
+	@Override
+	public void write(int tID, int dID, V dValue, UndoLog<V> undoLog)
+			throws InvalidTransactionIDException, AbortException {
+		workspace(tID).writes.put(dID, dValue);
+	}
+
+	/**
+	 * Rolls back the specified {@code Transaction} by discarding its {@code Workspace}.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction} to roll back.
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 */
+	@Override
+	public void rollback(int tID, UndoLog<V> undoLog) {
+		tID2workspace.remove(tID);
+	}
+
+	/**
+	 * Commits the specified {@code Transaction} after validating it. Read-only {@code Transaction}s are validated
+	 * concurrently with other {@code Transaction}s; the others are validated again in the short critical section that
+	 * also installs the writes.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction} to commit
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws AbortException
+	 *             if a {@code Transaction} that committed after the specified {@code Transaction} started has written a
+	 *             data item that the specified {@code Transaction} has read
+	 */
+	@Override
+	public void commit(int tID, UndoLog<V> undoLog) throws AbortException {
+		Workspace<V> workspace = tID2workspace.remove(tID);
+		if (workspace == null)
+			return;
+		validate(workspace);
+		if (workspace.writes.isEmpty())
+			return;
+		synchronized (this) {
+			validate(workspace);
+			long timestamp = lastCommitted + 1;
+			// record the writes before installing them so that concurrent validations see the partial writes
+			for (Integer dID : workspace.writes.keySet())
+				dID2lastWritten.put(dID, timestamp);
+			for (Map.Entry<Integer, V> write : workspace.writes.entrySet())
+				store(tID, write.getKey(), write.getValue(), undoLog);
+			lastCommitted = timestamp;
+		}
+		super.commit(tID, undoLog); // outside the critical section so that commit records are forced in groups
+	}
+
+	/**
+	 * Checks whether any data item in the read set or in a range read recorded in the specified {@code Workspace} has
+	 * been written (or inserted) by a {@code Transaction} that committed (or started installing its writes) after the
+	 * {@code Workspace} was created. The data items in each range are those stored at validation time, so they include
+	 * the data items read by the range read as well as those inserted since.
+	 *
+	 * @param workspace
+	 *            a {@code Workspace}
+	 * @throws AbortException
+	 *             if such a data item exists
+	 */
+	void validate(Workspace<V> workspace) throws AbortException {
+		for (Integer dID : workspace.readSet) {
+			Long timestamp = dID2lastWritten.get(dID);
+			if (timestamp != null && timestamp > workspace.start)
+				throw abort(AbortReason.VALIDATION);
+		}
+		for (int[] range : workspace.ranges)
+			for (int dID : dIDs(range[0], range[1])) {
+				Long timestamp = dID2lastWritten.get(dID);
+				if (timestamp != null && timestamp > workspace.start)
+					throw abort(AbortReason.VALIDATION);
+			}
+	}
+
+	/**
+	 * Returns the {@code Workspace} of the specified {@code Transaction}, registering the {@code Transaction} if
+	 * necessary.
+	 *
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @return the {@code Workspace} of the {@code Transaction}
+	 */
+	Workspace<V> workspace(int tID) {
+		Workspace<V> workspace = tID2workspace.get(tID);
+		if (workspace == null) {
+			register(tID);
+			workspace = tID2workspace.get(tID);
+		}
+		return workspace;
+	}
+
+}
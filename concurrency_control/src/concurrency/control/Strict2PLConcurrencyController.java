@@ -1,14 +1,19 @@
 package concurrency.control;
 
-//import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import concurrency.StorageManager;
+import concurrency.control.LockManager.LockMode;
+import concurrency.control.Metrics.AbortReason;
 
 /**
- * The {@code Strict2PLConcurrencyController} class implements the strict 2 phase-locking protocol.
+ * The {@code Strict2PLConcurrencyController} class implements the strict 2 phase-locking protocol. Range reads are
+ * protected from phantoms by next-key locking: a range read locks the data items in the range and the next data item
+ * after the range (or {@link #SUPREMUM}), and an insertion locks the data item that follows the new one until the new
+ * data item is stored. Because {@link #SUPREMUM} is locked in place of a data item, it cannot be used as a data ID.
  * 
  * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
  *
@@ -18,14 +23,22 @@ import concurrency.StorageManager;
 public class Strict2PLConcurrencyController<V> extends ConcurrencyController<V> {
 
 	/**
-	 * A map that associates data IDs with locks.
+	 * The ID locked in place of the next data item when no data item follows a range or an inserted data item. Read and
+	 * write requests for this ID are rejected.
 	 */
-	HashMap<Integer, ReentrantReadWriteLock> dID2lock = new HashMap<Integer, ReentrantReadWriteLock>();
+	public static final int SUPREMUM = Integer.MAX_VALUE;
 
 	/**
-	 * A map that associates transaction IDs with data IDs. Data IDs for each transaction ID is stored in a HashSet.
+	 * The {@code LockManager} that grants shared and exclusive locks on data items.
 	 */
-	HashMap<Integer, HashSet<Integer>> tID2dID = new HashMap<Integer, HashSet<Integer>>();
+	LockManager lockManager;
+
+	/**
+	 * A map that associates transaction IDs with data IDs. Data IDs for each transaction ID is stored in a HashSet which
+	 * is only accessed by the thread running the corresponding {@code Transaction}.
+	 */
+	ConcurrentHashMap<Integer, HashSet<Integer>> tID2dID = new ConcurrentHashMap<Integer, HashSet<Integer>>();
+
 	/**
 	 * Constructs a {@code Strict2PLConcurrencyController}.
 	 * 
@@ -33,7 +46,46 @@ public class Strict2PLConcurrencyController<V> extends ConcurrencyController<V>
 	 *            a {@code StorageManager}
 	 */
 	public Strict2PLConcurrencyController(StorageManager<V> storageManager) {
-		super(storageManager);
+		this(storageManager, new LockManager());
+	}
+
+	/**
+	 * Constructs a {@code Strict2PLConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param lockManager
+	 *            the {@code LockManager} to use (which determines how deadlocks are handled)
+	 */
+	public Strict2PLConcurrencyController(StorageManager<V> storageManager, LockManager lockManager) {
+		this(storageManager, lockManager, null);
+	}
+
+	/**
+	 * Constructs a {@code Strict2PLConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param lockManager
+	 *            the {@code LockManager} to use (which determines how deadlocks are handled)
+	 * @param logManager
+	 *            the {@code LogManager} that makes updates durable ({@code null} if updates are not to be logged)
+	 */
+	public Strict2PLConcurrencyController(StorageManager<V> storageManager, LockManager lockManager,
+			LogManager<V> logManager) {
+		super(storageManager, logManager, lockManager.metrics());
+		this.lockManager = lockManager;
+	}
+
+	/**
+	 * Registers a {@code Transaction}.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	@Override
+	public void register(int tID) {
+		lockManager.register(tID);
 	}
 
 	/**
@@ -47,26 +99,13 @@ public class Strict2PLConcurrencyController<V> extends ConcurrencyController<V>
 	 *             if an invalid {@code Transaction} ID is given
 	 * @throws AbortException
 	 *             if the request cannot be permitted and thus the related {@code Transaction} must be aborted
+	 * @throws IllegalArgumentException
+	 *             if the data ID is {@link #SUPREMUM}
 	 */
 	@Override
 	public V read(int tID, int dID) throws InvalidTransactionIDException, AbortException {
-//		Lock lock = getLock(dID).readLock();
-//		lock.lock(); // wait until the read lock is acquired
-//		remember the lock so that it can be released/unlocked when releaseAllRemainingLocks(int tID) is called
-		ReentrantReadWriteLock.WriteLock rlock = getLock(dID).writeLock();   //get the lock respected to the data ID
-		//ReentrantReadWriteLock.WriteLock wlock = getLock(dID).writeLock();  
-		rlock.lock(); // wait until the read lock is acquired
-		//wlock.lock();
-		
-		if(!tID2dID.containsKey(tID)) {    //if transaction ID is not in the tID2dID Hash Map
-			HashSet<Integer> hset = new HashSet<>();   //create a new hashset and add the data IDs dID into the set
-			hset.add(dID);
-			tID2dID.put(tID, hset);  //put the new set into the transaction ID -- data ID HashMap
-		} else {
-			HashSet<Integer> hset = tID2dID.get(tID);  //if transaction ID is already in transaction ID -- data ID HashMap
-			hset.add(dID);    //add new dID into the HashSet
-			tID2dID.put(tID, hset);
-		}
+		checkDID(dID);
+		lock(tID, dID, LockMode.SHARED); // wait until the shared lock is acquired
 		return super.read(tID, dID);  //perform the read excution
 	}
 
@@ -79,32 +118,59 @@ public class Strict2PLConcurrencyController<V> extends ConcurrencyController<V>
 	 *            the ID of the data item for which the request was made
 	 * @param dValue
 	 *            the value of the data item for which the request was made
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
 	 * @throws InvalidTransactionIDException
 	 *             if an invalid {@code Transaction} ID is given
 	 * @throws AbortException
 	 *             if the request cannot be permitted and thus the related {@code Transaction} must be aborted
+	 * @throws IllegalArgumentException
+	 *             if the data ID is {@link #SUPREMUM}
 	 */
 	@Override
-	public void write(int tID, int dID, V dValue) throws InvalidTransactionIDException, AbortException {
-//		Lock lock = getLock(dID).writeLock();
-//		lock.lock(); // wait until the write lock is acquired
-//		remember the lock so that it can be released/unlocked when releaseAllRemainingLocks(int tID) is called
-
-		ReentrantReadWriteLock.WriteLock wlock = getLock(dID).writeLock(); // get write lock for data ID dID
-		ReentrantReadWriteLock.ReadLock rlock = getLock(dID).readLock();
-		wlock.lock();  //wait unitl the write lock is acquired
-		rlock.lock();
-		
-		if(!tID2dID.containsKey(tID)) {        //if transcation ID is not in tID2dID hashmap,
-			HashSet<Integer> hset = new HashSet<>();  // create the HashSet with current dID
-			hset.add(dID);
-			tID2dID.put(tID, hset);  // sore the (transcation ID, set(dID)) into the tID2dID hashmap
-		} else {
-			HashSet<Integer> hset = tID2dID.get(tID);  //transaction ID tID is already inside the tID2dID hashmap
-			hset.add(dID);   //add the data ID dID into corresponding hashset in the tID2dID hashmap
-			tID2dID.put(tID, hset);
-		}
-		super.write(tID, dID, dValue);  //perform write excution
+	public void write(int tID, int dID, V dValue, UndoLog<V> undoLog)
+			throws InvalidTransactionIDException, AbortException {
+		checkDID(dID);
+		lock(tID, dID, LockMode.EXCLUSIVE); // wait until the exclusive lock is acquired (upgrading a shared lock)
+		if (contains(dID))
+			super.write(tID, dID, dValue, undoLog);  //perform write excution
+		else
+			insert(tID, dID, dValue, undoLog);
+	}
+
+	/**
+	 * Handles a range read request after locking the data items in the range and the next data item (next-key
+	 * locking) so that no other {@code Transaction} can insert a data item into the range until the requesting
+	 * {@code Transaction} finishes.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param fromID
+	 *            the smallest ID in the range (inclusive)
+	 * @param toID
+	 *            the end of the range (exclusive)
+	 * @return a map that associates the IDs of the data items in the range with their values in ascending order of the
+	 *         IDs
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             if the request cannot be permitted and thus the related {@code Transaction} must be aborted
+	 */
+	@Override
+	public SortedMap<Integer, V> scan(int tID, int fromID, int toID)
+			throws InvalidTransactionIDException, AbortException {
+		if (fromID < toID)
+			while (true) {
+				int[] dIDs = dIDs(fromID, toID);
+				int next = nextDID(toID, true);
+				for (int dID : dIDs)
+					lock(tID, dID, LockMode.SHARED);
+				lock(tID, next, LockMode.SHARED);
+				// done unless a data item was inserted or removed before the locks were acquired
+				if (next == nextDID(toID, true) && Arrays.equals(dIDs, dIDs(fromID, toID)))
+					break;
+			}
+		return super.scan(tID, fromID, toID);
 	}
 
 	/**
@@ -112,57 +178,152 @@ public class Strict2PLConcurrencyController<V> extends ConcurrencyController<V>
 	 * 
 	 * @param tID
 	 *            the ID of the {@code Transaction} to roll back.
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
 	 */
 	@Override
-	public void rollback(int tID) {
-		super.rollback(tID);
+	public void rollback(int tID, UndoLog<V> undoLog) {
+		super.rollback(tID, undoLog);
 		releaseAllRemainingLocks(tID);
 	}
 
 	/**
-	 * Commits the specified {@code Transaction}.
+	 * Rolls back the specified {@code Transaction} so that it can be restarted. The {@code Transaction} keeps its age
+	 * in the {@code LockManager} so that, under {@link LockManager.DeadlockPolicy#WAIT_DIE} and
+	 * {@link LockManager.DeadlockPolicy#WOUND_WAIT}, a {@code Transaction} restarted again and again eventually becomes
+	 * the oldest one and is no longer aborted.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} to restart
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 */
+	@Override
+	public void restart(int tID, UndoLog<V> undoLog) {
+		long timestamp = lockManager.timestamp(tID);
+		rollback(tID, undoLog);
+		lockManager.register(tID, timestamp);
+	}
+
+	/**
+	 * Commits the specified {@code Transaction} unless it has been chosen to be aborted (e.g., wounded by an older
+	 * {@code Transaction} while it was not waiting for a lock), in which case it must roll back so that the
+	 * {@code Transaction}s waiting for its locks can proceed.
 	 * 
 	 * @param tID
 	 *            the ID of the {@code Transaction} to commit
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws AbortException
+	 *             if the {@code Transaction} cannot commit and thus must be aborted
 	 */
 	@Override
-	public void commit(int tID) {
-		super.commit(tID);
+	public void commit(int tID, UndoLog<V> undoLog) throws AbortException {
+		if (lockManager.isVictim(tID))
+			throw abort(AbortReason.DEADLOCK);
+		super.commit(tID, undoLog);
 		releaseAllRemainingLocks(tID);
 	}
 
 	/**
-	 * Releases all remaining {@code Lock}s granted to the specified {@code Transaction}.
+	 * Stores a new data item while holding an exclusive lock on the data item that follows it, which conflicts with
+	 * the shared lock of any range read covering the new data item. Unless the {@code Transaction} already held it,
+	 * the lock on the following data item is released right after the new data item is stored because range reads
+	 * that start later find the new data item and wait for the lock on it.
 	 * 
 	 * @param tID
-	 *            the ID of the {@code Transaction}
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param dID
+	 *            the ID of the new data item (already locked in the exclusive mode)
+	 * @param dValue
+	 *            the value of the new data item
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws InvalidTransactionIDException
+	 *             if an invalid {@code Transaction} ID is given
+	 * @throws AbortException
+	 *             if the {@code Transaction} must be aborted instead of acquiring the lock
 	 */
-	protected void releaseAllRemainingLocks(int tID) {
-		// use a member variable you added
-		HashSet<Integer> dIDset = tID2dID.remove(tID);
-		for (Integer dID : dIDset) {
-			
-			getLock(dID).writeLock().unlock();
-			getLock(dID).readLock().unlock();
+	protected void insert(int tID, int dID, V dValue, UndoLog<V> undoLog)
+			throws InvalidTransactionIDException, AbortException {
+		while (true) {
+			int next = nextDID(dID, false);
+			boolean held = lockManager.lockMode(tID, next) != null;
+			lockManager.lock(tID, next, LockMode.EXCLUSIVE);
+			try {
+				if (next == nextDID(dID, false)) { // no data item was inserted in between in the meantime
+					super.write(tID, dID, dValue, undoLog);
+					return;
+				}
+			} finally {
+				if (!held)
+					lockManager.unlock(tID, next);
+			}
 		}
 	}
 
 	/**
-	 * Returns the {@code Lock} associated with the specified data item.
+	 * Checks that the specified ID can be used as a data ID.
 	 * 
 	 * @param dID
+	 *            an ID
+	 * @throws IllegalArgumentException
+	 *             if the ID is {@link #SUPREMUM}
+	 */
+	static void checkDID(int dID) {
+		if (dID == SUPREMUM)
+			throw new IllegalArgumentException("data ID " + dID + " is reserved for next-key locking");
+	}
+
+	/**
+	 * Returns the ID of the stored data item that follows the specified ID.
+	 * 
+	 * @param dID
+	 *            an ID
+	 * @param inclusive
+	 *            a flag indicating whether the specified ID itself is returned if it is stored
+	 * @return the smallest stored ID greater than (or, if {@code inclusive}, equal to) the specified ID;
+	 *         {@link #SUPREMUM} if there is no such ID
+	 */
+	int nextDID(int dID, boolean inclusive) {
+		long next = nextStoredDID(dID, inclusive);
+		return next < 0 ? SUPREMUM : (int) next;
+	}
+
+	/**
+	 * Acquires a lock on the specified data item in the specified mode for the specified {@code Transaction} and
+	 * remembers the data item so that the lock can be released when the {@code Transaction} finishes.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @param dID
 	 *            the ID of the data item
-	 * @return the {@code Lock} associated with the specified data item
-	 */
-	protected ReentrantReadWriteLock getLock(int dID) {
-		// use dID2lock
-		if(dID2lock.containsKey(dID)) {  //if the dID is contained in the lock table dID2lock
-			return dID2lock.get(dID);  // return the lock
-		} else {   // if dID is not contained in the lock table
-			ReentrantReadWriteLock RWlock = new ReentrantReadWriteLock(); //create a new lock
-			dID2lock.put(dID, RWlock);
-			return RWlock;
-		}		
-		 // was null
+	 * @param mode
+	 *            the requested {@code LockMode}
+	 * @throws AbortException
+	 *             if the {@code Transaction} must be aborted instead of acquiring the lock
+	 */
+	protected void lock(int tID, int dID, LockMode mode) throws AbortException {
+		HashSet<Integer> dIDs = tID2dID.get(tID);
+		if (dIDs == null) {
+			dIDs = new HashSet<Integer>();
+			tID2dID.put(tID, dIDs);
+		}
+		lockManager.lock(tID, dID, mode);
+		dIDs.add(dID);
+	}
+
+	/**
+	 * Releases all remaining locks granted to the specified {@code Transaction}.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 */
+	protected void releaseAllRemainingLocks(int tID) {
+		HashSet<Integer> dIDs = tID2dID.remove(tID);
+		if (dIDs != null)
+			for (Integer dID : dIDs)
+				lockManager.unlock(tID, dID);
+		lockManager.unregister(tID);
 	}
 }
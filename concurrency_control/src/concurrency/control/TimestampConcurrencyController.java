@@ -1,11 +1,18 @@
 package concurrency.control;
-import java.lang.Math;
-import java.util.HashMap;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
 
 import concurrency.StorageManager;
+import concurrency.control.Metrics.AbortReason;
 
 /**
- * The {@code TimestampConcurrencyController} class implements timestamp-based concurrency control.
+ * The {@code TimestampConcurrencyController} class implements timestamp-based concurrency control. The R-timestamps
+ * and W-timestamps of data items are kept in a {@code TimestampTable}, which stores them in primitive arrays so that
+ * checking and updating them neither boxes data IDs nor allocates memory once a data item has been accessed.
  * 
  * @author Jeong-Hyon Hwang (jhh@cs.albany.edu)
  *
@@ -15,20 +22,190 @@ import concurrency.StorageManager;
 public class TimestampConcurrencyController<V> extends ConcurrencyController<V> {
 
 	/**
-	 * A map that associates {@code Transaction} IDs with timestamps.
+	 * A {@code TimestampTable} keeps the R-timestamp and W-timestamp of each data item in a slot of a chunked
+	 * {@code AtomicLongArray}. Slots never move once assigned, so the timestamps in a slot can be checked and updated
+	 * with atomic operations only. Data IDs are mapped to slots by an open-addressing hash table with linear probing
+	 * which is read optimistically and only locked when a data item is accessed for the first time.
 	 */
-	HashMap<Integer, Integer> tID2timestamp = new HashMap<Integer, Integer>();
-	
-	
+	static class TimestampTable {
+
+		/**
+		 * The number of bits of a slot number that select a slot within a chunk.
+		 */
+		static final int CHUNK_BITS = 10;
+
+		/**
+		 * The lock protecting the hash table and the assignment of slots.
+		 */
+		final StampedLock lock = new StampedLock();
+
+		/**
+		 * The data IDs in the hash table.
+		 */
+		int[] keys = new int[16];
+
+		/**
+		 * The slot numbers in the hash table, each plus one ({@code 0} for empty entries).
+		 */
+		int[] slots = new int[16];
+
+		/**
+		 * The number of slots assigned so far.
+		 */
+		int size = 0;
+
+		/**
+		 * The chunks holding the R-timestamp of slot {@code i} at index {@code 2i} and its W-timestamp at index
+		 * {@code 2i + 1} (within the chunk that the upper bits of {@code i} select).
+		 */
+		volatile AtomicLongArray[] chunks = { new AtomicLongArray(2 << CHUNK_BITS) };
+
+		/**
+		 * Returns the slot of the specified data item, assigning a slot if the data item has none yet.
+		 * 
+		 * @param dID
+		 *            the ID of the data item
+		 * @return the slot of the data item
+		 */
+		int slot(int dID) {
+			int hash = hash(dID);
+			long stamp = lock.tryOptimisticRead();
+			int slot = find(dID, hash);
+			if (slot >= 0 && lock.validate(stamp))
+				return slot;
+			stamp = lock.writeLock();
+			try {
+				slot = find(dID, hash);
+				if (slot < 0)
+					slot = insert(dID, hash);
+				return slot;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Returns the chunk that contains the specified slot.
+		 * 
+		 * @param slot
+		 *            a slot
+		 * @return the chunk that contains the slot
+		 */
+		AtomicLongArray chunk(int slot) {
+			return chunks[slot >>> CHUNK_BITS];
+		}
+
+		/**
+		 * Returns the slot of the specified data item. This method may be called without holding the lock, in which case
+		 * the result must be validated.
+		 * 
+		 * @param dID
+		 *            the ID of the data item
+		 * @param hash
+		 *            the hash of the data ID
+		 * @return the slot of the data item ({@code -1} if none)
+		 */
+		int find(int dID, int hash) {
+			int[] keys = this.keys;
+			int[] slots = this.slots;
+			if (keys.length != slots.length) // a concurrent resize has been observed halfway
+				return -1;
+			int mask = keys.length - 1;
+			for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				int slot = slots[i];
+				if (slot == 0)
+					return -1;
+				if (keys[i] == dID)
+					return slot - 1;
+			}
+			return -1;
+		}
+
+		/**
+		 * Assigns a new slot to the specified data item. The caller must hold the write lock.
+		 * 
+		 * @param dID
+		 *            the ID of the data item
+		 * @param hash
+		 *            the hash of the data ID
+		 * @return the new slot
+		 */
+		int insert(int dID, int hash) {
+			int slot = size++;
+			AtomicLongArray[] chunks = this.chunks;
+			if (slot >>> CHUNK_BITS == chunks.length) { // the chunk is published before the slot becomes visible
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+				for (int i = slot >>> CHUNK_BITS; i < chunks.length; i++)
+					chunks[i] = new AtomicLongArray(2 << CHUNK_BITS);
+				this.chunks = chunks;
+			}
+			if (size > keys.length / 4 * 3)
+				resize();
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			while (slots[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = dID;
+			slots[i] = slot + 1;
+			return slot;
+		}
+
+		/**
+		 * Doubles the capacity of the hash table. The caller must hold the write lock. New arrays are built before being
+		 * published so that concurrent optimistic readers only see complete tables.
+		 */
+		void resize() {
+			int[] nKeys = new int[keys.length * 2];
+			int[] nSlots = new int[keys.length * 2];
+			int mask = nKeys.length - 1;
+			for (int j = 0; j < keys.length; j++)
+				if (slots[j] != 0) {
+					int i = hash(keys[j]) & mask;
+					while (nSlots[i] != 0)
+						i = (i + 1) & mask;
+					nKeys[i] = keys[j];
+					nSlots[i] = slots[j];
+				}
+			keys = nKeys;
+			slots = nSlots;
+		}
+
+		/**
+		 * Returns the hash of the specified data ID. Consecutive data IDs are spread over all entries.
+		 * 
+		 * @param dID
+		 *            the ID of a data item
+		 * @return the hash of the data ID
+		 */
+		static int hash(int dID) {
+			int h = dID * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+	}
+
+	/**
+	 * The bit of a W-timestamp that is set while a write to the data item is being applied (timestamps are positive
+	 * {@code long}s and never reach this bit).
+	 */
+	static final long WRITING = Long.MIN_VALUE;
+
 	/**
-	 * Maps that associates {@code dataitem} IDs with Write-timestamps, and Read-timestamps.
+	 * A map that associates the IDs of active {@code Transaction}s with timestamps. Entries are removed when
+	 * {@code Transaction}s commit or roll back.
 	 */
-	HashMap<Integer, Integer> dID2Wtimestamp = new HashMap<Integer, Integer>();
-	HashMap<Integer, Integer> dID2Rtimestamp = new HashMap<Integer, Integer>();
+	ConcurrentHashMap<Integer, Long> tID2timestamp = new ConcurrentHashMap<Integer, Long>();
+
+	/**
+	 * The {@code TimestampTable} holding the R-timestamps and W-timestamps of data items. A timestamp of {@code 0}
+	 * means that the data item has not been read/written yet.
+	 */
+	TimestampTable timestamps = new TimestampTable();
+
 	/**
 	 * The number of {@code Transaction}s that have been registered so far.
 	 */
-	int count = 0;
+	AtomicLong count = new AtomicLong();
 
 	/**
 	 * Constructs a {@code TimestampConcurrencyController}.
@@ -40,6 +217,18 @@ public class TimestampConcurrencyController<V> extends ConcurrencyController<V>
 		super(storageManager);
 	}
 
+	/**
+	 * Constructs a {@code TimestampConcurrencyController}.
+	 * 
+	 * @param storageManager
+	 *            a {@code StorageManager}
+	 * @param logManager
+	 *            the {@code LogManager} that makes updates durable ({@code null} if updates are not to be logged)
+	 */
+	public TimestampConcurrencyController(StorageManager<V> storageManager, LogManager<V> logManager) {
+		super(storageManager, logManager);
+	}
+
 	/**
 	 * Registers a {@code Transaction}.
 	 * 
@@ -47,7 +236,7 @@ public class TimestampConcurrencyController<V> extends ConcurrencyController<V>
 	 *            the ID of the {@code Transaction}
 	 */
 	public void register(int tID) {
-		tID2timestamp.put(tID, count++);
+		tID2timestamp.put(tID, count.incrementAndGet());
 	}
 
 	/**
@@ -64,24 +253,28 @@ public class TimestampConcurrencyController<V> extends ConcurrencyController<V>
 	 */
 	@Override
 	public V read(int tID, int dID) throws InvalidTransactionIDException, AbortException {
-//		Integer timestamp = tID2timestamp.get(tID); // the timestamp of the transaction specified by tID
-		Integer timestamp = tID2timestamp.get(tID); // the timestamp of the transaction specified by tID
-
-		if(!dID2Wtimestamp.containsKey(dID)) {	// if W-timestamp(dID) not exist	
-			 dID2Rtimestamp.put(dID, tID);			 // add R-timespace(dID) = tID;
-			 return super.read(tID, dID);     // read dataitem dID from transaction tID
-		 } else if (timestamp >= dID2Wtimestamp.get(dID)) { // if TS(tID) >= W-timestamp(dID)
-			 if(!dID2Rtimestamp.containsKey(dID)) {   // if dID is not in hashmap <dID, R-timestamp>
-				 dID2Rtimestamp.put(dID,  dID2Rtimestamp.get(dID));  // add it into the above hashmap
-			 } else {
-				 dID2Rtimestamp.put(dID, Math.max(timestamp, dID2Rtimestamp.get(dID)));	 // update R-timestamp(dID) as max(TS(tID), R-timestamp(dID)) 
-			 }			 		
-			 return super.read(tID, dID);   // read dataitem dID from transaction tID
-		 }	else {			 
-			 
-			 throw new AbortException(); // rollback and throw Abort Exception
-		 }		
-		 //return null;
+		long timestamp = timestamp(tID); // the timestamp of the transaction specified by tID
+		int slot = timestamps.slot(dID);
+		AtomicLongArray chunk = timestamps.chunk(slot);
+		int r = readIndex(slot), w = r + 1;
+		while (true) {
+			long writeTimestamp = chunk.get(w);
+			if ((writeTimestamp & WRITING) != 0) { // a write to the data item is being applied
+				Thread.yield();
+				continue;
+			}
+			if (timestamp < writeTimestamp) // TS(tID) < W-timestamp(dID)
+				throw abort(AbortReason.READ_TOO_LATE);
+			long readTimestamp = chunk.get(r);
+			if (timestamp > readTimestamp // R-timestamp(dID) = max(TS(tID), R-timestamp(dID))
+					&& !chunk.compareAndSet(r, readTimestamp, timestamp))
+				continue;
+			// a writer sets its flag before checking R-timestamp(dID), so either it sees the new R-timestamp or the
+			// check below sees its flag
+			V value = super.read(tID, dID);
+			if (chunk.get(w) == writeTimestamp)
+				return value; // no write was applied while reading
+		}
 	}
 
 	/**
@@ -93,28 +286,111 @@ public class TimestampConcurrencyController<V> extends ConcurrencyController<V>
 	 *            the ID of the data item for which the request was made
 	 * @param dValue
 	 *            the value of the data item for which the request was made
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
 	 * @throws InvalidTransactionIDException
 	 *             if an invalid {@code Transaction} ID is given
 	 * @throws AbortException
 	 *             if the request cannot be permitted and thus the related {@code Transaction} must be aborted
 	 */
 	@Override
-	public void write(int tID, int dID, V dValue) throws InvalidTransactionIDException, AbortException {
-//		Integer timestamp = tID2timestamp.get(tID); // the timestamp of the transaction specified by tID
-		if(!tID2timestamp.containsKey(tID)) { //If transcation is not registered, register it
-			register(tID);
+	public void write(int tID, int dID, V dValue, UndoLog<V> undoLog)
+			throws InvalidTransactionIDException, AbortException {
+		long timestamp = timestamp(tID); // the timestamp of the transaction specified by tID
+		int slot = timestamps.slot(dID);
+		AtomicLongArray chunk = timestamps.chunk(slot);
+		int r = readIndex(slot), w = r + 1;
+		long writeTimestamp;
+		while (true) { // writes to the same data item are applied one at a time
+			writeTimestamp = chunk.get(w);
+			if ((writeTimestamp & WRITING) == 0 && chunk.compareAndSet(w, writeTimestamp, writeTimestamp | WRITING))
+				break;
+			Thread.yield();
 		}
-		Integer timestamp = tID2timestamp.get(tID); // the time stamp of the transaction specified by tID
-		if(dID2Rtimestamp.containsKey(dID) && timestamp < dID2Rtimestamp.get(dID)) {  // if  R-timestamp(dID) exists and TS(tID) < R-timestamp(dID)
-			throw new AbortException();  // rollback and throw AbortException
-		} else if (dID2Wtimestamp.containsKey(dID) && timestamp < dID2Wtimestamp.get(dID)) { // if  W-timestamp(dID) exists and TS(tID) < W-timestamp(dID)
-			throw new AbortException();  // rollback and throw AbortException
-		} else {
-			//register(tID);
-			dID2Wtimestamp.put(dID, timestamp);  //record W-timestamp(dID) = TS(tID)
-			super.write(tID, dID, dValue); // write it into the disk
+		boolean applied = false;
+		try {
+			if (timestamp < chunk.get(r)) // TS(tID) < R-timestamp(dID)
+				throw abort(AbortReason.WRITE_TOO_LATE);
+			if (timestamp < writeTimestamp) { // TS(tID) < W-timestamp(dID)
+				obsoleteWrite(tID, dID);
+				return;
+			}
+			super.write(tID, dID, dValue, undoLog);
+			applied = true;
+		} finally { // W-timestamp(dID) = TS(tID) if the write has been applied
+			chunk.set(w, applied ? timestamp : writeTimestamp);
 		}
-		
+	}
+
+	/**
+	 * Rolls back the specified {@code Transaction} and forgets its timestamp.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} to roll back.
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 */
+	@Override
+	public void rollback(int tID, UndoLog<V> undoLog) {
+		super.rollback(tID, undoLog);
+		tID2timestamp.remove(tID);
+	}
+
+	/**
+	 * Commits the specified {@code Transaction} and forgets its timestamp.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} to commit
+	 * @param undoLog
+	 *            the {@code UndoLog} of the {@code Transaction}
+	 * @throws AbortException
+	 *             if the {@code Transaction} cannot commit and thus must be aborted
+	 */
+	@Override
+	public void commit(int tID, UndoLog<V> undoLog) throws AbortException {
+		super.commit(tID, undoLog);
+		tID2timestamp.remove(tID);
+	}
+
+	/**
+	 * Handles a write request that arrives after a younger {@code Transaction} has already written the same data item.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction} that has made the request
+	 * @param dID
+	 *            the ID of the data item for which the request was made
+	 * @throws AbortException
+	 *             if the write request cannot be ignored and thus the related {@code Transaction} must be aborted
+	 */
+	protected void obsoleteWrite(int tID, int dID) throws AbortException {
+		throw abort(AbortReason.WRITE_TOO_LATE);
+	}
+
+	/**
+	 * Returns the timestamp of the specified {@code Transaction}, registering the {@code Transaction} if necessary.
+	 * 
+	 * @param tID
+	 *            the ID of the {@code Transaction}
+	 * @return the timestamp of the {@code Transaction}
+	 */
+	protected long timestamp(int tID) {
+		Long timestamp = tID2timestamp.get(tID);
+		if (timestamp == null) {
+			register(tID);
+			timestamp = tID2timestamp.get(tID);
+		}
+		return timestamp;
+	}
+
+	/**
+	 * Returns the index of the R-timestamp of the specified slot within its chunk (the W-timestamp follows it).
+	 * 
+	 * @param slot
+	 *            a slot of the {@code TimestampTable}
+	 * @return the index of the R-timestamp of the slot within its chunk
+	 */
+	static int readIndex(int slot) {
+		return (slot & ((1 << TimestampTable.CHUNK_BITS) - 1)) << 1;
 	}
 
 }
@@ -0,0 +1,417 @@
+package concurrency.test;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import concurrency.StorageManager;
+import concurrency.control.ConcurrencyController;
+import concurrency.control.ConcurrencyController.AbortException;
+import concurrency.control.ConcurrencyController.UndoLog;
+import concurrency.control.LockManager;
+import concurrency.control.LockManager.DeadlockPolicy;
+
+/**
+ * The {@code ConcurrencyControlBenchmark} class measures the throughput of {@code ConcurrencyController}s under
+ * synthetic YCSB-like workloads. Each {@code Transaction} reads or updates a configurable number of data items chosen
+ * according to a Zipfian distribution, and aborted {@code Transaction}s are retried until they commit. For each
+ * {@code ConcurrencyController}, the committed {@code Transaction}s per second, the abort rate, the lock waits (for
+ * lock-based {@code ConcurrencyController}s), and latency percentiles (including retries) are reported.
+ *
+ */
+public class ConcurrencyControlBenchmark {
+
+	/**
+	 * A {@code ZipfianGenerator} generates integers in {@code [0, n)} so that the probability of {@code i} is
+	 * proportional to {@code 1 / (i + 1)^theta} (Gray et al., "Quickly Generating Billion-Record Synthetic Databases").
+	 */
+	static class ZipfianGenerator {
+
+		/**
+		 * The number of distinct values.
+		 */
+		int n;
+
+		/**
+		 * The skew ({@code 0} for a uniform distribution).
+		 */
+		double theta;
+
+		/**
+		 * Constants derived from {@code n} and {@code theta}.
+		 */
+		double alpha, zetan, eta, half;
+
+		/**
+		 * Constructs a {@code ZipfianGenerator}.
+		 *
+		 * @param n
+		 *            the number of distinct values
+		 * @param theta
+		 *            the skew (at least {@code 0} and less than {@code 1})
+		 */
+		ZipfianGenerator(int n, double theta) {
+			if (n < 2 || theta < 0 || theta >= 1)
+				throw new IllegalArgumentException();
+			this.n = n;
+			this.theta = theta;
+			alpha = 1 / (1 - theta);
+			zetan = zeta(n, theta);
+			eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+			half = 1 + Math.pow(0.5, theta);
+		}
+
+		/**
+		 * Returns the next integer.
+		 *
+		 * @param random
+		 *            a {@code Random}
+		 * @return the next integer
+		 */
+		int next(Random random) {
+			double u = random.nextDouble();
+			double uz = u * zetan;
+			if (uz < 1)
+				return 0;
+			if (uz < half)
+				return 1;
+			return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+		}
+
+		/**
+		 * Returns the sum of {@code 1 / i^theta} for {@code i} from {@code 1} to {@code n}.
+		 *
+		 * @param n
+		 *            the number of terms
+		 * @param theta
+		 *            the skew
+		 * @return the sum of {@code 1 / i^theta} for {@code i} from {@code 1} to {@code n}
+		 */
+		static double zeta(int n, double theta) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++)
+				sum += 1 / Math.pow(i, theta);
+			return sum;
+		}
+
+	}
+
+	/**
+	 * A {@code Worker} repeatedly runs {@code Transaction}s and records their outcomes. Its fields are only accessed by
+	 * its own thread until the measurement ends.
+	 */
+	class Worker extends Thread {
+
+		/**
+		 * The random number generator of this {@code Worker}.
+		 */
+		Random random;
+
+		/**
+		 * The {@code UndoLog} reused by the {@code Transaction}s of this {@code Worker}.
+		 */
+		UndoLog<Integer> undoLog = new UndoLog<Integer>();
+
+		/**
+		 * The number of {@code Transaction}s committed during the measurement.
+		 */
+		long commits = 0;
+
+		/**
+		 * The number of aborts during the measurement.
+		 */
+		long aborts = 0;
+
+		/**
+		 * The latencies (in nanoseconds) of the {@code Transaction}s committed during the measurement.
+		 */
+		long[] latencies = new long[1024];
+
+		/**
+		 * Constructs a {@code Worker}.
+		 *
+		 * @param seed
+		 *            the seed for the random number generator
+		 */
+		Worker(long seed) {
+			super("benchmark-worker");
+			setDaemon(true);
+			random = new Random(seed);
+		}
+
+		/**
+		 * Runs {@code Transaction}s until the benchmark stops.
+		 */
+		@Override
+		public void run() {
+			int[] dIDs = new int[transactionLength];
+			boolean[] updates = new boolean[transactionLength];
+			while (!stopped.get()) {
+				for (int i = 0; i < transactionLength; i++) {
+					dIDs[i] = generator.next(random);
+					updates[i] = random.nextDouble() >= readRatio;
+				}
+				long start = System.nanoTime();
+				int tID = tIDs.incrementAndGet();
+				controller.register(tID);
+				int aborts = 0;
+				while (!execute(tID, dIDs, updates))
+					if (stopped.get()) {
+						controller.rollback(tID, undoLog);
+						return;
+					} else {
+						aborts++;
+						Thread.yield(); // let the conflicting (e.g., older) transactions proceed first
+					}
+				if (measuring) {
+					if (commits == latencies.length)
+						latencies = Arrays.copyOf(latencies, latencies.length * 2);
+					latencies[(int) commits++] = System.nanoTime() - start;
+					this.aborts += aborts;
+				}
+			}
+		}
+
+		/**
+		 * Executes an attempt of a {@code Transaction} that accesses the specified data items. An aborted attempt is
+		 * rolled back and the {@code Transaction} is restarted through the {@code ConcurrencyController}, so that it
+		 * keeps its age under lock-based deadlock prevention.
+		 *
+		 * @param tID
+		 *            the ID of the {@code Transaction}
+		 * @param dIDs
+		 *            the IDs of the data items to access
+		 * @param updates
+		 *            flags indicating which data items to update rather than read
+		 * @return {@code true} if the {@code Transaction} has committed; {@code false} if it has been aborted
+		 */
+		boolean execute(int tID, int[] dIDs, boolean[] updates) {
+			try {
+				for (int i = 0; i < dIDs.length; i++)
+					if (updates[i])
+						controller.write(tID, dIDs[i], random.nextInt(), undoLog);
+					else
+						controller.read(tID, dIDs[i]);
+				controller.commit(tID, undoLog);
+				return true;
+			} catch (AbortException e) {
+				controller.restart(tID, undoLog);
+				return false;
+			} catch (Exception e) {
+				e.printStackTrace();
+				controller.restart(tID, undoLog);
+				return false;
+			}
+		}
+
+	}
+
+	/**
+	 * The {@code ConcurrencyController} to benchmark.
+	 */
+	ConcurrencyController<Integer> controller;
+
+	/**
+	 * The {@code LockManager} used by the {@code ConcurrencyController} ({@code null} if it does not use locks).
+	 */
+	LockManager lockManager;
+
+	/**
+	 * The {@code ZipfianGenerator} that chooses data items.
+	 */
+	ZipfianGenerator generator;
+
+	/**
+	 * The number of operations in each {@code Transaction}.
+	 */
+	int transactionLength;
+
+	/**
+	 * The fraction of operations that are reads.
+	 */
+	double readRatio;
+
+	/**
+	 * The last {@code Transaction} ID assigned.
+	 */
+	AtomicInteger tIDs = new AtomicInteger();
+
+	/**
+	 * A flag indicating whether the measurement has started (after the warm-up).
+	 */
+	volatile boolean measuring = false;
+
+	/**
+	 * A flag indicating whether the benchmark has ended.
+	 */
+	AtomicBoolean stopped = new AtomicBoolean();
+
+	/**
+	 * Benchmarks the specified {@code ConcurrencyController} and prints the results.
+	 *
+	 * @param ccImpl
+	 *            an implementation of {@code ConcurrencyController}
+	 * @param records
+	 *            the number of data items
+	 * @param theta
+	 *            the skew of the Zipfian distribution for choosing data items ({@code 0} for uniform)
+	 * @param transactionLength
+	 *            the number of operations in each {@code Transaction}
+	 * @param readRatio
+	 *            the fraction of operations that are reads
+	 * @param threads
+	 *            the number of threads running {@code Transaction}s
+	 * @param policy
+	 *            the {@code DeadlockPolicy} for lock-based {@code ConcurrencyController}s
+	 * @param warmup
+	 *            the warm-up time in milliseconds
+	 * @param duration
+	 *            the measurement time in milliseconds
+	 * @param out
+	 *            a {@code PrintStream}
+	 * @throws Exception
+	 *             if the {@code ConcurrencyController} cannot be constructed
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrencyControlBenchmark(Class<?> ccImpl, int records, double theta, int transactionLength,
+			double readRatio, int threads, DeadlockPolicy policy, long warmup, long duration, PrintStream out)
+			throws Exception {
+		this.generator = new ZipfianGenerator(records, theta);
+		this.transactionLength = transactionLength;
+		this.readRatio = readRatio;
+		StorageManager<Integer> storageManager = new StorageManager<Integer>();
+		for (int dID = 0; dID < records; dID++)
+			storageManager.write(dID, 0);
+		try {
+			lockManager = new LockManager(policy, 10, 0);
+			controller = (ConcurrencyController<Integer>) ccImpl
+					.getConstructor(StorageManager.class, LockManager.class).newInstance(storageManager, lockManager);
+		} catch (NoSuchMethodException e) {
+			lockManager = null;
+			controller = (ConcurrencyController<Integer>) ccImpl.getConstructor(StorageManager.class)
+					.newInstance(storageManager);
+		}
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < threads; i++)
+			workers.add(new Worker(i));
+		for (Worker worker : workers)
+			worker.start();
+		Thread.sleep(warmup);
+		long waits = lockManager == null ? 0 : lockManager.waits();
+		long waitTime = lockManager == null ? 0 : lockManager.waitTime();
+		long start = System.nanoTime();
+		measuring = true;
+		Thread.sleep(duration);
+		measuring = false;
+		long elapsed = System.nanoTime() - start;
+		if (lockManager != null) {
+			waits = lockManager.waits() - waits;
+			waitTime = lockManager.waitTime() - waitTime;
+		}
+		stopped.set(true);
+		for (Worker worker : workers)
+			worker.join();
+		if (lockManager != null)
+			lockManager.shutdown();
+		long commits = 0, aborts = 0;
+		for (Worker worker : workers) {
+			commits += worker.commits;
+			aborts += worker.aborts;
+		}
+		long[] latencies = new long[(int) commits];
+		int i = 0;
+		for (Worker worker : workers) {
+			System.arraycopy(worker.latencies, 0, latencies, i, (int) worker.commits);
+			i += worker.commits;
+		}
+		Arrays.sort(latencies);
+		out.printf("%-36s %10.0f %8.2f%% %10d %10.3f %8.3f %8.3f %8.3f %8.3f%n", ccImpl.getSimpleName(),
+				commits * 1e9 / elapsed, commits + aborts == 0 ? 0 : 100.0 * aborts / (commits + aborts),
+				waits, waits == 0 ? 0 : waitTime / 1e6 / waits, percentile(latencies, 0.5),
+				percentile(latencies, 0.95), percentile(latencies, 0.99), percentile(latencies, 0.999));
+	}
+
+	/**
+	 * Returns the specified percentile of the specified sorted latencies in milliseconds.
+	 *
+	 * @param latencies
+	 *            sorted latencies in nanoseconds
+	 * @param p
+	 *            a fraction between {@code 0} and {@code 1}
+	 * @return the percentile in milliseconds ({@code 0} if there are no latencies)
+	 */
+	static double percentile(long[] latencies, double p) {
+		if (latencies.length == 0)
+			return 0;
+		return latencies[Math.min(latencies.length - 1, (int) (p * latencies.length))] / 1e6;
+	}
+
+	/**
+	 * The main method of {@code ConcurrencyControlBenchmark}. Options are given as {@code name=value} arguments:
+	 * {@code records} (default 10000), {@code theta} (Zipfian skew, default 0.99), {@code length} (operations per
+	 * {@code Transaction}, default 10), {@code reads} (fraction of reads, default 0.5 as in YCSB workload A),
+	 * {@code threads} (default the number of processors), {@code deadlock} (the {@code DeadlockPolicy} of lock-based
+	 * {@code ConcurrencyController}s, default {@code DETECTION} every 10 milliseconds), {@code warmup} and
+	 * {@code duration} (in milliseconds, default 1000 and 5000), and {@code controllers} (comma-separated class names,
+	 * default all the {@code ConcurrencyController}s in {@code concurrency.control}).
+	 *
+	 * @param args
+	 *            the arguments of this main method
+	 */
+	public static void main(String[] args) throws Exception {
+		int records = 10000, length = 10, threads = Runtime.getRuntime().availableProcessors();
+		double theta = 0.99, reads = 0.5;
+		long warmup = 1000, duration = 5000;
+		DeadlockPolicy policy = DeadlockPolicy.DETECTION;
+		String controllers = "Strict2PLConcurrencyController,TimestampConcurrencyController,"
+				+ "TimestampConcurrencyControllerTWR,MVCCConcurrencyController,OptimisticConcurrencyController";
+		for (String arg : args) {
+			String[] tokens = arg.split("=", 2);
+			switch (tokens[0]) {
+			case "records":
+				records = Integer.parseInt(tokens[1]);
+				break;
+			case "theta":
+				theta = Double.parseDouble(tokens[1]);
+				break;
+			case "length":
+				length = Integer.parseInt(tokens[1]);
+				break;
+			case "reads":
+				reads = Double.parseDouble(tokens[1]);
+				break;
+			case "threads":
+				threads = Integer.parseInt(tokens[1]);
+				break;
+			case "deadlock":
+				policy = DeadlockPolicy.valueOf(tokens[1]);
+				break;
+			case "warmup":
+				warmup = Long.parseLong(tokens[1]);
+				break;
+			case "duration":
+				duration = Long.parseLong(tokens[1]);
+				break;
+			case "controllers":
+				controllers = tokens[1];
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option: " + arg);
+			}
+		}
+		System.out.printf(
+				"records=%d theta=%.2f length=%d reads=%.2f threads=%d deadlock=%s warmup=%dms duration=%dms%n",
+				records, theta, length, reads, threads, policy, warmup, duration);
+		System.out.printf("%-36s %10s %9s %10s %10s %8s %8s %8s %8s%n", "controller", "commits/s", "aborts",
+				"lock waits", "wait(ms)", "p50(ms)", "p95(ms)", "p99(ms)", "p99.9(ms)");
+		for (String name : controllers.split(","))
+			new ConcurrencyControlBenchmark(
+					Class.forName(name.contains(".") ? name : "concurrency.control." + name), records, theta,
+					length, reads, threads, policy, warmup, duration, System.out);
+	}
+
+}
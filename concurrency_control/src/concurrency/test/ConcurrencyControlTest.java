@@ -1,13 +1,15 @@
 package concurrency.test;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 
+import concurrency.RetryPolicy;
 import concurrency.Transaction;
 import concurrency.Transaction.TransactionUnreadyException;
 import concurrency.StorageManager;
@@ -16,6 +18,10 @@ import concurrency.command.CommitCommand;
 import concurrency.command.ReadCommand;
 import concurrency.command.WriteCommand;
 import concurrency.control.ConcurrencyController;
+import concurrency.control.LockManager;
+import concurrency.control.LockManager.DeadlockPolicy;
+import concurrency.control.LogManager;
+import concurrency.control.Strict2PLConcurrencyController;
 
 /**
  * The {@code ConcurrencyControlTest} class tests {@code ConcurrencyController}s.
@@ -39,11 +45,57 @@ public class ConcurrencyControlTest {
 
 	}
 
+	/**
+	 * A {@code ControllerFactory} creates the {@code ConcurrencyController} to test.
+	 */
+	public interface ControllerFactory {
+
+		/**
+		 * Creates a {@code ConcurrencyController}.
+		 * 
+		 * @param storageManager
+		 *            a {@code StorageManager}
+		 * @param logManager
+		 *            a {@code LogManager} ({@code null} if updates are not to be logged)
+		 * @return a {@code ConcurrencyController}
+		 * @throws Exception
+		 *             if the {@code ConcurrencyController} cannot be created
+		 */
+		ConcurrencyController<Integer> create(StorageManager<Integer> storageManager, LogManager<Integer> logManager)
+				throws Exception;
+
+	}
+
 	/**
 	 * The {@code ConcurrencyController} that this {@code ConcurrencyControlTest} uses.
 	 */
 	ConcurrencyController<Integer> controller;
 
+	/**
+	 * The {@code ControllerFactory} that this {@code ConcurrencyControlTest} uses.
+	 */
+	ControllerFactory factory;
+
+	/**
+	 * The {@code StorageManager} that this {@code ConcurrencyControlTest} uses.
+	 */
+	StorageManager<Integer> storageManager;
+
+	/**
+	 * The directory containing the log ({@code null} if updates are not logged).
+	 */
+	File logDirectory;
+
+	/**
+	 * The {@code LogManager} that this {@code ConcurrencyControlTest} uses ({@code null} if updates are not logged).
+	 */
+	LogManager<Integer> logManager;
+
+	/**
+	 * The {@code RetryPolicy} of the {@code Transaction}s.
+	 */
+	RetryPolicy retryPolicy;
+
 	/**
 	 * A map that associates {@code Transaction} IDs with {@code Transaction}s.
 	 */
@@ -64,18 +116,42 @@ public class ConcurrencyControlTest {
 	 * @param out
 	 *            a {@code PrintStream}
 	 */
-	@SuppressWarnings({ "unchecked", "deprecation" })
 	public ConcurrencyControlTest(String fileName, Class<?> ccImpl, PrintStream out)
 			throws NumberFormatException, IOException {
+		this(fileName, ccImpl.getSimpleName(), factory(ccImpl), null, RetryPolicy.NONE, out);
+	}
+
+	/**
+	 * Tests a {@code ConcurrencyController} using a schedule defined in the specified file. Besides the commands of
+	 * {@code Transaction}s, the schedule may contain {@code checkpoint} lines, which take a checkpoint, and
+	 * {@code crash} lines, which discard all the data items and active {@code Transaction}s and then perform restart
+	 * recovery from the log (both require a log directory). With a {@code RetryPolicy}, aborted {@code Transaction}s
+	 * are restarted and replay their {@code Command}s on their own.
+	 * 
+	 * @param fileName
+	 *            the name of the file defining a schedule
+	 * @param name
+	 *            the name of the {@code ConcurrencyController} to print
+	 * @param factory
+	 *            the {@code ControllerFactory} that creates the {@code ConcurrencyController}
+	 * @param logDirectory
+	 *            the directory for the log ({@code null} if updates are not to be logged)
+	 * @param retryPolicy
+	 *            the {@code RetryPolicy} of the {@code Transaction}s
+	 * @param out
+	 *            a {@code PrintStream}
+	 */
+	public ConcurrencyControlTest(String fileName, String name, ControllerFactory factory, File logDirectory,
+			RetryPolicy retryPolicy, PrintStream out) throws NumberFormatException, IOException {
 		this.out = out;
-		out.println("currency controller: " + ccImpl.getSimpleName());
+		this.factory = factory;
+		this.logDirectory = logDirectory;
+		this.retryPolicy = retryPolicy;
+		out.println("currency controller: " + name);
 		out.println("schedule: " + fileName);
-		StorageManager<Integer> storageManager = new StorageManager<Integer>(out);
 		try {
-			controller = (ConcurrencyController<Integer>) ccImpl.getConstructor(StorageManager.class)
-					.newInstance(storageManager);
-		} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException e) {
+			open();
+		} catch (Exception e) {
 			e.printStackTrace();
 			return;
 		}
@@ -85,8 +161,12 @@ public class ConcurrencyControlTest {
 			while ((line = reader.readLine()) != null) {
 				out.println(line);
 				String[] tokens = line.split(" ");
-				int tID = Integer.parseInt(tokens[0].substring(1));
 				try {
+					if (tokens.length == 1) {
+						handleEvent(tokens[0]);
+						continue;
+					}
+					int tID = Integer.parseInt(tokens[0].substring(1));
 					switch (tokens[1]) {
 					case "start":
 						startTransaction(tID);
@@ -116,7 +196,50 @@ public class ConcurrencyControlTest {
 		storageManager.print(out);
 		out.println();
 		for (Transaction<Integer> t : transactions.values()) // terminating all ongoing transactions
-			t.stop();
+			t.terminate();
+		if (logManager != null)
+			logManager.close();
+	}
+
+	/**
+	 * Creates the {@code StorageManager}, the {@code LogManager} (which performs restart recovery if the log directory
+	 * contains a log), and the {@code ConcurrencyController}.
+	 * 
+	 * @throws Exception
+	 *             if an error occurs
+	 */
+	void open() throws Exception {
+		storageManager = new StorageManager<Integer>(out);
+		if (logDirectory != null)
+			logManager = new LogManager<Integer>(logDirectory, storageManager, LogManager.INTEGER);
+		controller = factory.create(storageManager, logManager);
+	}
+
+	/**
+	 * Handles the specified event of a schedule.
+	 * 
+	 * @param event
+	 *            {@code checkpoint} or {@code crash}
+	 * @throws Exception
+	 *             if the event is unknown or cannot be handled
+	 */
+	void handleEvent(String event) throws Exception {
+		if (logManager == null)
+			throw new UnsupportedCommandException();
+		switch (event) {
+		case "checkpoint":
+			logManager.checkpoint();
+			break;
+		case "crash": // only what has been forced to the log survives
+			for (Transaction<Integer> t : transactions.values())
+				t.terminate();
+			transactions.clear();
+			logManager.close();
+			open();
+			break;
+		default:
+			throw new UnsupportedCommandException();
+		}
 	}
 
 	/**
@@ -131,8 +254,21 @@ public class ConcurrencyControlTest {
 	 */
 	void assignCommand(int tID, Command command) throws TransactionUnreadyException {
 		transactions.get(tID).setNextCommand(command);
+		awaitTransactions(100);
+	}
+
+	/**
+	 * Waits until all {@code Transaction}s have executed the {@code Command}s given to them (including those unblocked
+	 * by the last {@code Command}) or the specified time has elapsed because some {@code Transaction}s are blocked.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds
+	 */
+	void awaitTransactions(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
 		try {
-			Thread.sleep(100);
+			for (Transaction<Integer> t : transactions.values())
+				t.awaitCompletion(Math.max(1, deadline - System.currentTimeMillis()));
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -145,13 +281,59 @@ public class ConcurrencyControlTest {
 	 *            the ID of the {@code Transaction}
 	 */
 	void startTransaction(int tID) {
-		Transaction<Integer> t = new Transaction<Integer>(tID, controller, out);
-		t.start();
+		Transaction<Integer> t = new Transaction<Integer>(tID, controller, out, retryPolicy);
 		transactions.put(tID, t);
+	}
+
+	/**
+	 * Returns a {@code ControllerFactory} that creates instances of the specified implementation of
+	 * {@code ConcurrencyController}.
+	 * 
+	 * @param ccImpl
+	 *            an implementation of {@code ConcurrencyController}
+	 * @return a {@code ControllerFactory} that creates instances of the implementation
+	 */
+	@SuppressWarnings("unchecked")
+	static ControllerFactory factory(Class<?> ccImpl) {
+		return (storageManager, logManager) -> logManager == null
+				? (ConcurrencyController<Integer>) ccImpl.getConstructor(StorageManager.class).newInstance(storageManager)
+				: (ConcurrencyController<Integer>) ccImpl.getConstructor(StorageManager.class, LogManager.class)
+						.newInstance(storageManager, logManager);
+	}
+
+	/**
+	 * Returns a {@code ControllerFactory} that creates {@code Strict2PLConcurrencyController}s whose
+	 * {@code LockManager}s use the specified {@code DeadlockPolicy}.
+	 * 
+	 * @param policy
+	 *            a {@code DeadlockPolicy}
+	 * @return a {@code ControllerFactory} that creates {@code Strict2PLConcurrencyController}s
+	 */
+	static ControllerFactory strict2PL(DeadlockPolicy policy) {
+		return (storageManager, logManager) -> new Strict2PLConcurrencyController<Integer>(storageManager,
+				new LockManager(policy, 50, 0), logManager);
+	}
+
+	/**
+	 * Tests the specified {@code ConcurrencyController} using a schedule that crashes, with the log kept in a temporary
+	 * directory.
+	 * 
+	 * @param fileName
+	 *            the name of the file defining a schedule
+	 * @param ccImpl
+	 *            an implementation of {@code ConcurrencyController}
+	 * @param out
+	 *            a {@code PrintStream}
+	 */
+	static void testRecovery(String fileName, Class<?> ccImpl, PrintStream out) throws IOException {
+		File logDirectory = Files.createTempDirectory("concurrency-log").toFile();
 		try {
-			Thread.sleep(100);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			new ConcurrencyControlTest(fileName, ccImpl.getSimpleName(), factory(ccImpl), logDirectory, RetryPolicy.NONE,
+					out);
+		} finally {
+			for (File file : logDirectory.listFiles())
+				file.delete();
+			logDirectory.delete();
 		}
 	}
 
@@ -176,6 +358,30 @@ public class ConcurrencyControlTest {
 				System.out);
 		new ConcurrencyControlTest("schedule3.txt", concurrency.control.Strict2PLConcurrencyController.class,
 				System.out);
+		new ConcurrencyControlTest("schedule4.txt", concurrency.control.Strict2PLConcurrencyController.class,
+				System.out);
+		for (DeadlockPolicy policy : new DeadlockPolicy[] { DeadlockPolicy.WAIT_DIE, DeadlockPolicy.WOUND_WAIT }) {
+			new ConcurrencyControlTest("schedule4.txt", "Strict2PLConcurrencyController (" + policy + ")",
+					strict2PL(policy), null, RetryPolicy.NONE, System.out);
+			new ConcurrencyControlTest("schedule6.txt", "Strict2PLConcurrencyController (" + policy + ")",
+					strict2PL(policy), null, RetryPolicy.NONE, System.out);
+		}
+		RetryPolicy retryPolicy = new RetryPolicy(3, 0, 0, 0, 0);
+		new ConcurrencyControlTest("schedule3.txt", "TimestampConcurrencyController (restarting)",
+				factory(concurrency.control.TimestampConcurrencyController.class), null, retryPolicy, System.out);
+		new ConcurrencyControlTest("schedule7.txt", "Strict2PLConcurrencyController (WOUND_WAIT, restarting)",
+				strict2PL(DeadlockPolicy.WOUND_WAIT), null, retryPolicy, System.out);
+		new ConcurrencyControlTest("schedule1.txt", concurrency.control.MVCCConcurrencyController.class, System.out);
+		new ConcurrencyControlTest("schedule2.txt", concurrency.control.MVCCConcurrencyController.class, System.out);
+		new ConcurrencyControlTest("schedule3.txt", concurrency.control.MVCCConcurrencyController.class, System.out);
+		new ConcurrencyControlTest("schedule1.txt", concurrency.control.OptimisticConcurrencyController.class,
+				System.out);
+		new ConcurrencyControlTest("schedule2.txt", concurrency.control.OptimisticConcurrencyController.class,
+				System.out);
+		new ConcurrencyControlTest("schedule3.txt", concurrency.control.OptimisticConcurrencyController.class,
+				System.out);
+		testRecovery("schedule5.txt", concurrency.control.TimestampConcurrencyController.class, System.out);
+		testRecovery("schedule5.txt", concurrency.control.MVCCConcurrencyController.class, System.out);
 	}
 
 }